@@ -0,0 +1,105 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.undertow.js.benchmarks;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+
+import javax.script.ScriptException;
+
+import io.undertow.Undertow;
+import io.undertow.js.ScriptEngineProvider;
+import io.undertow.js.UndertowJS;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.resource.ClassPathResourceManager;
+import io.undertow.server.handlers.resource.ResourceManager;
+import io.undertow.util.StatusCodes;
+
+/**
+ * An Undertow server on a free loopback port that serves the benchmark scripts through {@link UndertowJS#getHandler(HttpHandler)}.
+ */
+final class BenchmarkServer {
+
+    static final String HOST = "127.0.0.1";
+
+    private final UndertowJS js;
+    private final Undertow server;
+    private final int port;
+
+    private BenchmarkServer(UndertowJS js, Undertow server, int port) {
+        this.js = js;
+        this.server = server;
+        this.port = port;
+    }
+
+    /**
+     * @return a resource manager for the scripts and templates in this package
+     */
+    static ResourceManager resources() {
+        return new ClassPathResourceManager(BenchmarkServer.class.getClassLoader(), BenchmarkServer.class.getPackage());
+    }
+
+    static BenchmarkServer start(String... scripts) throws IOException, ScriptException {
+        return start(null, scripts);
+    }
+
+    /**
+     * @param engine the script engine backend, or null for the default one
+     */
+    static BenchmarkServer start(ScriptEngineProvider engine, String... scripts) throws IOException, ScriptException {
+        UndertowJS js = UndertowJS.builder()
+                .setScriptEngineProvider(engine)
+                .addResources(resources(), scripts)
+                .build();
+        js.start();
+        int port = freePort();
+        Undertow server = Undertow.builder()
+                .addHttpListener(port, HOST)
+                .setHandler(js.getHandler(new HttpHandler() {
+                    @Override
+                    public void handleRequest(HttpServerExchange exchange) throws Exception {
+                        exchange.setStatusCode(StatusCodes.NOT_FOUND);
+                    }
+                }))
+                .build();
+        server.start();
+        return new BenchmarkServer(js, server, port);
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    String url(String path) {
+        return "http://" + HOST + ":" + port + path;
+    }
+
+    String websocketUrl(String path) {
+        return "ws://" + HOST + ":" + port + path;
+    }
+
+    void stop() {
+        server.stop();
+        js.stop();
+    }
+}
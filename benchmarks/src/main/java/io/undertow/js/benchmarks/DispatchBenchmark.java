@@ -0,0 +1,108 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.undertow.js.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.undertow.js.ScriptEngineProvider;
+import io.undertow.js.providers.nashorn.NashornScriptEngineProvider;
+
+/**
+ * End to end dispatch of a request through {@link io.undertow.js.UndertowJS#getHandler(io.undertow.server.HttpHandler)}
+ * to a script route, over a keep alive loopback connection.
+ * <p>
+ * The <code>engine</code> parameter compares the script engine backends: <code>default</code> is Nashorn with its
+ * default options, and <code>throughput</code> is {@link NashornScriptEngineProvider#throughput()}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DispatchBenchmark {
+
+    @Param({"/blocking", "/non-blocking", "/json?id=1"})
+    public String path;
+
+    @Param({"default", "throughput"})
+    public String engine;
+
+    private BenchmarkServer server;
+    private URL url;
+    private final byte[] buffer = new byte[8192];
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        server = BenchmarkServer.start(engine(engine), "dispatch.js");
+        url = new URL(server.url(path));
+    }
+
+    static ScriptEngineProvider engine(String name) {
+        switch (name) {
+            case "default":
+                return new NashornScriptEngineProvider();
+            case "throughput":
+                return NashornScriptEngineProvider.throughput();
+            default:
+                throw new IllegalArgumentException("Unknown engine " + name);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Benchmark
+    public int dispatch() throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        if (connection.getResponseCode() != 200) {
+            throw new IllegalStateException("Unexpected response " + connection.getResponseCode() + " from " + url);
+        }
+        //the body has to be read fully for the connection to be reused
+        int read = 0;
+        try (InputStream in = connection.getInputStream()) {
+            int r;
+            while ((r = in.read(buffer)) > 0) {
+                read += r;
+            }
+        }
+        return read;
+    }
+}
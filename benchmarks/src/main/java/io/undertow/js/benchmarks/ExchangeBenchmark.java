@@ -0,0 +1,97 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.undertow.js.benchmarks;
+
+import java.io.InputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.undertow.js.UndertowJS;
+import io.undertow.util.FileUtils;
+
+/**
+ * Allocation of the script exchange facade per request. The <code>closures</code> benchmark builds the old facade,
+ * which allocated a closure per method and was built again by every wrapper. The <code>shared</code> benchmark uses
+ * the prototype based facade, which is built once per request and shared by the wrappers and the handler.
+ * <p>
+ * The interesting number is the allocation per operation, so run it with the GC profiler and compare
+ * <code>gc.alloc.rate.norm</code>:
+ * <pre>
+ * java -jar benchmarks/target/benchmarks.jar ExchangeBenchmark -prof gc
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExchangeBenchmark {
+
+    /**
+     * The number of wrappers a request passes through before it reaches the handler
+     */
+    @Param({"0", "3"})
+    public int wrappers;
+
+    private UndertowJS js;
+    private Callable<?> closures;
+    private Callable<?> shared;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        js = UndertowJS.builder().build();
+        js.start();
+        try (InputStream script = BenchmarkServer.resources().getResource("exchange.js").getUrl().openStream()) {
+            js.evaluate(FileUtils.readFile(script));
+        }
+        closures = (Callable<?>) js.evaluate("new java.util.concurrent.Callable(function () { return closureRequest(" + wrappers + "); })");
+        shared = (Callable<?>) js.evaluate("new java.util.concurrent.Callable(function () { return sharedRequest(" + wrappers + "); })");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        js.stop();
+    }
+
+    @Benchmark
+    public Object closures() throws Exception {
+        return closures.call();
+    }
+
+    @Benchmark
+    public Object shared() throws Exception {
+        return shared.call();
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.undertow.js.benchmarks;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.undertow.js.UndertowJS;
+
+/**
+ * Queries through <code>$undertow.JDBCWrapper.select</code> against an in memory H2 database, which measures the
+ * cost of turning result sets into script objects.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JdbcBenchmark {
+
+    /**
+     * Read by the benchmark script, there is only one trial per fork
+     */
+    public static JdbcConnectionPool dataSource;
+
+    /**
+     * The number of rows returned by the query
+     */
+    @Param({"1", "100"})
+    public int rows;
+
+    private UndertowJS js;
+    private Callable<?> select;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        dataSource = JdbcConnectionPool.create("jdbc:h2:mem:benchmark;DB_CLOSE_DELAY=-1", "user", "password");
+        try (Connection conn = dataSource.getConnection()) {
+            try (Statement statement = conn.createStatement()) {
+                statement.executeUpdate("CREATE TABLE PUBLIC.CUSTOMER (" +
+                        " id SERIAL NOT NULL," +
+                        " first VARCHAR(255) NOT NULL," +
+                        " last VARCHAR(255)," +
+                        " PRIMARY KEY (id)" +
+                        " );");
+            }
+            try (PreparedStatement statement = conn.prepareStatement("insert into customer(first, last) values (?, ?)")) {
+                for (int i = 0; i < rows; ++i) {
+                    statement.setString(1, "John" + i);
+                    statement.setString(2, "Doe" + i);
+                    statement.executeUpdate();
+                }
+            }
+        }
+        js = UndertowJS.builder().build();
+        js.start();
+        select = (Callable<?>) js.evaluate("var db = new $undertow.JDBCWrapper(Java.type('" + JdbcBenchmark.class.getName() + "').dataSource);" +
+                "new java.util.concurrent.Callable(function () { return db.select('select * from customer'); })");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        js.stop();
+        try (Connection conn = dataSource.getConnection()) {
+            try (Statement statement = conn.createStatement()) {
+                statement.executeUpdate("DROP TABLE PUBLIC.CUSTOMER");
+            }
+        }
+        dataSource.dispose();
+    }
+
+    @Benchmark
+    public Object select() throws Exception {
+        return select.call();
+    }
+}
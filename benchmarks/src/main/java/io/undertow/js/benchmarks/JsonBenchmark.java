@@ -0,0 +1,166 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.undertow.js.benchmarks;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.undertow.js.UndertowJS;
+
+/**
+ * JSON serialisation of the values handlers return. The <code>stringify</code> benchmark is the old path, the
+ * <code>JSON.stringify</code> override installed by the core scripts, which converts Java objects with a replacer.
+ * The <code>jsonWriter</code> benchmark is the path responses are now sent through, {@link io.undertow.js.JsonWriter}.
+ * <p>
+ * The input is either an array of script objects, a Java bean that holds a list of beans, or a list of beans.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonBenchmark {
+
+    /**
+     * The number of elements in the serialised array or list
+     */
+    @Param({"1", "100", "10000"})
+    public int size;
+
+    @Param({"script", "bean", "beans"})
+    public String input;
+
+    private UndertowJS js;
+    private Callable<?> stringify;
+    private Callable<?> jsonWriter;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        js = UndertowJS.builder().build();
+        js.start();
+        js.evaluate("var Item = Java.type('" + Item.class.getName() + "');" +
+                "var Catalog = Java.type('" + Catalog.class.getName() + "');" +
+                "var data = [];" +
+                "var items = new java.util.ArrayList();" +
+                "for (var i = 0; i < " + size + "; ++i) {" +
+                "    data.push({id: i, name: 'item-' + i, price: i * 1.5, tags: ['a', 'b'], nested: {enabled: i % 2 == 0}});" +
+                "    items.add(new Item(i));" +
+                "}");
+        String data;
+        switch (input) {
+            case "script":
+                data = "data";
+                break;
+            case "bean":
+                data = "new Catalog(items)";
+                break;
+            case "beans":
+                data = "items";
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown input " + input);
+        }
+        js.evaluate("var input = " + data + ";");
+        stringify = (Callable<?>) js.evaluate("new java.util.concurrent.Callable(function () { return JSON.stringify(input); })");
+        jsonWriter = (Callable<?>) js.evaluate("new java.util.concurrent.Callable(function () { return $undertow._java.JsonWriter.stringify(input, $undertow_support.javabeanIntrospector); })");
+        if (!stringify.call().equals(jsonWriter.call())) {
+            throw new IllegalStateException("The two paths produce different JSON for " + input);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        js.stop();
+    }
+
+    @Benchmark
+    public Object stringify() throws Exception {
+        return stringify.call();
+    }
+
+    @Benchmark
+    public Object jsonWriter() throws Exception {
+        return jsonWriter.call();
+    }
+
+    public static class Item {
+
+        private final int id;
+        private final List<String> tags = Arrays.asList("a", "b");
+
+        public Item(int id) {
+            this.id = id;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public String getName() {
+            return "item-" + id;
+        }
+
+        public double getPrice() {
+            return id * 1.5;
+        }
+
+        public List<String> getTags() {
+            return tags;
+        }
+
+        public boolean isEnabled() {
+            return id % 2 == 0;
+        }
+    }
+
+    public static class Catalog {
+
+        private final List<Item> items;
+
+        public Catalog(List<Item> items) {
+            this.items = items;
+        }
+
+        public String getName() {
+            return "catalog";
+        }
+
+        public List<Item> getItems() {
+            return items;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.undertow.js.benchmarks;
+
+import java.util.Collections;
+import java.util.ServiceLoader;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.undertow.js.UndertowJS;
+import io.undertow.js.templates.Template;
+import io.undertow.js.templates.TemplateProvider;
+
+/**
+ * Rendering of a handler result with each template provider, split into the conversion done by
+ * <code>$undertow.toTemplateData</code> and the {@link Template#apply(Object)} call itself.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TemplateBenchmark {
+
+    @Param({"mustache", "freemarker", "trimou"})
+    public String provider;
+
+    /**
+     * The number of items rendered by the template
+     */
+    @Param({"10", "1000"})
+    public int size;
+
+    private UndertowJS js;
+    private TemplateProvider templateProvider;
+    private Template template;
+    private Callable<?> toTemplateData;
+    private Object templateData;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        for (TemplateProvider candidate : ServiceLoader.load(TemplateProvider.class, TemplateBenchmark.class.getClassLoader())) {
+            if (candidate.name().equals(provider)) {
+                templateProvider = candidate;
+            }
+        }
+        if (templateProvider == null) {
+            throw new IllegalStateException("Template provider " + provider + " not found");
+        }
+        templateProvider.init(Collections.<String, String>emptyMap(), BenchmarkServer.resources());
+        template = templateProvider.getTemplate("items-" + provider + ".txt");
+
+        js = UndertowJS.builder().build();
+        js.start();
+        js.evaluate("var result = {items: []};" +
+                "for (var i = 0; i < " + size + "; ++i) {" +
+                "    result.items.push({name: 'item-' + i, price: i});" +
+                "}");
+        toTemplateData = (Callable<?>) js.evaluate("new java.util.concurrent.Callable(function () { return $undertow.toTemplateData(result); })");
+        templateData = toTemplateData.call();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        templateProvider.cleanup();
+        js.stop();
+    }
+
+    @Benchmark
+    public Object toTemplateData() throws Exception {
+        return toTemplateData.call();
+    }
+
+    @Benchmark
+    public String apply() {
+        return template.apply(templateData);
+    }
+
+    /**
+     * The full rendering path of a templated handler
+     */
+    @Benchmark
+    public String render() throws Exception {
+        return template.apply(toTemplateData.call());
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.undertow.js.benchmarks;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xnio.OptionMap;
+import org.xnio.Options;
+import org.xnio.Xnio;
+import org.xnio.XnioWorker;
+
+import io.undertow.server.DefaultByteBufferPool;
+import io.undertow.websockets.client.WebSocketClient;
+import io.undertow.websockets.core.AbstractReceiveListener;
+import io.undertow.websockets.core.BufferedTextMessage;
+import io.undertow.websockets.core.WebSocketChannel;
+import io.undertow.websockets.core.WebSockets;
+
+/**
+ * Round trips of a text message through a script websocket endpoint that echoes every message it receives.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WebSocketBenchmark {
+
+    /**
+     * The length of the message in characters
+     */
+    @Param({"16", "4096"})
+    public int length;
+
+    private BenchmarkServer server;
+    private XnioWorker worker;
+    private WebSocketChannel channel;
+    private String message;
+    private final BlockingQueue<String> received = new LinkedBlockingQueue<>();
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        char[] chars = new char[length];
+        Arrays.fill(chars, 'a');
+        message = new String(chars);
+
+        server = BenchmarkServer.start("dispatch.js");
+        worker = Xnio.getInstance().createWorker(OptionMap.create(Options.WORKER_IO_THREADS, 1));
+        channel = WebSocketClient.connectionBuilder(worker, new DefaultByteBufferPool(false, 8192), new URI(server.websocketUrl("/echo")))
+                .connect()
+                .get();
+        channel.getReceiveSetter().set(new AbstractReceiveListener() {
+            @Override
+            protected void onFullTextMessage(WebSocketChannel channel, BufferedTextMessage message) throws IOException {
+                received.add(message.getData());
+            }
+        });
+        channel.resumeReceives();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        channel.sendClose();
+        worker.shutdown();
+        server.stop();
+    }
+
+    @Benchmark
+    public String roundTrip() throws Exception {
+        WebSockets.sendText(message, channel, null);
+        String echo = received.poll(5, TimeUnit.SECONDS);
+        if (echo == null) {
+            throw new IllegalStateException("Timed out waiting for echo");
+        }
+        return echo;
+    }
+}
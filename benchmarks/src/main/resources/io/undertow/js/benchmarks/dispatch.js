@@ -16,19 +16,24 @@
  * limitations under the License.
  */
 
-package io.undertow.js;
 
-import javax.script.ScriptEngine;
-import javax.script.ScriptEngineManager;
-
-/**
- * @author Stuart Douglas
- */
-class ScriptManager {
-
-    public void doStuffAndThings() {
-
-        ScriptEngineManager factory = new ScriptEngineManager();
-        ScriptEngine engine = factory.getEngineByName("JavaScript");
-    }
-}
+$undertow
+    .onGet("/blocking", function ($exchange) {
+        $exchange.send("Hello World");
+    })
+    .onGet("/non-blocking", {non_blocking: true}, function ($exchange) {
+        $exchange.send("Hello World");
+    })
+    .onGet("/json", function ($exchange) {
+        return {
+            id: $exchange.param("id"),
+            name: "benchmark",
+            tags: ["a", "b", "c"],
+            nested: {count: 3, enabled: true}
+        };
+    })
+    .websocket("/echo", function (connection) {
+        connection.onText = function (message) {
+            return message;
+        }
+    });
@@ -0,0 +1,117 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/*
+ * The exchange facade as it was before it moved to a shared prototype. Every instance allocates a closure per method,
+ * and every wrapper built its own instance.
+ */
+function ClosureExchange(underlyingExchange) {
+    this.$underlying = underlyingExchange;
+    this.requestHeaders = function (name, value) {
+        if (arguments.length >= 2) {
+            underlyingExchange.requestHeaders.put(new $undertow._java.HttpString(name), value);
+        } else if (arguments.length == 1) {
+            return underlyingExchange.requestHeaders.getFirst(name);
+        } else {
+            return underlyingExchange.requestHeaders;
+        }
+    };
+    this.responseHeaders = function (name, value) {
+        if (arguments.length >= 2) {
+            underlyingExchange.responseHeaders.put(new $undertow._java.HttpString(name), value);
+        } else if (arguments.length == 1) {
+            return underlyingExchange.responseHeaders.getFirst(name);
+        } else {
+            return underlyingExchange.responseHeaders;
+        }
+    };
+    this.send = function () {
+        underlyingExchange.responseSender.send(arguments[arguments.length - 1]);
+    };
+    this.sendRedirect = function (location) {
+        this.responseHeaders("Location", location);
+        this.status(302);
+        this.endExchange();
+    };
+    this.status = function () {
+        if (arguments.length > 0) {
+            underlyingExchange.setResponseCode(arguments[0]);
+        } else {
+            return underlyingExchange.responseCode;
+        }
+    };
+    this.endExchange = function () {
+        underlyingExchange.endExchange();
+    };
+    this.param = function (name) {
+        var paramList = underlyingExchange.queryParameters.get(name);
+        if (paramList == null) {
+            return null;
+        }
+        return paramList.getFirst();
+    };
+    this.params = function (name) {
+        var params = underlyingExchange.queryParameters.get(name);
+        if (params == null) {
+            return null;
+        }
+        var it = params.iterator();
+        var ret = [];
+        while (it.hasNext()) {
+            ret.push(it.next());
+        }
+        return ret;
+    };
+    this.session = function (create) {
+        var src = this.$underlying.getAttachment($undertow._java.ServletRequestContext.ATTACHMENT_KEY);
+        return src.getOriginalRequest().getSession(create == null ? true : create);
+    };
+    this.request = function () {
+        return this.$underlying.getAttachment($undertow._java.ServletRequestContext.ATTACHMENT_KEY).getOriginalRequest();
+    };
+    this.response = function () {
+        return this.$underlying.getAttachment($undertow._java.ServletRequestContext.ATTACHMENT_KEY).getOriginalResponse();
+    };
+}
+
+var underlyingExchange = new (Java.type("io.undertow.server.HttpServerExchange"))(null);
+underlyingExchange.addQueryParam("id", "1");
+
+/*
+ * Each function stands for one request that passes through the given number of wrappers before reaching the handler.
+ * Every wrapper and the handler look up their exchange and read a parameter and a header from it.
+ */
+function closureRequest(wrappers) {
+    var result = null;
+    for (var i = 0; i <= wrappers; ++i) {
+        var $exchange = new ClosureExchange(underlyingExchange);
+        result = $exchange.param("id") + $exchange.requestHeaders("Host");
+    }
+    return result;
+}
+
+function sharedRequest(wrappers) {
+    //a new request has no exchange facade yet
+    underlyingExchange.removeAttachment($undertow._exchange_key);
+    var result = null;
+    for (var i = 0; i <= wrappers; ++i) {
+        var $exchange = $undertow._exchange(underlyingExchange);
+        result = $exchange.param("id") + $exchange.requestHeaders("Host");
+    }
+    return result;
+}
@@ -0,0 +1,65 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.undertow.js;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.UndeclaredThrowableException;
+
+/**
+ * A readable property of a Java object, which can be a getter, a record component or a public field. The accessor
+ * is resolved once when the class is inspected, see {@link UndertowJS.JavabeanIntrospector#properties(Class)}.
+ */
+public final class BeanProperty {
+
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+
+    private final String name;
+    private final Class<?> type;
+    private final MethodHandle getter;
+
+    BeanProperty(String name, MethodHandle getter) {
+        this.name = name;
+        this.type = getter.type().returnType();
+        this.getter = getter.asType(GETTER_TYPE);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Class<?> getType() {
+        return type;
+    }
+
+    /**
+     * Reads the property, any checked exception thrown by a getter is wrapped in an
+     * {@link UndeclaredThrowableException}
+     */
+    public Object get(Object bean) {
+        try {
+            return getter.invokeExact(bean);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new UndeclaredThrowableException(t);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.js;
+
+/**
+ * Guard that detects blocking operations performed by a non blocking handler while it is running on an IO thread.
+ * <p>
+ * Operations that may block (JDBC access, JNDI lookups, transactions, blocking IO) call {@link #check(String)},
+ * which fails fast instead of stalling every connection owned by the IO thread.
+ */
+public final class BlockingGuard {
+
+    private static final ThreadLocal<String> NON_BLOCKING_ROUTE = new ThreadLocal<>();
+
+    private BlockingGuard() {
+
+    }
+
+    /**
+     * Marks the current thread as running the given non blocking route. Calls may be nested, as a non blocking
+     * wrapper can invoke a non blocking route on the same thread.
+     *
+     * @param route the route description, used in error messages
+     * @return the route that was previously active, which must be passed to {@link #exit(String)}
+     */
+    public static String enter(String route) {
+        String previous = NON_BLOCKING_ROUTE.get();
+        NON_BLOCKING_ROUTE.set(route);
+        return previous;
+    }
+
+    public static void exit(String previous) {
+        if (previous == null) {
+            NON_BLOCKING_ROUTE.remove();
+        } else {
+            NON_BLOCKING_ROUTE.set(previous);
+        }
+    }
+
+    /**
+     * @param operation a description of the operation that is about to block
+     * @throws IllegalStateException if the current thread is running a non blocking route
+     */
+    public static void check(String operation) {
+        String route = NON_BLOCKING_ROUTE.get();
+        if (route != null) {
+            throw UndertowScriptLogger.ROOT_LOGGER.blockingOperationInNonBlockingHandler(operation, route);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.js;
+
+import java.nio.ByteBuffer;
+
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.AttachmentKey;
+
+/**
+ * Handler that reads the entity body and attaches it to the exchange as a read only byte buffer
+ */
+public class BytesReadHandler extends EntityReadHandler {
+
+    public static final AttachmentKey<ByteBuffer> DATA = AttachmentKey.create(ByteBuffer.class);
+
+    public BytesReadHandler(HttpHandler next) {
+        this(next, -1);
+    }
+
+    public BytesReadHandler(HttpHandler next, long maxEntitySize) {
+        super(next, maxEntitySize);
+    }
+
+    @Override
+    protected void entityRead(HttpServerExchange exchange, byte[] data, int length) {
+        exchange.putAttachment(DATA, ByteBuffer.wrap(data, 0, length).asReadOnlyBuffer());
+    }
+}
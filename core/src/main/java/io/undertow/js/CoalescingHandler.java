@@ -0,0 +1,138 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.undertow.js;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import io.undertow.server.Connectors;
+import io.undertow.server.ExchangeCompletionListener;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.AttachmentKey;
+import io.undertow.util.Headers;
+import io.undertow.util.Methods;
+import io.undertow.util.SameThreadExecutor;
+
+/**
+ * Handler that lets identical concurrent GET requests share a single execution of the next handler. The first request
+ * runs the handler, and its encoded response is captured as it is written. Identical requests that arrive while it is
+ * in progress wait without holding a thread, and are sent the same response once it is complete.
+ * <p>
+ * If the response cannot be shared, because it sets cookies, is too large or was not completed, the waiting requests
+ * run the handler themselves. Requests are identical if they have the same {@link RequestKey}, requests that carry
+ * credentials that are not part of the key always run the handler themselves.
+ */
+public class CoalescingHandler implements HttpHandler {
+
+    /**
+     * Marks an exchange that has already been coalesced, as it can pass through the handler twice when it is dispatched
+     */
+    private static final AttachmentKey<Boolean> COALESCING = AttachmentKey.create(Boolean.class);
+
+    private final HttpHandler next;
+    private final RequestCoalescer coalescer;
+    private final RequestKey key;
+
+    /**
+     * @param next the handler that produces the response
+     * @param coalescer the coalescer that tracks the requests in progress
+     * @param varyHeaders the request headers that are part of the key
+     * @param varyParams the query parameters that are part of the key, or null for the whole query string
+     */
+    public CoalescingHandler(HttpHandler next, RequestCoalescer coalescer, String[] varyHeaders, String[] varyParams) {
+        this.next = next;
+        this.coalescer = coalescer;
+        this.key = new RequestKey(varyHeaders, varyParams);
+    }
+
+    @Override
+    public void handleRequest(final HttpServerExchange exchange) throws Exception {
+        if (!exchange.getRequestMethod().equals(Methods.GET) || exchange.getAttachment(COALESCING) != null || !key.isShareable(exchange)) {
+            next.handleRequest(exchange);
+            return;
+        }
+        exchange.putAttachment(COALESCING, Boolean.TRUE);
+        final String key = this.key.get(exchange);
+        final RequestCoalescer.Flight flight = new RequestCoalescer.Flight();
+        final RequestCoalescer.Flight existing = coalescer.join(key, flight);
+        if (existing != null) {
+            //the waiter is only registered once the current call has returned, so it cannot be resumed while in the call
+            exchange.dispatch(SameThreadExecutor.INSTANCE, new Runnable() {
+                @Override
+                public void run() {
+                    if (!existing.addWaiter(exchange)) {
+                        deliver(exchange, existing.getResponse());
+                    }
+                }
+            });
+            return;
+        }
+        final ResponseCapture capture = new ResponseCapture(coalescer.getMaxSize());
+        exchange.addResponseWrapper(capture);
+        exchange.addExchangeCompleteListener(new ExchangeCompletionListener() {
+            @Override
+            public void exchangeEvent(HttpServerExchange exchange, NextListener nextListener) {
+                try {
+                    coalescer.leave(key, flight);
+                    RequestCoalescer.Response response = null;
+                    if (capture.isCaptured() && !exchange.getResponseHeaders().contains(Headers.SET_COOKIE)) {
+                        response = new RequestCoalescer.Response(exchange.getStatusCode(), ResponseCapture.replayableHeaders(exchange.getResponseHeaders()), capture.getBody());
+                    }
+                    List<HttpServerExchange> waiters = flight.complete(response);
+                    if (response == null) {
+                        coalescer.fallback(waiters.size());
+                    }
+                    for (HttpServerExchange waiter : waiters) {
+                        deliver(waiter, response);
+                    }
+                } finally {
+                    nextListener.proceed();
+                }
+            }
+        });
+        next.handleRequest(exchange);
+    }
+
+    /**
+     * Sends the shared response to a waiting request, or runs the handler for it if there is no shared response. This
+     * always happens on the IO thread of the waiting request.
+     */
+    private void deliver(final HttpServerExchange exchange, final RequestCoalescer.Response response) {
+        exchange.getIoThread().execute(new Runnable() {
+            @Override
+            public void run() {
+                Connectors.executeRootHandler(new HttpHandler() {
+                    @Override
+                    public void handleRequest(HttpServerExchange exchange) throws Exception {
+                        if (response == null) {
+                            next.handleRequest(exchange);
+                            return;
+                        }
+                        exchange.setStatusCode(response.status);
+                        ResponseCapture.replay(response.headers, exchange.getResponseHeaders());
+                        exchange.setResponseContentLength(response.body.length);
+                        exchange.getResponseSender().send(ByteBuffer.wrap(response.body));
+                    }
+                }, exchange);
+            }
+        });
+    }
+}
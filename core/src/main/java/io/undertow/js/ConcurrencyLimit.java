@@ -0,0 +1,267 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.undertow.js;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.undertow.server.Connectors;
+import io.undertow.server.ExchangeCompletionListener;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.Headers;
+import io.undertow.util.SameThreadExecutor;
+import io.undertow.util.StatusCodes;
+
+/**
+ * Limits the number of requests of a route that are handled at the same time, so a route that degrades cannot take
+ * over all the worker threads.
+ * <p>
+ * Requests over the limit are suspended in a bounded queue without holding a thread, and resumed as running requests
+ * complete. Once the queue is full requests are rejected straight away with a 503 and a Retry-After header.
+ * <p>
+ * This works like {@link io.undertow.server.handlers.RequestLimit}, except that the queue can be empty and is
+ * exposed for monitoring. A single limit is shared by all execution contexts, and survives redeployment of the scripts.
+ *
+ * @see ConcurrencyLimitHandler
+ */
+public class ConcurrencyLimit {
+
+    private final String route;
+    private volatile int maxConcurrent;
+    private volatile int maxQueued;
+    private volatile int retryAfter;
+
+    private final AtomicInteger active = new AtomicInteger();
+    /**
+     * guarded by this
+     */
+    private final Deque<SuspendedRequest> queue = new ArrayDeque<>();
+    private volatile int peakQueued;
+
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong queued = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    private final ExchangeCompletionListener completionListener = new ExchangeCompletionListener() {
+        @Override
+        public void exchangeEvent(HttpServerExchange exchange, NextListener nextListener) {
+            try {
+                SuspendedRequest task;
+                synchronized (ConcurrencyLimit.this) {
+                    task = queue.poll();
+                    if (task == null) {
+                        active.decrementAndGet();
+                    }
+                }
+                if (task != null) {
+                    //the slot is handed straight to the queued request
+                    resume(task);
+                }
+            } finally {
+                nextListener.proceed();
+            }
+        }
+    };
+
+    private final HttpHandler rejectHandler = new HttpHandler() {
+        @Override
+        public void handleRequest(HttpServerExchange exchange) throws Exception {
+            reject(exchange);
+        }
+    };
+
+    ConcurrencyLimit(String route, int maxConcurrent, int maxQueued, int retryAfter) {
+        this.route = route;
+        setLimits(maxConcurrent, maxQueued, retryAfter);
+    }
+
+    void handleRequest(final HttpServerExchange exchange, final HttpHandler next) throws Exception {
+        if (tryAcquire()) {
+            accept(exchange);
+            next.handleRequest(exchange);
+            return;
+        }
+        if (maxQueued == 0) {
+            reject(exchange);
+            return;
+        }
+        exchange.dispatch(SameThreadExecutor.INSTANCE, new Runnable() {
+            @Override
+            public void run() {
+                //we have to try again while holding the lock, as a request may have completed in the meantime
+                boolean acquired = false;
+                boolean full = false;
+                synchronized (ConcurrencyLimit.this) {
+                    if (tryAcquire()) {
+                        acquired = true;
+                    } else if (queue.size() >= maxQueued) {
+                        full = true;
+                    } else {
+                        queue.add(new SuspendedRequest(exchange, next));
+                        queued.incrementAndGet();
+                        if (queue.size() > peakQueued) {
+                            peakQueued = queue.size();
+                        }
+                    }
+                }
+                if (acquired) {
+                    resume(new SuspendedRequest(exchange, next));
+                } else if (full) {
+                    Connectors.executeRootHandler(rejectHandler, exchange);
+                }
+            }
+        });
+    }
+
+    void setLimits(int maxConcurrent, int maxQueued, int retryAfter) {
+        if (maxConcurrent < 1) {
+            throw new IllegalArgumentException("Maximum concurrent requests must be at least 1");
+        }
+        if (maxQueued < 0) {
+            throw new IllegalArgumentException("Maximum queued requests cannot be negative");
+        }
+        this.maxConcurrent = maxConcurrent;
+        this.maxQueued = maxQueued;
+        this.retryAfter = retryAfter;
+        while (true) {
+            SuspendedRequest task;
+            synchronized (this) {
+                if (queue.isEmpty() || !tryAcquire()) {
+                    return;
+                }
+                task = queue.poll();
+            }
+            resume(task);
+        }
+    }
+
+    private boolean tryAcquire() {
+        int current;
+        do {
+            current = active.get();
+            if (current >= maxConcurrent) {
+                return false;
+            }
+        } while (!active.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    private void accept(HttpServerExchange exchange) {
+        accepted.incrementAndGet();
+        exchange.addExchangeCompleteListener(completionListener);
+    }
+
+    /**
+     * Runs a request that was suspended once it holds a slot. It is run on its own IO thread, the route handler
+     * dispatches it to the route's executor if required.
+     */
+    private void resume(SuspendedRequest task) {
+        accept(task.exchange);
+        task.exchange.dispatch(task.exchange.getIoThread(), task.next);
+    }
+
+    private void reject(HttpServerExchange exchange) {
+        rejected.incrementAndGet();
+        exchange.setStatusCode(StatusCodes.SERVICE_UNAVAILABLE);
+        exchange.getResponseHeaders().put(Headers.RETRY_AFTER, retryAfter);
+        exchange.endExchange();
+    }
+
+    public String getRoute() {
+        return route;
+    }
+
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    public int getMaxQueued() {
+        return maxQueued;
+    }
+
+    /**
+     *
+     * @return the number of seconds that rejected clients are asked to wait before retrying
+     */
+    public int getRetryAfter() {
+        return retryAfter;
+    }
+
+    /**
+     *
+     * @return the number of requests that are currently being handled
+     */
+    public int getActive() {
+        return active.get();
+    }
+
+    /**
+     *
+     * @return the number of requests that are currently waiting for a slot
+     */
+    public synchronized int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     *
+     * @return the largest number of requests that have been waiting for a slot at the same time
+     */
+    public int getPeakQueueDepth() {
+        return peakQueued;
+    }
+
+    /**
+     *
+     * @return the number of requests that were given a slot, either straight away or after waiting in the queue
+     */
+    public long getAccepted() {
+        return accepted.get();
+    }
+
+    /**
+     *
+     * @return the number of requests that had to wait in the queue
+     */
+    public long getQueued() {
+        return queued.get();
+    }
+
+    /**
+     *
+     * @return the number of requests that were rejected as the queue was full
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    private static final class SuspendedRequest {
+        final HttpServerExchange exchange;
+        final HttpHandler next;
+
+        private SuspendedRequest(HttpServerExchange exchange, HttpHandler next) {
+            this.exchange = exchange;
+            this.next = next;
+        }
+    }
+}
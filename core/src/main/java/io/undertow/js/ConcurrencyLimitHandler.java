@@ -0,0 +1,53 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.undertow.js;
+
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.AttachmentKey;
+
+/**
+ * Handler that applies a {@link ConcurrencyLimit} to the next handler.
+ */
+public class ConcurrencyLimitHandler implements HttpHandler {
+
+    /**
+     * Marks an exchange that already holds a slot, as it can pass through the handler twice when it is dispatched
+     */
+    private static final AttachmentKey<Boolean> LIMITED = AttachmentKey.create(Boolean.class);
+
+    private final HttpHandler next;
+    private final ConcurrencyLimit limit;
+
+    public ConcurrencyLimitHandler(HttpHandler next, ConcurrencyLimit limit) {
+        this.next = next;
+        this.limit = limit;
+    }
+
+    @Override
+    public void handleRequest(HttpServerExchange exchange) throws Exception {
+        if (exchange.getAttachment(LIMITED) != null) {
+            next.handleRequest(exchange);
+            return;
+        }
+        exchange.putAttachment(LIMITED, Boolean.TRUE);
+        limit.handleRequest(exchange, next);
+    }
+}
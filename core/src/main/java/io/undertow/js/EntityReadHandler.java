@@ -0,0 +1,212 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.js;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.xnio.ChannelListener;
+import org.xnio.channels.StreamSourceChannel;
+
+import io.undertow.UndertowLogger;
+import io.undertow.connector.PooledByteBuffer;
+import io.undertow.server.Connectors;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.SameThreadExecutor;
+import io.undertow.util.StatusCodes;
+
+/**
+ * Handler that reads the entity body without blocking, and then invokes the next handler once the complete entity
+ * has been read.
+ * <p>
+ * The entity is read through pooled buffers and passed to a {@link Sink} as it arrives. By default the sink collects the
+ * entity into a single array, which is sized from the content length if it is known, and passes it to
+ * {@link #entityRead(HttpServerExchange, byte[], int)}. If a maximum entity size is set, requests that exceed it are
+ * rejected with a 413 as soon as this is detected, without reading the rest of the entity. Entities that the sink
+ * rejects as invalid are answered with a 400.
+ */
+public abstract class EntityReadHandler implements HttpHandler {
+
+    private static final int DEFAULT_BUFFER_SIZE = 1024;
+    private static final int MAX_INITIAL_BUFFER_SIZE = 1024 * 1024;
+
+    private final HttpHandler next;
+    private final long maxEntitySize;
+
+    protected EntityReadHandler(HttpHandler next, long maxEntitySize) {
+        this.next = next;
+        this.maxEntitySize = maxEntitySize;
+    }
+
+    /**
+     * Creates the sink that receives the entity of the given exchange
+     *
+     * @param exchange the exchange
+     * @param length the content length, or -1 if it is not known
+     */
+    protected Sink createSink(HttpServerExchange exchange, long length) {
+        return new ArraySink(exchange, length);
+    }
+
+    /**
+     * Invoked by the default sink once the complete entity has been read
+     *
+     * @param exchange the exchange
+     * @param data the array holding the entity, which may be larger than the entity
+     * @param length the length of the entity
+     */
+    protected void entityRead(HttpServerExchange exchange, byte[] data, int length) {
+
+    }
+
+    @Override
+    public void handleRequest(final HttpServerExchange exchange) throws Exception {
+        final long length = exchange.getRequestContentLength();
+        if (maxEntitySize > 0 && length > maxEntitySize) {
+            entityTooLarge(exchange);
+            return;
+        }
+        if (exchange.isRequestComplete()) {
+            //there is no entity, so nothing is attached
+            next.handleRequest(exchange);
+            return;
+        }
+        exchange.dispatch(SameThreadExecutor.INSTANCE, new Runnable() {
+            @Override
+            public void run() {
+                StreamSourceChannel channel = exchange.getRequestChannel();
+                Reader reader = new Reader(exchange, createSink(exchange, length));
+                channel.getReadSetter().set(reader);
+                reader.handleEvent(channel);
+            }
+        });
+    }
+
+    private static void entityTooLarge(HttpServerExchange exchange) {
+        //the remainder of the entity is not read, so the connection cannot be reused
+        exchange.setPersistent(false);
+        exchange.setStatusCode(StatusCodes.REQUEST_ENTITY_TOO_LARGE);
+        exchange.endExchange();
+    }
+
+    /**
+     * Receives the entity as it is read
+     */
+    protected interface Sink {
+
+        /**
+         *
+         * @param buffer the next part of the entity, which must be consumed before this method returns
+         * @throws IllegalArgumentException if the entity is invalid
+         */
+        void data(ByteBuffer buffer);
+
+        /**
+         * Invoked once the complete entity has been read
+         *
+         * @throws IllegalArgumentException if the entity is invalid
+         */
+        void complete();
+    }
+
+    private final class ArraySink implements Sink {
+
+        private final HttpServerExchange exchange;
+        private byte[] data;
+        private int size;
+
+        ArraySink(HttpServerExchange exchange, long length) {
+            this.exchange = exchange;
+            this.data = new byte[length > 0 && length <= MAX_INITIAL_BUFFER_SIZE ? (int) length : DEFAULT_BUFFER_SIZE];
+        }
+
+        @Override
+        public void data(ByteBuffer buffer) {
+            int res = buffer.remaining();
+            if (size + res > data.length) {
+                data = Arrays.copyOf(data, Math.max(data.length * 2, size + res));
+            }
+            buffer.get(data, size, res);
+            size += res;
+        }
+
+        @Override
+        public void complete() {
+            entityRead(exchange, data, size);
+        }
+    }
+
+    private final class Reader implements ChannelListener<StreamSourceChannel> {
+
+        private final HttpServerExchange exchange;
+        private final Sink sink;
+        private long size;
+
+        Reader(HttpServerExchange exchange, Sink sink) {
+            this.exchange = exchange;
+            this.sink = sink;
+        }
+
+        @Override
+        public void handleEvent(StreamSourceChannel channel) {
+            int res;
+            try (PooledByteBuffer pooled = exchange.getConnection().getByteBufferPool().allocate()) {
+                ByteBuffer buffer = pooled.getBuffer();
+                do {
+                    buffer.clear();
+                    res = channel.read(buffer);
+                    if (res > 0) {
+                        size += res;
+                        if (maxEntitySize > 0 && size > maxEntitySize) {
+                            channel.suspendReads();
+                            entityTooLarge(exchange);
+                            return;
+                        }
+                        buffer.flip();
+                        sink.data(buffer);
+                    }
+                } while (res > 0);
+                if (res == -1) {
+                    channel.getReadSetter().set(null);
+                    channel.suspendReads();
+                    sink.complete();
+                }
+            } catch (IOException e) {
+                UndertowLogger.REQUEST_IO_LOGGER.ioException(e);
+                exchange.setStatusCode(StatusCodes.INTERNAL_SERVER_ERROR);
+                exchange.endExchange();
+                return;
+            } catch (IllegalArgumentException e) {
+                channel.suspendReads();
+                UndertowScriptLogger.ROOT_LOGGER.debugf(e, "Invalid request entity");
+                exchange.setPersistent(false);
+                exchange.setStatusCode(StatusCodes.BAD_REQUEST);
+                exchange.endExchange();
+                return;
+            }
+            if (res == -1) {
+                Connectors.executeRootHandler(next, exchange);
+            } else {
+                channel.resumeReads();
+            }
+        }
+    }
+}
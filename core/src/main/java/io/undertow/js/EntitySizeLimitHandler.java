@@ -0,0 +1,51 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.js;
+
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.StatusCodes;
+
+/**
+ * Handler that limits the size of entities that are read by the next handler itself, rather than by an
+ * {@link EntityReadHandler}. Requests that declare a larger content length are rejected with a 413 straight away,
+ * otherwise reading past the limit fails with an IOException.
+ */
+public class EntitySizeLimitHandler implements HttpHandler {
+
+    private final HttpHandler next;
+    private final long maxEntitySize;
+
+    public EntitySizeLimitHandler(HttpHandler next, long maxEntitySize) {
+        this.next = next;
+        this.maxEntitySize = maxEntitySize;
+    }
+
+    @Override
+    public void handleRequest(HttpServerExchange exchange) throws Exception {
+        if (exchange.getRequestContentLength() > maxEntitySize) {
+            exchange.setPersistent(false);
+            exchange.setStatusCode(StatusCodes.REQUEST_ENTITY_TOO_LARGE);
+            exchange.endExchange();
+            return;
+        }
+        exchange.setMaxEntitySize(maxEntitySize);
+        next.handleRequest(exchange);
+    }
+}
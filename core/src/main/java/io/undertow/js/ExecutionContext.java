@@ -0,0 +1,52 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.js;
+
+import javax.script.Bindings;
+
+import io.undertow.server.HttpHandler;
+
+/**
+ * An isolated script global, together with the handler chain that the scripts registered
+ * when they were evaluated against it.
+ */
+final class ExecutionContext {
+
+    private final Bindings global;
+    private final HttpHandler handler;
+    private final UndertowJS.UndertowSupport support;
+
+    ExecutionContext(Bindings global, HttpHandler handler, UndertowJS.UndertowSupport support) {
+        this.global = global;
+        this.handler = handler;
+        this.support = support;
+    }
+
+    Bindings getGlobal() {
+        return global;
+    }
+
+    HttpHandler getHandler() {
+        return handler;
+    }
+
+    UndertowJS.UndertowSupport getSupport() {
+        return support;
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.js;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.undertow.server.ExchangeCompletionListener;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.StatusCodes;
+
+/**
+ * A pool of isolated script execution contexts. Each request leases a context for its whole lifetime,
+ * so scripts never see their globals accessed by more than one request at a time.
+ * <p>
+ * If the pool only contains a single context it is shared by all requests, and no leasing takes place.
+ */
+public final class ExecutionContextPool implements HttpHandler {
+
+    private final ExecutionContext[] contexts;
+    private final BlockingQueue<ExecutionContext> available;
+    private final long leaseTimeout;
+
+    private final AtomicLong leaseCount = new AtomicLong();
+    private final AtomicLong leaseTimeouts = new AtomicLong();
+    private final AtomicLong totalLeaseWait = new AtomicLong();
+    private final AtomicLong maxLeaseWait = new AtomicLong();
+
+    ExecutionContextPool(List<ExecutionContext> contexts, long leaseTimeout) {
+        this.contexts = contexts.toArray(new ExecutionContext[contexts.size()]);
+        this.available = new ArrayBlockingQueue<>(this.contexts.length, false, contexts);
+        this.leaseTimeout = leaseTimeout;
+    }
+
+    @Override
+    public void handleRequest(final HttpServerExchange exchange) throws Exception {
+        if (contexts.length == 1) {
+            contexts[0].getHandler().handleRequest(exchange);
+            return;
+        }
+        ExecutionContext context = available.poll();
+        if (context == null) {
+            if (exchange.isInIoThread()) {
+                //we never block the IO thread waiting for a context
+                exchange.dispatch(this);
+                return;
+            }
+            long start = System.nanoTime();
+            context = available.poll(leaseTimeout, TimeUnit.MILLISECONDS);
+            if (context == null) {
+                leaseTimeouts.incrementAndGet();
+                UndertowScriptLogger.ROOT_LOGGER.timedOutWaitingForExecutionContext(leaseTimeout);
+                exchange.setStatusCode(StatusCodes.SERVICE_UNAVAILABLE);
+                exchange.endExchange();
+                return;
+            }
+            recordWait(System.nanoTime() - start);
+        }
+        leaseCount.incrementAndGet();
+        final ExecutionContext leased = context;
+        exchange.addExchangeCompleteListener(new ExchangeCompletionListener() {
+            @Override
+            public void exchangeEvent(HttpServerExchange exchange, NextListener nextListener) {
+                available.add(leased);
+                nextListener.proceed();
+            }
+        });
+        leased.getHandler().handleRequest(exchange);
+    }
+
+    private void recordWait(long wait) {
+        totalLeaseWait.addAndGet(wait);
+        long max;
+        do {
+            max = maxLeaseWait.get();
+        } while (wait > max && !maxLeaseWait.compareAndSet(max, wait));
+    }
+
+    List<ExecutionContext> getContexts() {
+        return Collections.unmodifiableList(Arrays.asList(contexts));
+    }
+
+    /**
+     *
+     * @return the number of execution contexts in the pool
+     */
+    public int getPoolSize() {
+        return contexts.length;
+    }
+
+    /**
+     *
+     * @return the number of execution contexts that are not currently leased
+     */
+    public int getAvailable() {
+        return contexts.length == 1 ? 1 : available.size();
+    }
+
+    /**
+     *
+     * @return the number of times a context has been leased
+     */
+    public long getLeaseCount() {
+        return leaseCount.get();
+    }
+
+    /**
+     *
+     * @return the number of requests that were rejected because no context became available in time
+     */
+    public long getLeaseTimeouts() {
+        return leaseTimeouts.get();
+    }
+
+    /**
+     *
+     * @return the total time in nanoseconds that requests have spent waiting for a context
+     */
+    public long getTotalLeaseWaitTime() {
+        return totalLeaseWait.get();
+    }
+
+    /**
+     *
+     * @return the longest time in nanoseconds that a request has spent waiting for a context
+     */
+    public long getMaxLeaseWaitTime() {
+        return maxLeaseWait.get();
+    }
+}
@@ -0,0 +1,410 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.undertow.js;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A push based JSON parser, that is fed the UTF-8 encoded document one buffer at a time as it is read from the
+ * connection, so the document never has to be buffered as a whole.
+ * <p>
+ * Objects are parsed into a {@link LinkedHashMap} and arrays into an {@link ArrayList}. Numbers are parsed into an
+ * {@link Integer} if they fit, and into a {@link Double} otherwise. Nesting is tracked with an explicit stack, so deeply
+ * nested documents cannot exhaust the thread stack.
+ * <p>
+ * Instances are not thread safe, and can only parse a single document.
+ */
+public class IncrementalJsonParser {
+
+    private static final int VALUE = 0;
+    private static final int FIRST_KEY = 1;
+    private static final int KEY = 2;
+    private static final int COLON = 3;
+    private static final int OBJECT_NEXT = 4;
+    private static final int FIRST_ELEMENT = 5;
+    private static final int ARRAY_NEXT = 6;
+    private static final int STRING = 7;
+    private static final int ESCAPE = 8;
+    private static final int UNICODE = 9;
+    private static final int NUMBER = 10;
+    private static final int LITERAL = 11;
+    private static final int DONE = 12;
+
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPORT)
+            .onUnmappableCharacter(CodingErrorAction.REPORT);
+    private final CharBuffer chars = CharBuffer.allocate(1024);
+    /**
+     * Holds an incomplete multi byte sequence at the end of a buffer, until the rest of it arrives
+     */
+    private final ByteBuffer remainder = ByteBuffer.allocate(4);
+
+    private final Deque<Object> containers = new ArrayDeque<>();
+    private final Deque<String> keys = new ArrayDeque<>();
+    private final StringBuilder buffer = new StringBuilder();
+
+    private int state = VALUE;
+    private boolean key;
+    private int unicode;
+    private int unicodeDigits;
+    private String literal;
+    private Object literalValue;
+    private int literalPosition;
+    private long offset;
+    private Object result;
+
+    /**
+     * Parses the next part of the document.
+     *
+     * @param data the data, which is fully consumed
+     * @throws IllegalArgumentException if the document is not valid JSON
+     */
+    public void parse(ByteBuffer data) {
+        while (remainder.position() > 0 && data.hasRemaining()) {
+            //complete the sequence a byte at a time, as we do not know how long it is
+            remainder.put(data.get());
+            remainder.flip();
+            decode(remainder, false);
+            remainder.compact();
+        }
+        while (data.hasRemaining()) {
+            if (decode(data, false).isUnderflow()) {
+                remainder.put(data);
+            }
+        }
+    }
+
+    /**
+     * Signals the end of the document.
+     *
+     * @return the parsed value
+     * @throws IllegalArgumentException if the document is not valid JSON, or is incomplete
+     */
+    public Object finish() {
+        remainder.flip();
+        decode(remainder, true);
+        if (remainder.hasRemaining()) {
+            throw UndertowScriptLogger.ROOT_LOGGER.malformedJsonEncoding(offset);
+        }
+        if (state == NUMBER) {
+            endNumber();
+        }
+        if (state != DONE) {
+            throw UndertowScriptLogger.ROOT_LOGGER.unexpectedEndOfJson();
+        }
+        return result;
+    }
+
+    private CoderResult decode(ByteBuffer data, boolean endOfInput) {
+        CoderResult res;
+        do {
+            res = decoder.decode(data, chars, endOfInput);
+            if (res.isError()) {
+                throw UndertowScriptLogger.ROOT_LOGGER.malformedJsonEncoding(offset);
+            }
+            chars.flip();
+            while (chars.hasRemaining()) {
+                handle(chars.get());
+                ++offset;
+            }
+            chars.clear();
+        } while (res.isOverflow());
+        return res;
+    }
+
+    private void handle(char c) {
+        switch (state) {
+            case VALUE:
+                if (!isWhitespace(c)) {
+                    startValue(c);
+                }
+                break;
+            case FIRST_ELEMENT:
+                if (c == ']') {
+                    endContainer();
+                } else if (!isWhitespace(c)) {
+                    startValue(c);
+                }
+                break;
+            case ARRAY_NEXT:
+                if (c == ',') {
+                    state = VALUE;
+                } else if (c == ']') {
+                    endContainer();
+                } else if (!isWhitespace(c)) {
+                    throw unexpected(c);
+                }
+                break;
+            case FIRST_KEY:
+                if (c == '}') {
+                    endContainer();
+                    break;
+                }
+                //fall through
+            case KEY:
+                if (c == '"') {
+                    key = true;
+                    state = STRING;
+                } else if (!isWhitespace(c)) {
+                    throw unexpected(c);
+                }
+                break;
+            case COLON:
+                if (c == ':') {
+                    state = VALUE;
+                } else if (!isWhitespace(c)) {
+                    throw unexpected(c);
+                }
+                break;
+            case OBJECT_NEXT:
+                if (c == ',') {
+                    state = KEY;
+                } else if (c == '}') {
+                    endContainer();
+                } else if (!isWhitespace(c)) {
+                    throw unexpected(c);
+                }
+                break;
+            case STRING:
+                if (c == '"') {
+                    String value = buffer.toString();
+                    buffer.setLength(0);
+                    if (key) {
+                        key = false;
+                        keys.push(value);
+                        state = COLON;
+                    } else {
+                        value(value);
+                    }
+                } else if (c == '\\') {
+                    state = ESCAPE;
+                } else if (c < 0x20) {
+                    throw unexpected(c);
+                } else {
+                    buffer.append(c);
+                }
+                break;
+            case ESCAPE:
+                state = STRING;
+                switch (c) {
+                    case '"':
+                    case '\\':
+                    case '/':
+                        buffer.append(c);
+                        break;
+                    case 'b':
+                        buffer.append('\b');
+                        break;
+                    case 'f':
+                        buffer.append('\f');
+                        break;
+                    case 'n':
+                        buffer.append('\n');
+                        break;
+                    case 'r':
+                        buffer.append('\r');
+                        break;
+                    case 't':
+                        buffer.append('\t');
+                        break;
+                    case 'u':
+                        unicode = 0;
+                        unicodeDigits = 0;
+                        state = UNICODE;
+                        break;
+                    default:
+                        throw unexpected(c);
+                }
+                break;
+            case UNICODE:
+                int digit = Character.digit(c, 16);
+                if (digit < 0) {
+                    throw unexpected(c);
+                }
+                unicode = (unicode << 4) | digit;
+                if (++unicodeDigits == 4) {
+                    buffer.append((char) unicode);
+                    state = STRING;
+                }
+                break;
+            case NUMBER:
+                if ((c >= '0' && c <= '9') || c == '.' || c == 'e' || c == 'E' || c == '+' || c == '-') {
+                    buffer.append(c);
+                } else {
+                    endNumber();
+                    //the character that ended the number belongs to the enclosing structure
+                    handle(c);
+                }
+                break;
+            case LITERAL:
+                if (c != literal.charAt(literalPosition)) {
+                    throw unexpected(c);
+                }
+                if (++literalPosition == literal.length()) {
+                    value(literalValue);
+                }
+                break;
+            case DONE:
+                if (!isWhitespace(c)) {
+                    throw unexpected(c);
+                }
+                break;
+            default:
+                throw new IllegalStateException();
+        }
+    }
+
+    private void startValue(char c) {
+        switch (c) {
+            case '{':
+                containers.push(new LinkedHashMap<String, Object>());
+                state = FIRST_KEY;
+                break;
+            case '[':
+                containers.push(new ArrayList<>());
+                state = FIRST_ELEMENT;
+                break;
+            case '"':
+                state = STRING;
+                break;
+            case 't':
+                startLiteral("true", Boolean.TRUE);
+                break;
+            case 'f':
+                startLiteral("false", Boolean.FALSE);
+                break;
+            case 'n':
+                startLiteral("null", null);
+                break;
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    buffer.append(c);
+                    state = NUMBER;
+                } else {
+                    throw unexpected(c);
+                }
+        }
+    }
+
+    private void startLiteral(String literal, Object value) {
+        this.literal = literal;
+        this.literalValue = value;
+        this.literalPosition = 1;
+        state = LITERAL;
+    }
+
+    private void endNumber() {
+        String number = buffer.toString();
+        buffer.setLength(0);
+        if (!isValidNumber(number)) {
+            throw UndertowScriptLogger.ROOT_LOGGER.unexpectedJsonCharacter(number.charAt(number.length() - 1), offset - 1);
+        }
+        if (number.indexOf('.') < 0 && number.indexOf('e') < 0 && number.indexOf('E') < 0) {
+            try {
+                value(Integer.parseInt(number));
+                return;
+            } catch (NumberFormatException e) {
+                //too large for an int
+            }
+        }
+        value(Double.parseDouble(number));
+    }
+
+    private void endContainer() {
+        value(containers.pop());
+    }
+
+    @SuppressWarnings("unchecked")
+    private void value(Object value) {
+        Object parent = containers.peek();
+        if (parent == null) {
+            result = value;
+            state = DONE;
+        } else if (parent instanceof Map) {
+            ((Map<String, Object>) parent).put(keys.pop(), value);
+            state = OBJECT_NEXT;
+        } else {
+            ((List<Object>) parent).add(value);
+            state = ARRAY_NEXT;
+        }
+    }
+
+    private IllegalArgumentException unexpected(char c) {
+        return UndertowScriptLogger.ROOT_LOGGER.unexpectedJsonCharacter(c, offset);
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\n' || c == '\r' || c == '\t';
+    }
+
+    private static boolean isValidNumber(String number) {
+        int i = 0;
+        int length = number.length();
+        if (number.charAt(i) == '-') {
+            i++;
+        }
+        if (i < length && number.charAt(i) == '0') {
+            i++;
+        } else {
+            int start = i;
+            i = digits(number, i);
+            if (i == start) {
+                return false;
+            }
+        }
+        if (i < length && number.charAt(i) == '.') {
+            int start = ++i;
+            i = digits(number, i);
+            if (i == start) {
+                return false;
+            }
+        }
+        if (i < length && (number.charAt(i) == 'e' || number.charAt(i) == 'E')) {
+            i++;
+            if (i < length && (number.charAt(i) == '+' || number.charAt(i) == '-')) {
+                i++;
+            }
+            int start = i;
+            i = digits(number, i);
+            if (i == start) {
+                return false;
+            }
+        }
+        return i == length;
+    }
+
+    private static int digits(String number, int i) {
+        while (i < number.length() && number.charAt(i) >= '0' && number.charAt(i) <= '9') {
+            i++;
+        }
+        return i;
+    }
+}
@@ -0,0 +1,523 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.undertow.js;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.TypeVariable;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.lang.reflect.WildcardType;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+/**
+ * Converts script values into Java objects of a given type, in a single pass over the value. This is used by
+ * <code>$undertow.toJava</code>.
+ * <p>
+ * Script objects and Java maps are converted into beans by calling their setters, or setting their public fields.
+ * How to create and populate a class is worked out once, and then reused for every value converted to that class.
+ * Nested beans, arrays, collections and maps are converted according to the generic type of the property. Enums are
+ * converted from their name, and dates from script dates, epoch milliseconds or ISO-8601 strings, in UTC.
+ */
+public final class JavaConverter {
+
+    private static final MethodType CONSTRUCTOR_TYPE = MethodType.methodType(Object.class);
+    private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+    private static final Map<Class<?>, Class<?>> WRAPPERS;
+
+    static {
+        Map<Class<?>, Class<?>> wrappers = new HashMap<>();
+        wrappers.put(boolean.class, Boolean.class);
+        wrappers.put(byte.class, Byte.class);
+        wrappers.put(short.class, Short.class);
+        wrappers.put(char.class, Character.class);
+        wrappers.put(int.class, Integer.class);
+        wrappers.put(long.class, Long.class);
+        wrappers.put(float.class, Float.class);
+        wrappers.put(double.class, Double.class);
+        WRAPPERS = Collections.unmodifiableMap(wrappers);
+    }
+
+    private final ConcurrentMap<Class<?>, BeanPlan> plans = new ConcurrentHashMap<>();
+
+    JavaConverter() {
+
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> T convert(Class<T> type, Object value) {
+        return (T) convert((Type) type, value);
+    }
+
+    /**
+     * Converts a value to the given type, which can be a generic type such as <code>List&lt;MyBean&gt;</code>
+     *
+     * @throws IllegalArgumentException if the value cannot be converted
+     */
+    public Object convert(Type type, Object value) {
+        Class<?> raw = rawType(type);
+        if (value == null || ScriptObject.isUndefined(value.getClass())) {
+            return raw.isPrimitive() ? Array.get(Array.newInstance(raw, 1), 0) : null;
+        }
+        if (raw.isPrimitive()) {
+            raw = WRAPPERS.get(raw);
+        }
+        boolean script = ScriptObject.isScriptObject(value.getClass());
+        if (!script && raw.isInstance(value) && type instanceof Class) {
+            return value;
+        }
+        if (raw == Object.class) {
+            return toObject(value);
+        } else if (raw == String.class) {
+            if (value instanceof CharSequence || value instanceof Number || value instanceof Boolean || value instanceof Character) {
+                return value.toString();
+            } else if (value instanceof Enum) {
+                return ((Enum<?>) value).name();
+            }
+        } else if (Number.class.isAssignableFrom(raw)) {
+            Number number = toNumber(raw, value);
+            if (number != null) {
+                return number;
+            }
+        } else if (raw == Boolean.class) {
+            if (value instanceof Boolean) {
+                return value;
+            } else if (value instanceof CharSequence) {
+                return Boolean.valueOf(value.toString());
+            }
+        } else if (raw == Character.class) {
+            if (value instanceof CharSequence && ((CharSequence) value).length() == 1) {
+                return ((CharSequence) value).charAt(0);
+            }
+        } else if (raw.isEnum()) {
+            if (value instanceof CharSequence) {
+                return toEnum(raw, value.toString());
+            }
+        } else if (raw == Date.class || raw == Instant.class || raw == LocalDate.class || raw == LocalDateTime.class) {
+            Object date = toDate(raw, value, script);
+            if (date != null) {
+                return date;
+            }
+        } else if (raw.isArray()) {
+            List<?> elements = elements(value, script);
+            if (elements != null) {
+                Type componentType = type instanceof GenericArrayType ? ((GenericArrayType) type).getGenericComponentType() : raw.getComponentType();
+                Object array = Array.newInstance(raw.getComponentType(), elements.size());
+                for (int i = 0; i < elements.size(); ++i) {
+                    Array.set(array, i, convert(componentType, elements.get(i)));
+                }
+                return array;
+            }
+        } else if (Collection.class.isAssignableFrom(raw)) {
+            List<?> elements = elements(value, script);
+            if (elements != null) {
+                Type elementType = typeArgument(type, 0, 1);
+                Collection<Object> collection = newCollection(raw);
+                for (Object element : elements) {
+                    collection.add(convert(elementType, element));
+                }
+                return collection;
+            }
+        } else if (Map.class.isAssignableFrom(raw)) {
+            Collection<? extends Map.Entry<?, ?>> entries = entries(value, script);
+            if (entries != null) {
+                Type keyType = typeArgument(type, 0, 2);
+                Type valueType = typeArgument(type, 1, 2);
+                Map<Object, Object> map = newMap(raw);
+                for (Map.Entry<?, ?> entry : entries) {
+                    map.put(convert(keyType, entry.getKey()), convert(valueType, entry.getValue()));
+                }
+                return map;
+            }
+        } else {
+            Collection<? extends Map.Entry<?, ?>> entries = entries(value, script);
+            if (entries != null) {
+                return toBean(raw, entries);
+            }
+        }
+        throw UndertowScriptLogger.ROOT_LOGGER.cannotConvert(value.getClass().getName(), type);
+    }
+
+    private Object toBean(Class<?> type, Collection<? extends Map.Entry<?, ?>> entries) {
+        BeanPlan plan = plan(type);
+        Object bean = plan.newInstance();
+        for (Map.Entry<?, ?> entry : entries) {
+            Binding binding = plan.bindings.get(String.valueOf(entry.getKey()));
+            if (binding != null) {
+                binding.set(bean, convert(binding.type, entry.getValue()));
+            }
+        }
+        return bean;
+    }
+
+    /**
+     * Converts a value for an untyped destination, script arrays become lists and script objects become maps
+     */
+    private Object toObject(Object value) {
+        if (!ScriptObject.isScriptObject(value.getClass())) {
+            return value;
+        }
+        ScriptObject type = ScriptObject.forClass(value.getClass());
+        if (type.isArray(value)) {
+            int length = type.getLength(value);
+            List<Object> list = new ArrayList<>(length);
+            for (int i = 0; i < length; ++i) {
+                list.add(convert(Object.class, type.getSlot(value, i)));
+            }
+            return list;
+        } else if (type.isFunction(value)) {
+            return value;
+        } else if ("Date".equals(type.getClassName(value))) {
+            return toDate(Date.class, value, true);
+        }
+        Map<String, Object> map = new LinkedHashMap<>();
+        for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+            map.put(String.valueOf(entry.getKey()), convert(Object.class, entry.getValue()));
+        }
+        return map;
+    }
+
+    private static Number toNumber(Class<?> type, Object value) {
+        Number number;
+        if (value instanceof Number) {
+            number = (Number) value;
+        } else if (value instanceof CharSequence) {
+            try {
+                number = new BigDecimal(value.toString().trim());
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        } else {
+            return null;
+        }
+        if (type == Integer.class) {
+            return number.intValue();
+        } else if (type == Long.class) {
+            return number.longValue();
+        } else if (type == Double.class || type == Number.class) {
+            return number.doubleValue();
+        } else if (type == Float.class) {
+            return number.floatValue();
+        } else if (type == Short.class) {
+            return number.shortValue();
+        } else if (type == Byte.class) {
+            return number.byteValue();
+        } else if (type == BigDecimal.class) {
+            return number instanceof BigDecimal ? number : new BigDecimal(number.toString());
+        } else if (type == BigInteger.class) {
+            return number instanceof BigDecimal ? ((BigDecimal) number).toBigInteger() : new BigDecimal(number.toString()).toBigInteger();
+        }
+        return null;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Object toEnum(Class<?> type, String name) {
+        try {
+            return Enum.valueOf((Class<? extends Enum>) type, name);
+        } catch (IllegalArgumentException e) {
+            throw UndertowScriptLogger.ROOT_LOGGER.cannotConvert(name, type);
+        }
+    }
+
+    private static Object toDate(Class<?> type, Object value, boolean script) {
+        Instant instant;
+        if (value instanceof Number) {
+            instant = Instant.ofEpochMilli(((Number) value).longValue());
+        } else if (value instanceof Date) {
+            instant = ((Date) value).toInstant();
+        } else if (value instanceof CharSequence) {
+            String text = value.toString();
+            if (type == LocalDate.class) {
+                return LocalDate.parse(text);
+            } else if (type == LocalDateTime.class && text.indexOf('Z') < 0) {
+                return LocalDateTime.parse(text);
+            }
+            instant = Instant.parse(text);
+        } else if (script && "Date".equals(ScriptObject.forClass(value.getClass()).getClassName(value))) {
+            instant = Instant.ofEpochMilli(((Number) ScriptObject.forClass(value.getClass()).callMember(value, "getTime")).longValue());
+        } else {
+            return null;
+        }
+        if (type == Date.class) {
+            return Date.from(instant);
+        } else if (type == LocalDate.class) {
+            return LocalDateTime.ofInstant(instant, ZoneOffset.UTC).toLocalDate();
+        } else if (type == LocalDateTime.class) {
+            return LocalDateTime.ofInstant(instant, ZoneOffset.UTC);
+        }
+        return instant;
+    }
+
+    /**
+     *
+     * @return the elements of a script array, Java collection or Java array, or null if the value is not one of these
+     */
+    private static List<?> elements(Object value, boolean script) {
+        if (script) {
+            ScriptObject type = ScriptObject.forClass(value.getClass());
+            if (!type.isArray(value)) {
+                return null;
+            }
+            int length = type.getLength(value);
+            List<Object> elements = new ArrayList<>(length);
+            for (int i = 0; i < length; ++i) {
+                elements.add(type.getSlot(value, i));
+            }
+            return elements;
+        } else if (value instanceof List) {
+            return (List<?>) value;
+        } else if (value instanceof Collection) {
+            return new ArrayList<>((Collection<?>) value);
+        } else if (value instanceof Object[]) {
+            return Arrays.asList((Object[]) value);
+        } else if (value.getClass().isArray()) {
+            int length = Array.getLength(value);
+            List<Object> elements = new ArrayList<>(length);
+            for (int i = 0; i < length; ++i) {
+                elements.add(Array.get(value, i));
+            }
+            return elements;
+        }
+        return null;
+    }
+
+    /**
+     *
+     * @return the properties of a script object, or the entries of a Java map, or null if the value is not one of these.
+     * Functions are left out.
+     */
+    private static Collection<? extends Map.Entry<?, ?>> entries(Object value, boolean script) {
+        if (script) {
+            ScriptObject type = ScriptObject.forClass(value.getClass());
+            if (type.isArray(value) || type.isFunction(value)) {
+                return null;
+            }
+            List<Map.Entry<?, ?>> entries = new ArrayList<>();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                Object property = entry.getValue();
+                if (property == null || !type.isFunctionValue(property)) {
+                    entries.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), property));
+                }
+            }
+            return entries;
+        } else if (value instanceof Map) {
+            return ((Map<?, ?>) value).entrySet();
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Collection<Object> newCollection(Class<?> type) {
+        if (!type.isInterface() && !Modifier.isAbstract(type.getModifiers())) {
+            return (Collection<Object>) plan(type).newInstance();
+        } else if (SortedSet.class.isAssignableFrom(type)) {
+            return new TreeSet<>();
+        } else if (type.isAssignableFrom(ArrayList.class)) {
+            return new ArrayList<>();
+        } else if (type.isAssignableFrom(LinkedHashSet.class)) {
+            return new LinkedHashSet<>();
+        } else if (type.isAssignableFrom(ArrayDeque.class)) {
+            return new ArrayDeque<>();
+        }
+        throw UndertowScriptLogger.ROOT_LOGGER.cannotInstantiate(type);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<Object, Object> newMap(Class<?> type) {
+        if (!type.isInterface() && !Modifier.isAbstract(type.getModifiers())) {
+            return (Map<Object, Object>) plan(type).newInstance();
+        } else if (SortedMap.class.isAssignableFrom(type)) {
+            return new TreeMap<>();
+        } else if (type.isAssignableFrom(LinkedHashMap.class)) {
+            return new LinkedHashMap<>();
+        } else if (type.isAssignableFrom(ConcurrentHashMap.class)) {
+            return new ConcurrentHashMap<>();
+        }
+        throw UndertowScriptLogger.ROOT_LOGGER.cannotInstantiate(type);
+    }
+
+    private BeanPlan plan(Class<?> type) {
+        BeanPlan plan = plans.get(type);
+        if (plan != null) {
+            return plan;
+        }
+        return plans.computeIfAbsent(type, new Function<Class<?>, BeanPlan>() {
+            @Override
+            public BeanPlan apply(Class<?> type) {
+                return BeanPlan.create(type);
+            }
+        });
+    }
+
+    private static Class<?> rawType(Type type) {
+        if (type instanceof Class) {
+            return (Class<?>) type;
+        } else if (type instanceof ParameterizedType) {
+            return rawType(((ParameterizedType) type).getRawType());
+        } else if (type instanceof GenericArrayType) {
+            return Array.newInstance(rawType(((GenericArrayType) type).getGenericComponentType()), 0).getClass();
+        } else if (type instanceof WildcardType) {
+            return rawType(((WildcardType) type).getUpperBounds()[0]);
+        } else if (type instanceof TypeVariable) {
+            return rawType(((TypeVariable<?>) type).getBounds()[0]);
+        }
+        return Object.class;
+    }
+
+    /**
+     *
+     * @return the type argument of a collection or map type, or Object if the type does not declare it
+     */
+    private static Type typeArgument(Type type, int index, int count) {
+        if (type instanceof ParameterizedType) {
+            Type[] arguments = ((ParameterizedType) type).getActualTypeArguments();
+            if (arguments.length == count) {
+                return arguments[index];
+            }
+        }
+        return Object.class;
+    }
+
+    /**
+     * How to create and populate instances of a class
+     */
+    private static final class BeanPlan {
+
+        private final Class<?> type;
+        private final MethodHandle constructor;
+        private final Map<String, Binding> bindings;
+
+        private BeanPlan(Class<?> type, MethodHandle constructor, Map<String, Binding> bindings) {
+            this.type = type;
+            this.constructor = constructor;
+            this.bindings = bindings;
+        }
+
+        static BeanPlan create(Class<?> type) {
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            MethodHandle constructor;
+            try {
+                Constructor<?> ctor = type.getConstructor();
+                if (!Modifier.isPublic(type.getModifiers()) || Modifier.isAbstract(type.getModifiers())) {
+                    throw UndertowScriptLogger.ROOT_LOGGER.cannotInstantiate(type);
+                }
+                constructor = lookup.unreflectConstructor(ctor).asType(CONSTRUCTOR_TYPE);
+            } catch (NoSuchMethodException | IllegalAccessException e) {
+                throw UndertowScriptLogger.ROOT_LOGGER.cannotInstantiate(type);
+            }
+            Map<String, Binding> bindings = new HashMap<>();
+            for (Method method : type.getMethods()) {
+                if (method.isBridge() || Modifier.isStatic(method.getModifiers())) {
+                    continue;
+                }
+                if (method.getParameterCount() == 1 &&
+                        method.getName().startsWith("set") &&
+                        method.getName().length() > 3) {
+                    String name = Character.toLowerCase(method.getName().charAt(3)) + method.getName().substring(4);
+                    if (!bindings.containsKey(name)) {
+                        try {
+                            bindings.put(name, new Binding(method.getGenericParameterTypes()[0], lookup.unreflect(method).asType(SETTER_TYPE)));
+                        } catch (IllegalAccessException e) {
+                            //not accessible, so not a property
+                        }
+                    }
+                }
+            }
+            for (Field field : type.getFields()) {
+                int modifiers = field.getModifiers();
+                if (!Modifier.isStatic(modifiers) && !Modifier.isFinal(modifiers) && !bindings.containsKey(field.getName())) {
+                    try {
+                        bindings.put(field.getName(), new Binding(field.getGenericType(), lookup.unreflectSetter(field).asType(SETTER_TYPE)));
+                    } catch (IllegalAccessException e) {
+                        //not accessible, so not a property
+                    }
+                }
+            }
+            return new BeanPlan(type, constructor, bindings);
+        }
+
+        Object newInstance() {
+            try {
+                return (Object) constructor.invokeExact();
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new UndeclaredThrowableException(t, type.getName());
+            }
+        }
+    }
+
+    /**
+     * A property that can be set, and the type it must be converted to
+     */
+    private static final class Binding {
+
+        final Type type;
+        private final MethodHandle setter;
+
+        Binding(Type type, MethodHandle setter) {
+            this.type = type;
+            this.setter = setter;
+        }
+
+        void set(Object bean, Object value) {
+            try {
+                setter.invokeExact(bean, value);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new UndeclaredThrowableException(t);
+            }
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.undertow.js;
+
+import java.nio.ByteBuffer;
+
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.AttachmentKey;
+
+/**
+ * Handler that parses the entity body as JSON while it is being read, and attaches the parsed value to the exchange.
+ * It is used for routes that inject {@code $entity:json_java}, {@code $entity:json} is still buffered and handed to
+ * {@code JSON.parse} so handlers get native script values.
+ * <p>
+ * Objects are attached as a {@link java.util.Map} and arrays as a {@link java.util.List}, see {@link IncrementalJsonParser}.
+ * Requests with an invalid entity are rejected with a 400.
+ */
+public class JsonReadHandler extends EntityReadHandler {
+
+    public static final AttachmentKey<Object> DATA = AttachmentKey.create(Object.class);
+
+    public JsonReadHandler(HttpHandler next) {
+        this(next, -1);
+    }
+
+    public JsonReadHandler(HttpHandler next, long maxEntitySize) {
+        super(next, maxEntitySize);
+    }
+
+    @Override
+    protected Sink createSink(final HttpServerExchange exchange, long length) {
+        final IncrementalJsonParser parser = new IncrementalJsonParser();
+        return new Sink() {
+            @Override
+            public void data(ByteBuffer buffer) {
+                parser.parse(buffer);
+            }
+
+            @Override
+            public void complete() {
+                exchange.putAttachment(DATA, parser.finish());
+            }
+        };
+    }
+}
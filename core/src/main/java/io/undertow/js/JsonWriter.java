@@ -0,0 +1,655 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.undertow.js;
+
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes script results as UTF-8 encoded JSON. Script objects and arrays, Java collections, maps, arrays and beans
+ * are walked directly, so no intermediate script objects are created.
+ * <p>
+ * This is used for the values that handlers send, the script <code>JSON.stringify</code> is left alone. The output
+ * follows the same rules for script values: only own enumerable properties are written, properties holding
+ * <code>undefined</code> or functions are left out, numbers are formatted as script numbers, and circular structures
+ * are rejected. Java enums are written as their name.
+ */
+public final class JsonWriter {
+
+    private static final byte[] NULL = {'n', 'u', 'l', 'l'};
+    private static final byte[] TRUE = {'t', 'r', 'u', 'e'};
+    private static final byte[] FALSE = {'f', 'a', 'l', 's', 'e'};
+    private static final byte[] HEX = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'};
+
+    private enum Kind {
+        NULL, STRING, INTEGER, DECIMAL, BIG_NUMBER, BOOLEAN, CHARACTER, ENUM, SCRIPT_OBJECT, MAP, COLLECTION, ARRAY, BEAN
+    }
+
+    private static final ClassValue<Kind> KINDS = new ClassValue<Kind>() {
+        @Override
+        protected Kind computeValue(Class<?> type) {
+            if (CharSequence.class.isAssignableFrom(type)) {
+                return Kind.STRING;
+            } else if (type == Integer.class || type == Long.class || type == Short.class || type == Byte.class) {
+                return Kind.INTEGER;
+            } else if (type == BigDecimal.class || type == BigInteger.class) {
+                return Kind.BIG_NUMBER;
+            } else if (Number.class.isAssignableFrom(type)) {
+                return Kind.DECIMAL;
+            } else if (type == Boolean.class) {
+                return Kind.BOOLEAN;
+            } else if (type == Character.class) {
+                return Kind.CHARACTER;
+            } else if (Enum.class.isAssignableFrom(type)) {
+                return Kind.ENUM;
+            } else if (ScriptObject.isScriptObject(type)) {
+                return Kind.SCRIPT_OBJECT;
+            } else if (ScriptObject.isUndefined(type)) {
+                return Kind.NULL;
+            } else if (Map.class.isAssignableFrom(type)) {
+                return Kind.MAP;
+            } else if (Iterable.class.isAssignableFrom(type)) {
+                return Kind.COLLECTION;
+            } else if (type.isArray()) {
+                return Kind.ARRAY;
+            }
+            return Kind.BEAN;
+        }
+    };
+
+    private final UndertowJS.JavabeanIntrospector introspector;
+    private final Output output;
+    private final byte[] digits = new byte[20];
+    /**
+     * The objects and arrays that are currently being written, innermost last. They are also used to detect circular
+     * structures.
+     */
+    private final List<Frame> stack = new ArrayList<>();
+    private ByteBuffer buffer;
+
+    JsonWriter(UndertowJS.JavabeanIntrospector introspector, Output output) throws IOException {
+        this.introspector = introspector;
+        this.output = output;
+        this.buffer = output.next(null);
+    }
+
+    /**
+     * Converts a value into a JSON string
+     */
+    public static String stringify(Object value, UndertowJS.JavabeanIntrospector introspector) throws IOException {
+        HeapOutput output = new HeapOutput();
+        JsonWriter writer = new JsonWriter(introspector, output);
+        writer.write(value);
+        ByteBuffer result = writer.finish();
+        return new String(result.array(), 0, result.position(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     *
+     * @return the buffer that was being written to, which has not been passed to the output
+     */
+    ByteBuffer finish() {
+        return buffer;
+    }
+
+    /**
+     * Writes a value. If the output asks the writer to pause, writing stops between two members of an object or array,
+     * and is continued by calling {@link #resume()}.
+     *
+     * @return true if the whole value has been written, false if the writer has paused
+     */
+    boolean write(Object value) throws IOException {
+        writeValue(value);
+        return resume();
+    }
+
+    /**
+     * Continues writing the objects and arrays that were open when the writer paused
+     *
+     * @return true if the whole value has been written, false if the writer has paused again
+     */
+    boolean resume() throws IOException {
+        while (!stack.isEmpty()) {
+            if (output.isPaused()) {
+                return false;
+            }
+            Frame frame = stack.get(stack.size() - 1);
+            Object member = frame.next(this);
+            if (member == Frame.END) {
+                stack.remove(stack.size() - 1);
+                frame.end(this);
+            } else {
+                writeValue(member);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes a simple value, or opens an object or array and pushes a frame to write its members
+     */
+    private void writeValue(Object value) throws IOException {
+        if (value == null) {
+            writeBytes(NULL);
+            return;
+        }
+        Kind kind = KINDS.get(value.getClass());
+        switch (kind) {
+            case NULL:
+                writeBytes(NULL);
+                return;
+            case STRING:
+                writeString((CharSequence) value);
+                return;
+            case INTEGER:
+                writeLong(((Number) value).longValue());
+                return;
+            case DECIMAL:
+                writeDouble(((Number) value).doubleValue());
+                return;
+            case BIG_NUMBER:
+                writeAscii(value.toString());
+                return;
+            case BOOLEAN:
+                writeBytes((Boolean) value ? TRUE : FALSE);
+                return;
+            case CHARACTER:
+                writeString(value.toString());
+                return;
+            case ENUM:
+                writeString(((Enum<?>) value).name());
+                return;
+        }
+        enter(value, kind == Kind.SCRIPT_OBJECT);
+        switch (kind) {
+            case SCRIPT_OBJECT:
+                ScriptObject type = ScriptObject.forClass(value.getClass());
+                if (type.isFunction(value)) {
+                    writeBytes(NULL);
+                    return;
+                }
+                Object json = type.toJson(value);
+                if (json != value) {
+                    stack.add(new ToJsonFrame(value, json));
+                } else if (type.isArray(value)) {
+                    writeByte('[');
+                    stack.add(new ScriptArrayFrame(value, type));
+                } else {
+                    writeByte('{');
+                    stack.add(new ScriptObjectFrame(value, type));
+                }
+                return;
+            case MAP:
+                writeByte('{');
+                stack.add(new MapFrame((Map<?, ?>) value));
+                return;
+            case COLLECTION:
+                writeByte('[');
+                stack.add(new IterableFrame((Iterable<?>) value));
+                return;
+            case ARRAY:
+                writeByte('[');
+                stack.add(new ArrayFrame(value));
+                return;
+            default:
+                writeByte('{');
+                stack.add(new BeanFrame(value, introspector.properties(value.getClass())));
+        }
+    }
+
+    /**
+     * Checks that an object or array is not already being written
+     *
+     * @param scriptObject if the value is a script object. Script objects are wrapped in a new mirror every time they
+     * are read, so they are compared by equality rather than identity.
+     */
+    private void enter(Object value, boolean scriptObject) {
+        for (int i = 0; i < stack.size(); ++i) {
+            Object parent = stack.get(i).value;
+            if (parent == value || (scriptObject && value.equals(parent))) {
+                throw UndertowScriptLogger.ROOT_LOGGER.circularJson();
+            }
+        }
+    }
+
+    /**
+     *
+     * @return false, as the next key is never the first one
+     */
+    private boolean writeKey(String key, boolean first) throws IOException {
+        if (!first) {
+            writeByte(',');
+        }
+        writeString(key);
+        writeByte(':');
+        return false;
+    }
+
+    private void writeString(CharSequence value) throws IOException {
+        writeByte('"');
+        int length = value.length();
+        for (int i = 0; i < length; ++i) {
+            char c = value.charAt(i);
+            if (buffer.remaining() < 6) {
+                buffer = output.next(buffer);
+            }
+            if (c < 0x80) {
+                if (c == '"' || c == '\\') {
+                    buffer.put((byte) '\\').put((byte) c);
+                } else if (c >= 0x20) {
+                    buffer.put((byte) c);
+                } else if (c == '\n') {
+                    buffer.put((byte) '\\').put((byte) 'n');
+                } else if (c == '\r') {
+                    buffer.put((byte) '\\').put((byte) 'r');
+                } else if (c == '\t') {
+                    buffer.put((byte) '\\').put((byte) 't');
+                } else if (c == '\b') {
+                    buffer.put((byte) '\\').put((byte) 'b');
+                } else if (c == '\f') {
+                    buffer.put((byte) '\\').put((byte) 'f');
+                } else {
+                    writeEscape(c);
+                }
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xC0 | (c >> 6)))
+                        .put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buffer.put((byte) (0xF0 | (codePoint >> 18)))
+                        .put((byte) (0x80 | ((codePoint >> 12) & 0x3F)))
+                        .put((byte) (0x80 | ((codePoint >> 6) & 0x3F)))
+                        .put((byte) (0x80 | (codePoint & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                //a lone surrogate cannot be encoded, so it is escaped
+                writeEscape(c);
+            } else {
+                buffer.put((byte) (0xE0 | (c >> 12)))
+                        .put((byte) (0x80 | ((c >> 6) & 0x3F)))
+                        .put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+        writeByte('"');
+    }
+
+    private void writeEscape(char c) {
+        buffer.put((byte) '\\').put((byte) 'u')
+                .put(HEX[c >> 12]).put(HEX[(c >> 8) & 0xF]).put(HEX[(c >> 4) & 0xF]).put(HEX[c & 0xF]);
+    }
+
+    private void writeDouble(double value) throws IOException {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            writeBytes(NULL);
+        } else if (value == (long) value && Math.abs(value) < 1e15) {
+            //integral values are written without a fraction, as script numbers are
+            writeLong((long) value);
+        } else {
+            writeAscii(numberToString(value));
+        }
+    }
+
+    /**
+     * Formats a finite number the way a script converts it to a string, so 1e-4 is written as 0.0001 and 1e21 as
+     * 1e+21, rather than in Java's scientific notation.
+     */
+    static String numberToString(double value) {
+        BigDecimal decimal = new BigDecimal(Double.toString(Math.abs(value))).stripTrailingZeros();
+        String digits = decimal.unscaledValue().toString();
+        //the value is 0.digits * 10^exponent
+        int length = digits.length();
+        int exponent = length - decimal.scale();
+        StringBuilder result = new StringBuilder(length + 8);
+        if (value < 0) {
+            result.append('-');
+        }
+        if (length <= exponent && exponent <= 21) {
+            result.append(digits);
+            for (int i = length; i < exponent; ++i) {
+                result.append('0');
+            }
+        } else if (0 < exponent && exponent <= 21) {
+            result.append(digits, 0, exponent).append('.').append(digits, exponent, length);
+        } else if (-6 < exponent && exponent <= 0) {
+            result.append("0.");
+            for (int i = exponent; i < 0; ++i) {
+                result.append('0');
+            }
+            result.append(digits);
+        } else {
+            result.append(digits.charAt(0));
+            if (length > 1) {
+                result.append('.').append(digits, 1, length);
+            }
+            result.append('e').append(exponent > 0 ? '+' : '-').append(Math.abs(exponent - 1));
+        }
+        return result.toString();
+    }
+
+    private void writeLong(long value) throws IOException {
+        if (value == Long.MIN_VALUE) {
+            writeAscii(Long.toString(value));
+            return;
+        }
+        if (buffer.remaining() < 21) {
+            buffer = output.next(buffer);
+        }
+        if (value < 0) {
+            buffer.put((byte) '-');
+            value = -value;
+        }
+        int pos = digits.length;
+        do {
+            digits[--pos] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        buffer.put(digits, pos, digits.length - pos);
+    }
+
+    private void writeAscii(String value) throws IOException {
+        for (int i = 0; i < value.length(); ++i) {
+            writeByte(value.charAt(i));
+        }
+    }
+
+    private void writeBytes(byte[] bytes) throws IOException {
+        if (buffer.remaining() < bytes.length) {
+            buffer = output.next(buffer);
+        }
+        buffer.put(bytes);
+    }
+
+    private void writeByte(char c) throws IOException {
+        if (!buffer.hasRemaining()) {
+            buffer = output.next(buffer);
+        }
+        buffer.put((byte) c);
+    }
+
+    /**
+     * The destination of the encoded JSON
+     */
+    interface Output {
+
+        /**
+         * Takes a buffer that the writer has filled, and returns the buffer to continue writing to. Buffers always
+         * have room for at least 32 bytes.
+         *
+         * @param full the buffer that was written to, or null to get the first buffer
+         */
+        ByteBuffer next(ByteBuffer full) throws IOException;
+
+        /**
+         * Checked by the writer between the members of objects and arrays. Once this returns true the writer stops
+         * until it is resumed.
+         */
+        boolean isPaused();
+    }
+
+    /**
+     * Output that grows a single heap buffer
+     */
+    private static final class HeapOutput implements Output {
+
+        @Override
+        public ByteBuffer next(ByteBuffer full) {
+            if (full == null) {
+                return ByteBuffer.allocate(256);
+            }
+            ByteBuffer grown = ByteBuffer.allocate(full.capacity() * 2);
+            full.flip();
+            grown.put(full);
+            return grown;
+        }
+
+        @Override
+        public boolean isPaused() {
+            return false;
+        }
+    }
+
+    /**
+     * An object or array that is being written
+     */
+    private abstract static class Frame {
+
+        /**
+         * Returned by {@link #next(JsonWriter)} once all the members have been written
+         */
+        static final Object END = new Object();
+
+        final Object value;
+        boolean first = true;
+
+        Frame(Object value) {
+            this.value = value;
+        }
+
+        /**
+         * Writes the separator, and for objects the key, of the next member
+         *
+         * @return the member to write, or {@link #END}
+         */
+        abstract Object next(JsonWriter writer) throws IOException;
+
+        abstract void end(JsonWriter writer) throws IOException;
+    }
+
+    /**
+     * The value returned by a script object's <code>toJSON</code> function, which is written in place of the object
+     */
+    private static final class ToJsonFrame extends Frame {
+
+        private final Object json;
+
+        ToJsonFrame(Object value, Object json) {
+            super(value);
+            this.json = json;
+        }
+
+        @Override
+        Object next(JsonWriter writer) {
+            if (!first) {
+                return END;
+            }
+            first = false;
+            return json;
+        }
+
+        @Override
+        void end(JsonWriter writer) {
+        }
+    }
+
+    private static final class ScriptArrayFrame extends Frame {
+
+        private final ScriptObject type;
+        private final int length;
+        private int index;
+
+        ScriptArrayFrame(Object value, ScriptObject type) {
+            super(value);
+            this.type = type;
+            this.length = type.getLength(value);
+        }
+
+        @Override
+        Object next(JsonWriter writer) throws IOException {
+            if (index == length) {
+                return END;
+            }
+            if (index > 0) {
+                writer.writeByte(',');
+            }
+            Object element = type.getSlot(value, index++);
+            //undefined and functions are written as null inside arrays
+            return element != null && type.isFunctionValue(element) ? null : element;
+        }
+
+        @Override
+        void end(JsonWriter writer) throws IOException {
+            writer.writeByte(']');
+        }
+    }
+
+    private static final class ScriptObjectFrame extends Frame {
+
+        private final ScriptObject type;
+        private final String[] keys;
+        private int index;
+
+        ScriptObjectFrame(Object value, ScriptObject type) {
+            super(value);
+            this.type = type;
+            this.keys = type.getOwnKeys(value);
+        }
+
+        @Override
+        Object next(JsonWriter writer) throws IOException {
+            while (index < keys.length) {
+                String key = keys[index++];
+                Object property = type.getMember(value, key);
+                if (property != null && (ScriptObject.isUndefined(property.getClass()) || type.isFunctionValue(property))) {
+                    continue;
+                }
+                first = writer.writeKey(key, first);
+                return property;
+            }
+            return END;
+        }
+
+        @Override
+        void end(JsonWriter writer) throws IOException {
+            writer.writeByte('}');
+        }
+    }
+
+    private static final class MapFrame extends Frame {
+
+        private final Iterator<? extends Map.Entry<?, ?>> entries;
+
+        MapFrame(Map<?, ?> value) {
+            super(value);
+            this.entries = value.entrySet().iterator();
+        }
+
+        @Override
+        Object next(JsonWriter writer) throws IOException {
+            if (!entries.hasNext()) {
+                return END;
+            }
+            Map.Entry<?, ?> entry = entries.next();
+            first = writer.writeKey(String.valueOf(entry.getKey()), first);
+            return entry.getValue();
+        }
+
+        @Override
+        void end(JsonWriter writer) throws IOException {
+            writer.writeByte('}');
+        }
+    }
+
+    private static final class IterableFrame extends Frame {
+
+        private final Iterator<?> elements;
+
+        IterableFrame(Iterable<?> value) {
+            super(value);
+            this.elements = value.iterator();
+        }
+
+        @Override
+        Object next(JsonWriter writer) throws IOException {
+            if (!elements.hasNext()) {
+                return END;
+            }
+            if (!first) {
+                writer.writeByte(',');
+            }
+            first = false;
+            return elements.next();
+        }
+
+        @Override
+        void end(JsonWriter writer) throws IOException {
+            writer.writeByte(']');
+        }
+    }
+
+    private static final class ArrayFrame extends Frame {
+
+        private final int length;
+        private int index;
+
+        ArrayFrame(Object value) {
+            super(value);
+            this.length = Array.getLength(value);
+        }
+
+        @Override
+        Object next(JsonWriter writer) throws IOException {
+            if (index == length) {
+                return END;
+            }
+            if (index > 0) {
+                writer.writeByte(',');
+            }
+            return Array.get(value, index++);
+        }
+
+        @Override
+        void end(JsonWriter writer) throws IOException {
+            writer.writeByte(']');
+        }
+    }
+
+    private static final class BeanFrame extends Frame {
+
+        private final BeanProperty[] properties;
+        private int index;
+
+        BeanFrame(Object value, BeanProperty[] properties) {
+            super(value);
+            this.properties = properties;
+        }
+
+        @Override
+        Object next(JsonWriter writer) throws IOException {
+            if (index == properties.length) {
+                return END;
+            }
+            BeanProperty property = properties[index++];
+            first = writer.writeKey(property.getName(), first);
+            return property.get(value);
+        }
+
+        @Override
+        void end(JsonWriter writer) throws IOException {
+            writer.writeByte('}');
+        }
+    }
+}
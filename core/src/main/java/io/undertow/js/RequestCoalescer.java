@@ -0,0 +1,175 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.undertow.js;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.HeaderMap;
+
+/**
+ * Tracks the requests of a route that are currently being handled, so that identical requests that arrive in the
+ * meantime can share the response instead of running the handler again.
+ * <p>
+ * A single coalescer is shared by all execution contexts, and survives redeployment of the scripts.
+ *
+ * @see CoalescingHandler
+ */
+public class RequestCoalescer {
+
+    private final String route;
+    private final ConcurrentMap<String, Flight> flights = new ConcurrentHashMap<>();
+    private volatile long maxSize;
+
+    private final AtomicLong executions = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong fallbacks = new AtomicLong();
+
+    RequestCoalescer(String route, long maxSize) {
+        this.route = route;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Starts a flight for the given key, unless one is already in progress
+     *
+     * @return the flight that is already in progress, or null if the caller should handle the request
+     */
+    Flight join(String key, Flight flight) {
+        Flight existing = flights.putIfAbsent(key, flight);
+        if (existing == null) {
+            executions.incrementAndGet();
+        } else {
+            coalesced.incrementAndGet();
+        }
+        return existing;
+    }
+
+    void leave(String key, Flight flight) {
+        flights.remove(key, flight);
+    }
+
+    void fallback(int count) {
+        fallbacks.addAndGet(count);
+    }
+
+    void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public String getRoute() {
+        return route;
+    }
+
+    /**
+     *
+     * @return the maximum size in bytes of a response that can be shared
+     */
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     *
+     * @return the number of requests that ran the handler on behalf of all identical requests
+     */
+    public long getExecutions() {
+        return executions.get();
+    }
+
+    /**
+     *
+     * @return the number of requests that waited for an identical request instead of running the handler
+     */
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+    /**
+     *
+     * @return the number of waiting requests that had to run the handler themselves, as the response could not be shared
+     */
+    public long getFallbacks() {
+        return fallbacks.get();
+    }
+
+    /**
+     *
+     * @return the number of distinct requests that are currently being handled
+     */
+    public int getInFlight() {
+        return flights.size();
+    }
+
+    /**
+     * A request that is being handled, and the identical requests that are waiting for its response
+     */
+    static final class Flight {
+
+        private List<HttpServerExchange> waiters = new ArrayList<>();
+        private Response response;
+
+        /**
+         *
+         * @return false if the flight has already completed, in which case the waiter should use {@link #getResponse()}
+         */
+        synchronized boolean addWaiter(HttpServerExchange exchange) {
+            if (waiters == null) {
+                return false;
+            }
+            waiters.add(exchange);
+            return true;
+        }
+
+        synchronized Response getResponse() {
+            return response;
+        }
+
+        /**
+         *
+         * @param response the shared response, or null if it could not be captured
+         * @return the waiting requests
+         */
+        synchronized List<HttpServerExchange> complete(Response response) {
+            List<HttpServerExchange> waiters = this.waiters;
+            this.waiters = null;
+            this.response = response;
+            return waiters == null ? Collections.<HttpServerExchange>emptyList() : waiters;
+        }
+    }
+
+    static final class Response {
+
+        final int status;
+        final HeaderMap headers;
+        final byte[] body;
+
+        Response(int status, HeaderMap headers, byte[] body) {
+            this.status = status;
+            this.headers = headers;
+            this.body = body;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.undertow.js;
+
+import java.util.Arrays;
+import java.util.Deque;
+
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.HeaderMap;
+import io.undertow.util.HeaderValues;
+import io.undertow.util.Headers;
+import io.undertow.util.HttpString;
+
+/**
+ * Works out which requests are considered identical when responses are shared between them.
+ * <p>
+ * The key is the scheme, host and port, the request path and the query string. If vary parameters are given only
+ * those query parameters are part of the key, and the values of any vary headers are always part of it.
+ * <p>
+ * Requests that carry a cookie or credentials are never considered identical to other requests, unless those headers
+ * are vary headers, as the response may be specific to the user.
+ */
+final class RequestKey {
+
+    private final HttpString[] varyHeaders;
+    private final String[] varyParams;
+    private final boolean varyCookie;
+    private final boolean varyAuthorization;
+
+    /**
+     * @param varyHeaders the request headers that are part of the key
+     * @param varyParams the query parameters that are part of the key, or null for the whole query string
+     */
+    RequestKey(String[] varyHeaders, String[] varyParams) {
+        this.varyHeaders = new HttpString[varyHeaders == null ? 0 : varyHeaders.length];
+        for (int i = 0; i < this.varyHeaders.length; ++i) {
+            this.varyHeaders[i] = new HttpString(varyHeaders[i]);
+        }
+        this.varyParams = varyParams;
+        this.varyCookie = Arrays.asList(this.varyHeaders).contains(Headers.COOKIE);
+        this.varyAuthorization = Arrays.asList(this.varyHeaders).contains(Headers.AUTHORIZATION);
+    }
+
+    /**
+     *
+     * @return true if the response to this request may be shared with other requests that have the same key
+     */
+    boolean isShareable(HttpServerExchange exchange) {
+        HeaderMap headers = exchange.getRequestHeaders();
+        return (varyCookie || !headers.contains(Headers.COOKIE)) && (varyAuthorization || !headers.contains(Headers.AUTHORIZATION));
+    }
+
+    String get(HttpServerExchange exchange) {
+        StringBuilder key = new StringBuilder(exchange.getRequestScheme())
+                .append("://")
+                .append(exchange.getHostAndPort())
+                .append(exchange.getRequestPath());
+        if (varyParams == null) {
+            if (!exchange.getQueryString().isEmpty()) {
+                key.append('?').append(exchange.getQueryString());
+            }
+        } else {
+            for (String param : varyParams) {
+                Deque<String> values = exchange.getQueryParameters().get(param);
+                key.append('\n').append(param).append('=');
+                if (values != null) {
+                    key.append(values);
+                }
+            }
+        }
+        for (HttpString header : varyHeaders) {
+            HeaderValues values = exchange.getRequestHeaders().get(header);
+            key.append('\n').append(header).append(':');
+            if (values != null) {
+                key.append(values);
+            }
+        }
+        return key.toString();
+    }
+}
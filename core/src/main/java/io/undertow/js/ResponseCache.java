@@ -0,0 +1,185 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.undertow.js;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.undertow.util.ETag;
+import io.undertow.util.HeaderMap;
+
+/**
+ * A bounded in memory cache of the encoded responses of a route. Entries are evicted in least recently used order
+ * once the total size of the cached responses exceeds the maximum size, and expire once their time to live has passed.
+ * <p>
+ * A single cache is shared by all execution contexts, and survives redeployment of the scripts, although its entries
+ * are discarded whenever the scripts change.
+ *
+ * @see ResponseCacheHandler
+ */
+public class ResponseCache {
+
+    private final String route;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private volatile long maxSize;
+    private long size;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong notModified = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    ResponseCache(String route, long maxSize) {
+        this.route = route;
+        this.maxSize = maxSize;
+    }
+
+    Entry get(String key) {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(key);
+            if (entry != null && entry.expires - System.nanoTime() < 0) {
+                remove(key);
+                entry = null;
+            }
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return entry;
+    }
+
+    void put(String key, Entry entry) {
+        if (entry.body.length > maxSize) {
+            return;
+        }
+        synchronized (this) {
+            Entry existing = entries.put(key, entry);
+            if (existing != null) {
+                size -= existing.body.length;
+            }
+            size += entry.body.length;
+            Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+            while (size > maxSize && it.hasNext()) {
+                size -= it.next().getValue().body.length;
+                it.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    void notModified() {
+        notModified.incrementAndGet();
+    }
+
+    void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    private void remove(String key) {
+        Entry existing = entries.remove(key);
+        if (existing != null) {
+            size -= existing.body.length;
+        }
+    }
+
+    /**
+     * Discards all cached responses
+     */
+    public synchronized void clear() {
+        entries.clear();
+        size = 0;
+    }
+
+    /**
+     *
+     * @return the route the cache belongs to
+     */
+    public String getRoute() {
+        return route;
+    }
+
+    /**
+     *
+     * @return the number of requests that were answered from the cache, including conditional requests answered with a 304
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     *
+     * @return the number of requests that had to be handled by the route
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     *
+     * @return the number of conditional requests that were answered with a 304
+     */
+    public long getNotModified() {
+        return notModified.get();
+    }
+
+    /**
+     *
+     * @return the number of responses that were evicted to keep the cache within its maximum size
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    /**
+     *
+     * @return the total size in bytes of the cached responses
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    static final class Entry {
+
+        final HeaderMap headers;
+        final byte[] body;
+        final ETag etag;
+        final long expires;
+
+        Entry(HeaderMap headers, byte[] body, ETag etag, long expires) {
+            this.headers = headers;
+            this.body = body;
+            this.etag = etag;
+            this.expires = expires;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.undertow.js;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.undertow.server.ExchangeCompletionListener;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.AttachmentKey;
+import io.undertow.util.ETag;
+import io.undertow.util.ETagUtils;
+import io.undertow.util.HeaderMap;
+import io.undertow.util.Headers;
+import io.undertow.util.Methods;
+import io.undertow.util.StatusCodes;
+
+/**
+ * Handler that answers GET requests from a {@link ResponseCache}, and otherwise captures the encoded response of the
+ * next handler as it is written and stores it in the cache.
+ * <p>
+ * Only complete 200 responses that do not set cookies are cached. Every response that may fill the cache is sent with
+ * a newly generated ETag, which cached responses are then served with, and conditional requests with a matching
+ * If-None-Match header are answered with a 304.
+ * <p>
+ * The cache key is the host, the request path and the query string, see {@link RequestKey}. Requests that carry a
+ * cookie or credentials that are not part of the key bypass the cache.
+ */
+public class ResponseCacheHandler implements HttpHandler {
+
+    /**
+     * Marks an exchange whose response is already being captured, as it can pass through the handler twice when it is
+     * dispatched
+     */
+    private static final AttachmentKey<Boolean> CAPTURING = AttachmentKey.create(Boolean.class);
+
+    /**
+     * ETags are only sent before the body is known, so they are unique rather than content based. The prefix keeps
+     * them unique across restarts.
+     */
+    private static final String ETAG_PREFIX = Long.toString(new Random().nextLong() & Long.MAX_VALUE, 36) + "-";
+    private static final AtomicLong ETAG_COUNTER = new AtomicLong();
+
+    private final HttpHandler next;
+    private final ResponseCache cache;
+    private final long ttl;
+    private final RequestKey key;
+
+    /**
+     * @param next the handler that produces the response
+     * @param cache the cache
+     * @param ttl the time to live of cached responses in milliseconds
+     * @param varyHeaders the request headers that are part of the cache key
+     * @param varyParams the query parameters that are part of the cache key, or null for the whole query string
+     */
+    public ResponseCacheHandler(HttpHandler next, ResponseCache cache, long ttl, String[] varyHeaders, String[] varyParams) {
+        this.next = next;
+        this.cache = cache;
+        this.ttl = ttl * 1000000;
+        this.key = new RequestKey(varyHeaders, varyParams);
+    }
+
+    @Override
+    public void handleRequest(HttpServerExchange exchange) throws Exception {
+        if (!exchange.getRequestMethod().equals(Methods.GET) || exchange.getAttachment(CAPTURING) != null || !key.isShareable(exchange)) {
+            next.handleRequest(exchange);
+            return;
+        }
+        final String key = this.key.get(exchange);
+        ResponseCache.Entry entry = cache.get(key);
+        if (entry != null) {
+            serve(exchange, entry);
+            return;
+        }
+        exchange.putAttachment(CAPTURING, Boolean.TRUE);
+        final ETag etag = new ETag(false, ETAG_PREFIX + Long.toString(ETAG_COUNTER.incrementAndGet(), 36));
+        exchange.getResponseHeaders().put(Headers.ETAG, etag.toString());
+        final ResponseCapture capture = new ResponseCapture(cache.getMaxSize());
+        exchange.addResponseWrapper(capture);
+        exchange.addExchangeCompleteListener(new ExchangeCompletionListener() {
+            @Override
+            public void exchangeEvent(HttpServerExchange exchange, NextListener nextListener) {
+                try {
+                    if (capture.isCaptured() && exchange.getStatusCode() == StatusCodes.OK
+                            && !exchange.getResponseHeaders().contains(Headers.SET_COOKIE)) {
+                        //the handler may have replaced the ETag, cached responses are served with the one that was sent
+                        ETag sent = ETagUtils.getETag(exchange);
+                        HeaderMap headers = ResponseCapture.replayableHeaders(exchange.getResponseHeaders());
+                        cache.put(key, new ResponseCache.Entry(headers, capture.getBody(), sent == null ? etag : sent, System.nanoTime() + ttl));
+                    }
+                } finally {
+                    nextListener.proceed();
+                }
+            }
+        });
+        next.handleRequest(exchange);
+    }
+
+    private void serve(HttpServerExchange exchange, ResponseCache.Entry entry) {
+        ResponseCapture.replay(entry.headers, exchange.getResponseHeaders());
+        exchange.getResponseHeaders().put(Headers.ETAG, entry.etag.toString());
+        if (!ETagUtils.handleIfNoneMatch(exchange, entry.etag, false)) {
+            cache.notModified();
+            exchange.setStatusCode(StatusCodes.NOT_MODIFIED);
+            exchange.endExchange();
+            return;
+        }
+        exchange.setResponseContentLength(entry.body.length);
+        exchange.getResponseSender().send(ByteBuffer.wrap(entry.body));
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.undertow.js;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import org.xnio.channels.StreamSourceChannel;
+import org.xnio.conduits.AbstractStreamSinkConduit;
+import org.xnio.conduits.Conduits;
+import org.xnio.conduits.StreamSinkConduit;
+
+import io.undertow.server.ConduitWrapper;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.ConduitFactory;
+import io.undertow.util.HeaderMap;
+import io.undertow.util.HeaderValues;
+import io.undertow.util.Headers;
+import io.undertow.util.HttpString;
+
+/**
+ * Captures the encoded response entity as it is written to the connection, so that it can be replayed to other
+ * requests. Responses that are larger than the maximum size, or that are transferred directly from a file, are not
+ * captured.
+ */
+final class ResponseCapture implements ConduitWrapper<StreamSinkConduit> {
+
+    /**
+     * Headers that describe the connection or the individual response, rather than the entity
+     */
+    private static final HttpString[] NOT_REPLAYED = {Headers.CONTENT_LENGTH, Headers.TRANSFER_ENCODING, Headers.CONNECTION, Headers.DATE, Headers.ETAG};
+
+    private final long maxSize;
+    private byte[] data = new byte[1024];
+    private int size;
+    private boolean complete;
+
+    ResponseCapture(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    @Override
+    public StreamSinkConduit wrap(ConduitFactory<StreamSinkConduit> factory, HttpServerExchange exchange) {
+        return new AbstractStreamSinkConduit<StreamSinkConduit>(factory.create()) {
+            @Override
+            public int write(ByteBuffer src) throws IOException {
+                int position = src.position();
+                int res = super.write(src);
+                capture(src, position, res);
+                return res;
+            }
+
+            @Override
+            public long write(ByteBuffer[] srcs, int offs, int len) throws IOException {
+                int[] positions = new int[len];
+                for (int i = 0; i < len; ++i) {
+                    positions[i] = srcs[offs + i].position();
+                }
+                long res = super.write(srcs, offs, len);
+                for (int i = 0; i < len; ++i) {
+                    capture(srcs[offs + i], positions[i], srcs[offs + i].position() - positions[i]);
+                }
+                return res;
+            }
+
+            @Override
+            public int writeFinal(ByteBuffer src) throws IOException {
+                return Conduits.writeFinalBasic(this, src);
+            }
+
+            @Override
+            public long writeFinal(ByteBuffer[] srcs, int offs, int len) throws IOException {
+                return Conduits.writeFinalBasic(this, srcs, offs, len);
+            }
+
+            @Override
+            public long transferFrom(FileChannel src, long position, long count) throws IOException {
+                //sent directly from the file, so it cannot be captured
+                data = null;
+                return super.transferFrom(src, position, count);
+            }
+
+            @Override
+            public long transferFrom(StreamSourceChannel source, long count, ByteBuffer throughBuffer) throws IOException {
+                data = null;
+                return super.transferFrom(source, count, throughBuffer);
+            }
+
+            @Override
+            public void terminateWrites() throws IOException {
+                //set first, as the exchange can complete while the next conduit is being terminated
+                complete = true;
+                try {
+                    super.terminateWrites();
+                } catch (IOException | RuntimeException e) {
+                    data = null;
+                    throw e;
+                }
+            }
+
+            @Override
+            public void truncateWrites() throws IOException {
+                data = null;
+                super.truncateWrites();
+            }
+        };
+    }
+
+    private void capture(ByteBuffer src, int position, int count) {
+        if (data == null || count <= 0) {
+            return;
+        }
+        if (size + count > maxSize) {
+            data = null;
+            return;
+        }
+        if (size + count > data.length) {
+            data = Arrays.copyOf(data, Math.max(data.length * 2, size + count));
+        }
+        ByteBuffer captured = src.duplicate();
+        captured.position(position);
+        captured.get(data, size, count);
+        size += count;
+    }
+
+    /**
+     *
+     * @return true if the complete response entity was captured
+     */
+    boolean isCaptured() {
+        return complete && data != null;
+    }
+
+    byte[] getBody() {
+        return Arrays.copyOf(data, size);
+    }
+
+    /**
+     *
+     * @return a copy of the response headers that can be replayed to other requests
+     */
+    static HeaderMap replayableHeaders(HeaderMap responseHeaders) {
+        HeaderMap headers = new HeaderMap();
+        for (HeaderValues values : responseHeaders) {
+            if (isReplayable(values.getHeaderName())) {
+                headers.addAll(values.getHeaderName(), values);
+            }
+        }
+        return headers;
+    }
+
+    /**
+     * Applies replayed headers to a response, replacing any values it already has
+     */
+    static void replay(HeaderMap headers, HeaderMap responseHeaders) {
+        for (HeaderValues values : headers) {
+            responseHeaders.putAll(values.getHeaderName(), values);
+        }
+    }
+
+    private static boolean isReplayable(HttpString header) {
+        for (HttpString name : NOT_REPLAYED) {
+            if (name.equals(header)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
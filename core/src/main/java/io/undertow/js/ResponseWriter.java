@@ -0,0 +1,351 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.undertow.js;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import org.xnio.ChannelListener;
+import org.xnio.IoUtils;
+import org.xnio.channels.StreamSinkChannel;
+
+import io.undertow.UndertowLogger;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.AttachmentKey;
+import io.undertow.util.SameThreadExecutor;
+
+/**
+ * Streams a response to the client as it is produced, instead of sending it in a single call once the handler is done.
+ * As the length is not known up front the response is normally sent with chunked encoding.
+ * <p>
+ * On a worker thread every call blocks until its data has been written, so the connection applies backpressure
+ * directly. On an IO thread data that cannot be written straight away is queued, and written out by a write listener
+ * once the connection is writable again. Once more than the maximum amount of data is queued {@link #write(ByteBuffer)}
+ * returns false, and the caller should wait for the callback registered with {@link #onDrain(Runnable)} before
+ * writing more.
+ * <p>
+ * The response is complete once the writer has been ended with {@link #end()}, which script handlers do automatically
+ * once the handler, or the future it returned, has completed.
+ */
+public class ResponseWriter {
+
+    public static final AttachmentKey<ResponseWriter> ATTACHMENT_KEY = AttachmentKey.create(ResponseWriter.class);
+
+    public static final int DEFAULT_MAX_BUFFERED = 64 * 1024;
+
+    private static final Runnable NOOP = new Runnable() {
+        @Override
+        public void run() {
+
+        }
+    };
+
+    private final HttpServerExchange exchange;
+    private final StreamSinkChannel channel;
+    private final int maxBuffered;
+    private final Deque<ByteBuffer> pending = new ArrayDeque<>();
+    private final List<Runnable> drainCallbacks = new ArrayList<>();
+    private final Runnable resumeTask = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (ResponseWriter.this) {
+                resumeScheduled = false;
+                if (!done && failure == null) {
+                    channel.resumeWrites();
+                }
+            }
+        }
+    };
+    private long pendingBytes;
+    private boolean flushRequested;
+    private boolean resumeScheduled;
+    private boolean ended;
+    private boolean done;
+    private IOException failure;
+
+    ResponseWriter(HttpServerExchange exchange, int maxBuffered) {
+        this.exchange = exchange;
+        this.maxBuffered = maxBuffered;
+        this.channel = exchange.getResponseChannel();
+        if (channel == null) {
+            throw UndertowScriptLogger.ROOT_LOGGER.responseChannelAlreadyInUse();
+        }
+        channel.getWriteSetter().set(new ChannelListener<StreamSinkChannel>() {
+            @Override
+            public void handleEvent(StreamSinkChannel channel) {
+                writeReady();
+            }
+        });
+    }
+
+    /**
+     * Returns the writer of the given exchange, creating it on first use.
+     *
+     * @throws IllegalStateException if the response channel has already been obtained by something else
+     */
+    public static ResponseWriter get(HttpServerExchange exchange) {
+        ResponseWriter writer = exchange.getAttachment(ATTACHMENT_KEY);
+        if (writer == null) {
+            writer = new ResponseWriter(exchange, DEFAULT_MAX_BUFFERED);
+            exchange.putAttachment(ATTACHMENT_KEY, writer);
+        }
+        return writer;
+    }
+
+    public boolean write(String data) throws IOException {
+        return write(ByteBuffer.wrap(data.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    public boolean write(byte[] data) throws IOException {
+        return write(ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Writes the given data, which must not be modified afterwards.
+     *
+     * @return false if the caller is on an IO thread and should wait for the queue to drain before writing more
+     */
+    public boolean write(ByteBuffer data) throws IOException {
+        synchronized (this) {
+            checkWritable();
+            pending.add(data);
+            pendingBytes += data.remaining();
+            try {
+                if (writePending()) {
+                    return true;
+                }
+            } catch (IOException e) {
+                throw failed(e);
+            }
+            if (isIoThread()) {
+                resume();
+                return pendingBytes <= maxBuffered;
+            }
+        }
+        awaitWritten(false);
+        return true;
+    }
+
+    /**
+     * Flushes the data that has been written so far. On a worker thread this blocks until the data has been flushed.
+     */
+    public void flush() throws IOException {
+        synchronized (this) {
+            checkWritable();
+            try {
+                if (writePending() && channel.flush()) {
+                    return;
+                }
+            } catch (IOException e) {
+                throw failed(e);
+            }
+            if (isIoThread()) {
+                flushRequested = true;
+                resume();
+                return;
+            }
+        }
+        awaitWritten(true);
+    }
+
+    /**
+     * Ends the response once all the data that has been written has been sent. Calling this more than once has no effect.
+     */
+    public void end() throws IOException {
+        synchronized (this) {
+            if (failure != null) {
+                throw failure;
+            }
+            if (ended) {
+                return;
+            }
+            ended = true;
+            try {
+                done = writePending() && shutdown();
+            } catch (IOException e) {
+                throw failed(e);
+            }
+            if (!done && isIoThread()) {
+                resume();
+                return;
+            }
+        }
+        if (!done) {
+            awaitWritten(true);
+        }
+        exchange.endExchange();
+    }
+
+    /**
+     * Registers a callback that is invoked once the queued data has drained below the maximum. If the queue is already
+     * below the maximum the callback is invoked immediately.
+     */
+    public void onDrain(Runnable callback) {
+        synchronized (this) {
+            if (pendingBytes > maxBuffered) {
+                drainCallbacks.add(callback);
+                return;
+            }
+        }
+        callback.run();
+    }
+
+    public synchronized boolean isEnded() {
+        return ended;
+    }
+
+    /**
+     * Writes out the queued data without blocking
+     *
+     * @return true if all the data has been written
+     */
+    private boolean writePending() throws IOException {
+        while (!pending.isEmpty()) {
+            ByteBuffer buffer = pending.peek();
+            pendingBytes -= channel.write(buffer);
+            if (buffer.hasRemaining()) {
+                return false;
+            }
+            pending.poll();
+        }
+        return true;
+    }
+
+    private boolean shutdown() throws IOException {
+        channel.shutdownWrites();
+        return channel.flush();
+    }
+
+    /**
+     * Blocks until the queued data has been written, and also flushed if requested or if the writer has been ended
+     */
+    private void awaitWritten(boolean flush) throws IOException {
+        for (;;) {
+            synchronized (this) {
+                if (failure != null) {
+                    throw failure;
+                }
+                try {
+                    if (writePending()) {
+                        if (ended) {
+                            if (done || (done = shutdown())) {
+                                return;
+                            }
+                        } else if (!flush || channel.flush()) {
+                            return;
+                        }
+                    }
+                } catch (IOException e) {
+                    throw failed(e);
+                }
+            }
+            try {
+                channel.awaitWritable();
+            } catch (IOException e) {
+                synchronized (this) {
+                    throw failed(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Resumes the write listener. Writes cannot be resumed while the exchange is in a handler call that may also
+     * dispatch it, so this is done from a separate task on the IO thread. The exchange is dispatched so that it is
+     * not ended when the handler call returns.
+     */
+    private void resume() {
+        if (resumeScheduled) {
+            return;
+        }
+        resumeScheduled = true;
+        exchange.dispatch(SameThreadExecutor.INSTANCE, NOOP);
+        exchange.getIoThread().execute(resumeTask);
+    }
+
+    private void writeReady() {
+        List<Runnable> callbacks = null;
+        boolean complete = false;
+        synchronized (this) {
+            if (failure != null || done) {
+                channel.suspendWrites();
+                return;
+            }
+            try {
+                if (writePending()) {
+                    if (ended) {
+                        complete = done = shutdown();
+                    } else if (!flushRequested || channel.flush()) {
+                        flushRequested = false;
+                        channel.suspendWrites();
+                    }
+                }
+            } catch (IOException e) {
+                failed(e);
+                return;
+            }
+            if (complete) {
+                channel.suspendWrites();
+            }
+            if (pendingBytes <= maxBuffered && !drainCallbacks.isEmpty()) {
+                callbacks = new ArrayList<>(drainCallbacks);
+                drainCallbacks.clear();
+            }
+        }
+        if (complete) {
+            exchange.endExchange();
+        }
+        if (callbacks != null) {
+            for (Runnable callback : callbacks) {
+                callback.run();
+            }
+        }
+    }
+
+    private void checkWritable() throws IOException {
+        if (failure != null) {
+            throw failure;
+        }
+        if (ended) {
+            throw UndertowScriptLogger.ROOT_LOGGER.responseWriterEnded();
+        }
+    }
+
+    private IOException failed(IOException e) {
+        if (failure != null) {
+            return failure;
+        }
+        failure = e;
+        pending.clear();
+        pendingBytes = 0;
+        UndertowLogger.REQUEST_IO_LOGGER.ioException(e);
+        IoUtils.safeClose(exchange.getConnection());
+        return e;
+    }
+
+    private boolean isIoThread() {
+        return exchange.getIoThread() == Thread.currentThread();
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.js;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the warm-up tasks of the routes that opted in with the <code>warmup</code> option. Each task sends a synthetic
+ * request through the route handler, so the handler and its call sites have been compiled by the time the first real
+ * request arrives.
+ */
+final class RouteWarmup {
+
+    private RouteWarmup() {
+
+    }
+
+    /**
+     *
+     * @param context the execution context to warm up
+     * @param owners the scripts whose routes should be warmed up, or null for all scripts
+     * @param iterations the number of synthetic requests to send through each route
+     * @return the average latency in nanoseconds of each route over the final tenth of the iterations
+     */
+    static Map<String, Long> run(ExecutionContext context, Collection<String> owners, int iterations) {
+        Map<String, Long> latencies = new LinkedHashMap<>();
+        if (iterations <= 0) {
+            return latencies;
+        }
+        int measured = Math.max(1, iterations / 10);
+        for (ScriptRegistrations.Warmup warmup : context.getSupport().getRegistrations().getWarmups(owners)) {
+            long total = 0;
+            try {
+                for (int i = 0; i < iterations; ++i) {
+                    long start = System.nanoTime();
+                    warmup.task.run();
+                    if (i >= iterations - measured) {
+                        total += System.nanoTime() - start;
+                    }
+                }
+            } catch (RuntimeException e) {
+                UndertowScriptLogger.ROOT_LOGGER.warmupFailed(warmup.route, e);
+                continue;
+            }
+            long latency = total / measured;
+            latencies.put(warmup.route, latency);
+            UndertowScriptLogger.ROOT_LOGGER.routeWarmedUp(warmup.route, TimeUnit.NANOSECONDS.toMicros(latency));
+        }
+        return latencies;
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.js;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptEngine;
+import javax.script.ScriptException;
+
+/**
+ * Cache of compiled scripts, keyed by resource path and content hash. Scripts that have not changed
+ * since they were last compiled are not parsed again when the engine is rebuilt.
+ * <p>
+ * Compiled scripts are only valid for the engine that compiled them, so the cache must not be shared
+ * between engines.
+ */
+public final class ScriptCache {
+
+    private final Map<String, Entry> cache = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    CompiledScript compile(ScriptEngine engine, String path, String contents) throws ScriptException {
+        byte[] hash = hash(contents);
+        Entry existing = cache.get(path);
+        if (existing != null && Arrays.equals(existing.hash, hash)) {
+            hits.incrementAndGet();
+            return existing.script;
+        }
+        misses.incrementAndGet();
+        engine.put(ScriptEngine.FILENAME, path);
+        CompiledScript script = ((Compilable) engine).compile(contents);
+        cache.put(path, new Entry(hash, script));
+        return script;
+    }
+
+    void clear() {
+        cache.clear();
+    }
+
+    /**
+     *
+     * @return the number of scripts that were served from the cache
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     *
+     * @return the number of scripts that had to be compiled
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    private static byte[] hash(String contents) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(contents.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static final class Entry {
+        final byte[] hash;
+        final CompiledScript script;
+
+        Entry(byte[] hash, CompiledScript script) {
+            this.hash = hash;
+            this.script = script;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.js;
+
+import java.io.File;
+
+import javax.script.ScriptEngine;
+import javax.script.ScriptException;
+
+/**
+ * Provider interface that creates and configures the script engine used by a deployment.
+ * <p>
+ * A single engine is created per deployment. Scripts are compiled once by the engine and the compiled code is
+ * evaluated against every execution context, so the engine must implement {@link javax.script.Compilable}
+ * and must return isolated globals from {@link ScriptEngine#createBindings()}.
+ */
+public interface ScriptEngineProvider {
+
+    /**
+     *
+     * @return the name of the engine backend, used in log messages
+     */
+    String getName();
+
+    /**
+     *
+     * @param classLoader the class loader that scripts use to resolve java types
+     * @param codeCacheDirectory the directory to persist compiled code in, or null if no on-disk cache should be used
+     * @return a new engine, or null if this backend is not available
+     */
+    ScriptEngine createEngine(ClassLoader classLoader, File codeCacheDirectory) throws ScriptException;
+}
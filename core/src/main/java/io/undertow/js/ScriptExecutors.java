@@ -0,0 +1,135 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.js;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.undertow.server.Connectors;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.SameThreadExecutor;
+import io.undertow.util.StatusCodes;
+
+/**
+ * Factory methods for executors that script handlers can be dispatched to, see {@link UndertowJS.Builder#setDefaultExecutor(java.util.concurrent.Executor)}.
+ * <p>
+ * The caller owns the returned executors, and is responsible for shutting them down. If an executor rejects a
+ * request that is dispatched to it the request is answered with a 503.
+ */
+public final class ScriptExecutors {
+
+    /**
+     * The number of tasks a {@link #bounded(String, int)} executor queues once all its threads are busy
+     */
+    public static final int DEFAULT_QUEUE_SIZE = 1024;
+
+    private ScriptExecutors() {
+
+    }
+
+    /**
+     * Creates an executor that runs every task on a new virtual thread. Blocking handlers then only hold a carrier
+     * thread while they are actually running.
+     *
+     * @throws IllegalStateException if the JVM does not support virtual threads
+     */
+    public static ExecutorService virtualThreads() {
+        try {
+            //looked up reflectively, so we can still run on older JVMs
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw UndertowScriptLogger.ROOT_LOGGER.virtualThreadsNotSupported(e);
+        }
+    }
+
+    /**
+     * Creates a dedicated pool with a fixed number of daemon threads, that queues up to {@link #DEFAULT_QUEUE_SIZE}
+     * tasks once all threads are busy.
+     *
+     * @param name the prefix of the thread names
+     * @param threads the number of threads
+     */
+    public static ExecutorService bounded(String name, int threads) {
+        return bounded(name, threads, DEFAULT_QUEUE_SIZE);
+    }
+
+    /**
+     * Creates a dedicated pool with a fixed number of daemon threads. Tasks queue once all threads are busy, and once
+     * the queue is full as well further tasks are rejected.
+     *
+     * @param name the prefix of the thread names
+     * @param threads the number of threads
+     * @param queueSize the number of tasks that may wait for a thread, which may be 0
+     */
+    public static ExecutorService bounded(final String name, int threads, int queueSize) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads");
+        }
+        if (queueSize < 0) {
+            throw new IllegalArgumentException("queueSize");
+        }
+        BlockingQueue<Runnable> queue = queueSize == 0 ? new SynchronousQueue<Runnable>() : new ArrayBlockingQueue<Runnable>(queueSize);
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, queue, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Dispatches an exchange to an executor. Unlike {@link HttpServerExchange#dispatch(Executor, HttpHandler)}, which
+     * ends the exchange with a 500 if the executor rejects it, the exchange is ended with a 503.
+     */
+    public static void dispatch(final HttpServerExchange exchange, final Executor executor, final HttpHandler handler) {
+        //the task is run once the current handler call has returned
+        exchange.dispatch(SameThreadExecutor.INSTANCE, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    executor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            Connectors.executeRootHandler(handler, exchange);
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    exchange.setStatusCode(StatusCodes.SERVICE_UNAVAILABLE);
+                    exchange.endExchange();
+                }
+            }
+        });
+    }
+}
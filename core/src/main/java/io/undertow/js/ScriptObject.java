@@ -0,0 +1,208 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.undertow.js;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Map;
+
+/**
+ * The public API of the script objects of a specific script engine. Script objects are only accessed through this
+ * API, which is looked up reflectively so we are not tied to a specific Nashorn implementation.
+ */
+final class ScriptObject {
+
+    private static final String[] PACKAGES = {"jdk.nashorn.api.scripting.", "org.openjdk.nashorn.api.scripting."};
+
+    private static final ClassValue<ScriptObject> TYPES = new ClassValue<ScriptObject>() {
+        @Override
+        protected ScriptObject computeValue(Class<?> type) {
+            try {
+                MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+                Class<?> jsObject = Class.forName(type.getPackage().getName() + ".JSObject", false, type.getClassLoader());
+                MethodHandle getOwnKeys = null;
+                if (isScriptObject(type)) {
+                    getOwnKeys = lookup.findVirtual(type, "getOwnKeys", MethodType.methodType(String[].class, boolean.class));
+                }
+                return new ScriptObject(jsObject,
+                        lookup.findVirtual(jsObject, "isArray", MethodType.methodType(boolean.class)),
+                        lookup.findVirtual(jsObject, "isFunction", MethodType.methodType(boolean.class)),
+                        lookup.findVirtual(jsObject, "getSlot", MethodType.methodType(Object.class, int.class)),
+                        lookup.findVirtual(jsObject, "getMember", MethodType.methodType(Object.class, String.class)),
+                        lookup.findVirtual(jsObject, "call", MethodType.methodType(Object.class, Object.class, Object[].class)),
+                        lookup.findVirtual(jsObject, "getClassName", MethodType.methodType(String.class)),
+                        getOwnKeys);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
+    private final Class<?> jsObject;
+    private final MethodHandle isArray;
+    private final MethodHandle isFunction;
+    private final MethodHandle getSlot;
+    private final MethodHandle getMember;
+    private final MethodHandle call;
+    private final MethodHandle getClassName;
+    private final MethodHandle getOwnKeys;
+
+    private ScriptObject(Class<?> jsObject, MethodHandle isArray, MethodHandle isFunction, MethodHandle getSlot, MethodHandle getMember, MethodHandle call, MethodHandle getClassName, MethodHandle getOwnKeys) {
+        this.jsObject = jsObject;
+        this.isArray = isArray;
+        this.isFunction = isFunction;
+        this.getSlot = getSlot;
+        this.getMember = getMember;
+        this.call = call;
+        this.getClassName = getClassName;
+        this.getOwnKeys = getOwnKeys;
+    }
+
+    static ScriptObject forClass(Class<?> type) {
+        return TYPES.get(type);
+    }
+
+    static boolean isScriptObject(Class<?> type) {
+        for (String pkg : PACKAGES) {
+            if (type.getName().equals(pkg + "ScriptObjectMirror")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static boolean isUndefined(Class<?> type) {
+        return type.getName().endsWith(".internal.runtime.Undefined");
+    }
+
+    boolean isArray(Object value) {
+        try {
+            return (boolean) isArray.invoke(value);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    boolean isFunction(Object value) {
+        try {
+            return (boolean) isFunction.invoke(value);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    /**
+     *
+     * @return true if the value is a script function, which are left out of the JSON
+     */
+    boolean isFunctionValue(Object value) {
+        return jsObject.isInstance(value) && isFunction(value);
+    }
+
+    /**
+     *
+     * @return the script class of the object, such as Object, Array or Date
+     */
+    String getClassName(Object value) {
+        try {
+            return (String) getClassName.invoke(value);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    int getLength(Object value) {
+        return ((Number) ((Map<?, ?>) value).get("length")).intValue();
+    }
+
+    /**
+     *
+     * @return the names of the object's own enumerable properties. Unlike the keys of the map view this leaves out
+     * inherited properties, which <code>JSON.stringify</code> does not write.
+     */
+    String[] getOwnKeys(Object value) {
+        if (getOwnKeys == null) {
+            return ((Map<?, ?>) value).keySet().toArray(new String[0]);
+        }
+        try {
+            return (String[]) getOwnKeys.invoke(value, false);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    /**
+     *
+     * @return the value of the property, which unlike the map view returns <code>undefined</code> rather than null
+     * for properties that hold <code>undefined</code>
+     */
+    Object getMember(Object value, String name) {
+        try {
+            return getMember.invoke(value, name);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    /**
+     * Calls a function of the object without any arguments
+     */
+    Object callMember(Object value, String name) {
+        try {
+            return call.invoke(getMember.invoke(value, name), value, new Object[0]);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    Object getSlot(Object value, int index) {
+        try {
+            return getSlot.invoke(value, index);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    /**
+     *
+     * @return the result of the object's toJSON function, or the object itself if it does not have one
+     */
+    Object toJson(Object value) {
+        try {
+            Object toJson = getMember.invoke(value, "toJSON");
+            if (toJson == null || !jsObject.isInstance(toJson) || !isFunction(toJson)) {
+                return value;
+            }
+            return call.invoke(toJson, value, new Object[]{""});
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    private static RuntimeException rethrow(Throwable t) {
+        if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        } else if (t instanceof Error) {
+            throw (Error) t;
+        }
+        throw new IllegalStateException(t);
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.js;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.undertow.predicate.Predicate;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.RoutingHandler;
+import io.undertow.util.HttpString;
+import io.undertow.util.Methods;
+import io.undertow.websockets.WebSocketConnectionCallback;
+import io.undertow.websockets.WebSocketProtocolHandshakeHandler;
+
+/**
+ * Records the routes, websockets and warm-up tasks registered by each script of an execution context, and builds
+ * the routing handlers from them once all scripts have been evaluated.
+ */
+final class ScriptRegistrations {
+
+    private final HttpHandler fallbackHandler;
+    private final Map<String, Registrations> scripts = new LinkedHashMap<>();
+    private Registrations current = new Registrations();
+    private volatile RoutingHandler routingHandler;
+
+    ScriptRegistrations(HttpHandler fallbackHandler) {
+        this.fallbackHandler = fallbackHandler;
+    }
+
+    /**
+     * Starts recording registrations for the given script
+     */
+    synchronized void begin(String script) {
+        current = new Registrations();
+        scripts.put(script, current);
+    }
+
+    synchronized void addRoute(HttpString method, String path, Predicate predicate, HttpHandler handler) {
+        current.routes.add(new Route(method, path, predicate, handler));
+    }
+
+    synchronized void addWebsocket(String path, WebSocketConnectionCallback callback) {
+        current.websockets.add(new Websocket(path, callback));
+    }
+
+    synchronized void addWarmup(String route, Runnable task) {
+        current.warmups.add(new Warmup(route, task));
+    }
+
+    /**
+     *
+     * @param owners the scripts to return the warm-up tasks of, or null for all scripts
+     * @return the warm-up tasks, in registration order
+     */
+    synchronized List<Warmup> getWarmups(Collection<String> owners) {
+        List<Warmup> warmups = new ArrayList<>();
+        for (Map.Entry<String, Registrations> entry : scripts.entrySet()) {
+            if (owners == null || owners.contains(entry.getKey())) {
+                warmups.addAll(entry.getValue().warmups);
+            }
+        }
+        return warmups;
+    }
+
+    /**
+     *
+     * @return the paths of all registered websocket endpoints
+     */
+    synchronized List<String> getWebsocketPaths() {
+        List<String> paths = new ArrayList<>();
+        for (Registrations registrations : scripts.values()) {
+            for (Websocket websocket : registrations.websockets) {
+                paths.add(websocket.path);
+            }
+        }
+        return paths;
+    }
+
+    RoutingHandler getRoutingHandler() {
+        return routingHandler;
+    }
+
+    /**
+     * Builds new routing handlers from the current registrations.
+     *
+     * @return the root handler of the script deployment
+     */
+    synchronized HttpHandler buildHandler() {
+        RoutingHandler routingHandler = new RoutingHandler(true);
+        routingHandler.setFallbackHandler(fallbackHandler);
+        RoutingHandler wsRoutingHandler = new RoutingHandler(false);
+        wsRoutingHandler.setFallbackHandler(routingHandler);
+        for (Registrations registrations : scripts.values()) {
+            for (Route route : registrations.routes) {
+                if (route.predicate == null) {
+                    routingHandler.add(route.method, route.path, route.handler);
+                } else {
+                    routingHandler.add(route.method, route.path, route.predicate, route.handler);
+                }
+            }
+            for (Websocket websocket : registrations.websockets) {
+                wsRoutingHandler.add(Methods.GET, websocket.path, new WebSocketProtocolHandshakeHandler(websocket.callback, routingHandler));
+            }
+        }
+        this.routingHandler = routingHandler;
+        return wsRoutingHandler;
+    }
+
+    private static final class Registrations {
+        final List<Route> routes = new ArrayList<>();
+        final List<Websocket> websockets = new ArrayList<>();
+        final List<Warmup> warmups = new ArrayList<>();
+    }
+
+    private static final class Route {
+        final HttpString method;
+        final String path;
+        final Predicate predicate;
+        final HttpHandler handler;
+
+        Route(HttpString method, String path, Predicate predicate, HttpHandler handler) {
+            this.method = method;
+            this.path = path;
+            this.predicate = predicate;
+            this.handler = handler;
+        }
+    }
+
+    static final class Warmup {
+        final String route;
+        final Runnable task;
+
+        Warmup(String route, Runnable task) {
+            this.route = route;
+            this.task = task;
+        }
+    }
+
+    private static final class Websocket {
+        final String path;
+        final WebSocketConnectionCallback callback;
+
+        Websocket(String path, WebSocketConnectionCallback callback) {
+            this.path = path;
+            this.callback = callback;
+        }
+    }
+}
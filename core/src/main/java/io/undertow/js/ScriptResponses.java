@@ -0,0 +1,265 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.undertow.js;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.xnio.IoUtils;
+
+import io.undertow.connector.PooledByteBuffer;
+import io.undertow.io.IoCallback;
+import io.undertow.io.Sender;
+import io.undertow.server.ExchangeCompletionListener;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.resource.Resource;
+import io.undertow.util.HeaderMap;
+import io.undertow.util.Headers;
+import io.undertow.util.MimeMappings;
+
+/**
+ * Sends file based and JSON responses for script handlers. The file contents are transferred by the connection, using
+ * sendfile where it is supported, so they never pass through the script heap.
+ * <p>
+ * The Content-Length and Content-Type headers are set from the file, unless the handler has already set them.
+ * JSON is encoded into buffers from the connection's pool, and streamed if it is large.
+ */
+public final class ScriptResponses {
+
+    private ScriptResponses() {
+
+    }
+
+    public static void transferFile(final HttpServerExchange exchange, Path path) throws IOException {
+        final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            HeaderMap headers = exchange.getResponseHeaders();
+            if (!headers.contains(Headers.CONTENT_LENGTH)) {
+                exchange.setResponseContentLength(channel.size());
+            }
+            if (!headers.contains(Headers.CONTENT_TYPE)) {
+                String type = contentType(path.getFileName() == null ? null : path.getFileName().toString());
+                if (type != null) {
+                    headers.put(Headers.CONTENT_TYPE, type);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            IoUtils.safeClose(channel);
+            throw e;
+        }
+        exchange.getResponseSender().transferFrom(channel, new IoCallback() {
+            @Override
+            public void onComplete(HttpServerExchange exchange, Sender sender) {
+                IoUtils.safeClose(channel);
+                IoCallback.END_EXCHANGE.onComplete(exchange, sender);
+            }
+
+            @Override
+            public void onException(HttpServerExchange exchange, Sender sender, IOException exception) {
+                IoUtils.safeClose(channel);
+                IoCallback.END_EXCHANGE.onException(exchange, sender, exception);
+            }
+        });
+    }
+
+    public static void serveResource(HttpServerExchange exchange, Resource resource) throws IOException {
+        if (!resource.isDirectory() && resource.getFilePath() != null) {
+            transferFile(exchange, resource.getFilePath());
+            return;
+        }
+        HeaderMap headers = exchange.getResponseHeaders();
+        if (!headers.contains(Headers.CONTENT_LENGTH)) {
+            Long length = resource.getContentLength();
+            if (length != null) {
+                exchange.setResponseContentLength(length);
+            }
+        }
+        if (!headers.contains(Headers.CONTENT_TYPE)) {
+            String type = resource.getContentType(MimeMappings.DEFAULT);
+            if (type != null) {
+                headers.put(Headers.CONTENT_TYPE, type);
+            }
+        }
+        resource.serve(exchange.getResponseSender(), exchange, IoCallback.END_EXCHANGE);
+    }
+
+    /**
+     * Sends a value as JSON. The JSON is encoded into a single buffer from the connection's pool, and if it fits it is
+     * sent with a Content-Length. Larger values are streamed with chunked encoding, reusing the same buffer as the
+     * connection drains, so the memory used does not depend on the size of the response.
+     * <p>
+     * On a worker thread streaming blocks. On an IO thread the buffers are queued, and the encoding pauses once more
+     * than the response writer's maximum is queued, until the writer resumes it once it has drained.
+     */
+    public static void sendJson(final HttpServerExchange exchange, final Object value, final UndertowJS.JavabeanIntrospector introspector) throws IOException {
+        final JsonStream stream = new JsonStream(exchange);
+        try {
+            JsonWriter writer = new JsonWriter(introspector, stream);
+            if (writer.write(value)) {
+                stream.complete();
+            } else {
+                stream.resumeOnDrain(writer);
+            }
+        } catch (IOException | RuntimeException e) {
+            stream.close();
+            throw e;
+        }
+    }
+
+    private static String contentType(String name) {
+        if (name == null) {
+            return null;
+        }
+        int index = name.lastIndexOf('.');
+        if (index < 0) {
+            return null;
+        }
+        return MimeMappings.DEFAULT.getMimeType(name.substring(index + 1));
+    }
+
+    /**
+     * Output for the JSON writer that sends every buffer that fills up to the client
+     */
+    private static final class JsonStream implements JsonWriter.Output {
+
+        private final HttpServerExchange exchange;
+        private final PooledByteBuffer pooled;
+        private ResponseWriter writer;
+        private boolean paused;
+        private boolean closed;
+
+        JsonStream(HttpServerExchange exchange) {
+            this.exchange = exchange;
+            this.pooled = exchange.getConnection().getByteBufferPool().allocate();
+        }
+
+        @Override
+        public ByteBuffer next(ByteBuffer full) throws IOException {
+            if (full == null) {
+                return pooled.getBuffer();
+            }
+            if (writer == null) {
+                //not attached to the exchange, as script handlers end the attached writer when they return, and the
+                //response is not complete until the encoding has finished
+                writer = new ResponseWriter(exchange, ResponseWriter.DEFAULT_MAX_BUFFERED);
+            }
+            full.flip();
+            paused = !write(full);
+            full.clear();
+            return full;
+        }
+
+        /**
+         *
+         * @return false if the response writer is behind and encoding should pause
+         */
+        private boolean write(ByteBuffer data) throws IOException {
+            if (exchange.isInIoThread()) {
+                //the writer queues the data on an IO thread, so it is given a copy and the buffer can be reused
+                ByteBuffer copy = ByteBuffer.allocate(data.remaining());
+                copy.put(data).flip();
+                return writer.write(copy);
+            }
+            //on a worker thread this blocks until the buffer has been written, so it can be reused straight away
+            writer.write(data);
+            return true;
+        }
+
+        @Override
+        public boolean isPaused() {
+            return paused;
+        }
+
+        /**
+         * Continues encoding once the response writer has drained. The buffer is released if the exchange completes
+         * before that happens.
+         */
+        void resumeOnDrain(final JsonWriter json) {
+            exchange.addExchangeCompleteListener(new ExchangeCompletionListener() {
+                @Override
+                public void exchangeEvent(HttpServerExchange exchange, NextListener nextListener) {
+                    close();
+                    nextListener.proceed();
+                }
+            });
+            writer.onDrain(new Runnable() {
+                @Override
+                public void run() {
+                    if (closed) {
+                        return;
+                    }
+                    paused = false;
+                    try {
+                        if (json.resume()) {
+                            complete();
+                        } else {
+                            writer.onDrain(this);
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        //the response has already started, so all that can be done is to drop the connection
+                        close();
+                        UndertowScriptLogger.ROOT_LOGGER.failedToSendJson(e);
+                        IoUtils.safeClose(exchange.getConnection());
+                    }
+                }
+            });
+        }
+
+        void complete() throws IOException {
+            ByteBuffer buffer = pooled.getBuffer();
+            buffer.flip();
+            if (writer != null) {
+                try {
+                    write(buffer);
+                    writer.end();
+                } finally {
+                    close();
+                }
+                return;
+            }
+            if (!exchange.getResponseHeaders().contains(Headers.CONTENT_LENGTH)) {
+                exchange.setResponseContentLength(buffer.remaining());
+            }
+            exchange.getResponseSender().send(buffer, new IoCallback() {
+                @Override
+                public void onComplete(HttpServerExchange exchange, Sender sender) {
+                    close();
+                    IoCallback.END_EXCHANGE.onComplete(exchange, sender);
+                }
+
+                @Override
+                public void onException(HttpServerExchange exchange, Sender sender, IOException exception) {
+                    close();
+                    IoCallback.END_EXCHANGE.onException(exchange, sender, exception);
+                }
+            });
+        }
+
+        void close() {
+            if (!closed) {
+                closed = true;
+                pooled.close();
+            }
+        }
+    }
+}
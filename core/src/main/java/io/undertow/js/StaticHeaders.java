@@ -0,0 +1,61 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.undertow.js;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.HeaderMap;
+import io.undertow.util.Headers;
+import io.undertow.util.HttpString;
+
+/**
+ * The fixed response headers of a route. The header names are resolved once when the route is registered, using
+ * the shared {@link Headers} constants where possible, so applying them to a response does not allocate.
+ */
+public final class StaticHeaders {
+
+    private final HttpString[] names;
+    private final String[] values;
+
+    public StaticHeaders(Map<String, ?> headers) {
+        HttpString[] names = new HttpString[headers.size()];
+        String[] values = new String[headers.size()];
+        int i = 0;
+        for (Map.Entry<String, ?> entry : headers.entrySet()) {
+            if (entry.getValue() == null) {
+                continue;
+            }
+            HttpString name = Headers.fromCache(entry.getKey());
+            names[i] = name == null ? new HttpString(entry.getKey()) : name;
+            values[i++] = entry.getValue().toString();
+        }
+        this.names = Arrays.copyOf(names, i);
+        this.values = Arrays.copyOf(values, i);
+    }
+
+    public void apply(HttpServerExchange exchange) {
+        HeaderMap headers = exchange.getResponseHeaders();
+        for (int i = 0; i < names.length; ++i) {
+            headers.put(names[i], values[i]);
+        }
+    }
+}
@@ -18,15 +18,11 @@
 
 package io.undertow.js;
 
-import io.undertow.UndertowLogger;
-import io.undertow.server.Connectors;
+import java.nio.charset.StandardCharsets;
+
 import io.undertow.server.HttpHandler;
 import io.undertow.server.HttpServerExchange;
 import io.undertow.util.AttachmentKey;
-import io.undertow.util.SameThreadExecutor;
-import io.undertow.util.StringReadChannelListener;
-
-import java.io.IOException;
 
 /**
  * Handler that reads the entity body and attaches it to the exchange as a UTF-8 string
@@ -34,44 +30,20 @@ import java.io.IOException;
  *
  * @author Stuart Douglas
  */
-public class StringReadHandler implements HttpHandler {
+public class StringReadHandler extends EntityReadHandler {
 
     public static final AttachmentKey<String> DATA = AttachmentKey.create(String.class);
 
-    private final HttpHandler next;
-
-
     public StringReadHandler(HttpHandler next) {
-        this.next = next;
+        this(next, -1);
     }
 
-    @Override
-    public void handleRequest(final HttpServerExchange exchange) throws Exception {
-        if(!exchange.isRequestComplete()) {
-            exchange.dispatch(SameThreadExecutor.INSTANCE, new Runnable() {
-                @Override
-                public void run() {
-                    new StringReadChannelListener(exchange.getConnection().getBufferPool()) {
-                        @Override
-                        protected void stringDone(String string) {
-                            exchange.putAttachment(DATA, string);
-                            Connectors.executeRootHandler(next, exchange);
-                        }
-
-                        @Override
-                        protected void error(IOException e) {
-                            UndertowLogger.REQUEST_IO_LOGGER.ioException(e);
-                            exchange.setResponseCode(500);
-                            exchange.endExchange();
-                        }
-                    }.setup(exchange.getRequestChannel());
-                }
-            });
-
-        } else {
-            next.handleRequest(exchange);
-        }
-
+    public StringReadHandler(HttpHandler next, long maxEntitySize) {
+        super(next, maxEntitySize);
+    }
 
+    @Override
+    protected void entityRead(HttpServerExchange exchange, byte[] data, int length) {
+        exchange.putAttachment(DATA, new String(data, 0, length, StandardCharsets.UTF_8));
     }
 }
@@ -21,7 +21,13 @@ package io.undertow.js;
 import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.File;
+import java.lang.ref.WeakReference;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
@@ -32,29 +38,48 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
-
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import javax.script.Bindings;
+import javax.script.CompiledScript;
 import javax.script.ScriptEngine;
 import javax.script.ScriptEngineManager;
 import javax.script.ScriptException;
 
+import io.undertow.js.providers.nashorn.NashornScriptEngineProvider;
 import io.undertow.js.templates.TemplateProvider;
+import io.undertow.predicate.Predicate;
+import io.undertow.server.ExchangeCompletionListener;
 import io.undertow.server.HandlerWrapper;
 import io.undertow.server.HttpHandler;
 import io.undertow.server.HttpServerExchange;
 import io.undertow.server.RoutingHandler;
 import io.undertow.server.handlers.resource.Resource;
+import io.undertow.server.handlers.resource.ResourceChangeEvent;
 import io.undertow.server.handlers.resource.ResourceChangeListener;
 import io.undertow.server.handlers.resource.ResourceManager;
 import io.undertow.util.AttachmentKey;
 import io.undertow.util.FileUtils;
-import io.undertow.util.Methods;
+import io.undertow.util.HttpString;
 import io.undertow.util.StatusCodes;
 import io.undertow.websockets.WebSocketConnectionCallback;
-import io.undertow.websockets.WebSocketProtocolHandshakeHandler;
 
 /**
  * Builder class for Undertow Javascipt deployments
@@ -66,21 +91,46 @@ public class UndertowJS {
     private static final AttachmentKey<HttpHandler> NEXT = AttachmentKey.create(HttpHandler.class);
 
     public static final int HOT_DEPLOYMENT_INTERVAL = 500;
+    public static final int DEFAULT_EXECUTION_CONTEXT_LEASE_TIMEOUT = 30000;
+    private static final String CORE_SCRIPTS = "undertow-core-scripts.js";
+    private static final ScriptEngineProvider DEFAULT_SCRIPT_ENGINE_PROVIDER = new NashornScriptEngineProvider();
     private final List<ResourceSet> resources;
     private final boolean hotDeployment;
     private final Map<ResourceSet, ResourceChangeListener> listeners = new IdentityHashMap<>();
     private final ClassLoader classLoader;
     private final Map<String, InjectionProvider> injectionProviders;
     private final JavabeanIntrospector javabeanIntrospector = new JavabeanIntrospector();
+    private final JavaConverter javaConverter = new JavaConverter();
     private final List<HandlerWrapper> handlerWrappers;
     private final ResourceManager resourceManager;
     private final Map<String, TemplateProvider> templateProviders;
+    private final int executionContextPoolSize;
+    private final long executionContextLeaseTimeout;
+    private final File codeCacheDirectory;
+    private final ScriptEngineProvider scriptEngineProvider;
+    private final int warmupIterations;
+    private final List<ResourceSet> warmupScripts;
+    private final long maxEntitySize;
+    private final Executor defaultExecutor;
+    private final Map<String, Executor> executors;
+    private final ScriptCache scriptCache = new ScriptCache();
+    private final ConcurrentMap<String, ResponseCache> responseCaches = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, RequestCoalescer> requestCoalescers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, ConcurrencyLimit> concurrencyLimits = new ConcurrentHashMap<>();
+
+    private final AtomicBoolean rebuildScheduled = new AtomicBoolean();
+    private final Set<String> pendingChanges = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 
     private ScriptEngine engine;
-    private HttpHandler routingHandler;
-    private Map<Resource, Date> lastModified;
-    private volatile long lastHotDeploymentCheck = -1;
-    private volatile Set<String> rejectPaths = Collections.emptySet();
+    private volatile Deployment deployment;
+    private volatile Map<Resource, Date> lastModified = Collections.emptyMap();
+    private final AtomicLong generations = new AtomicLong();
+    private final AtomicInteger activeGenerations = new AtomicInteger();
+    private final List<WeakReference<Object>> drainedGenerations = new ArrayList<>();
+    private volatile long lastGenerationDrainTime = -1;
+    private volatile Map<String, Long> warmupLatencies = Collections.emptyMap();
+    private volatile long lastWarmupTime = -1;
+    private ScheduledExecutorService hotDeploymentExecutor;
 
     /**
      *
@@ -100,41 +150,156 @@ public class UndertowJS {
         this.hotDeployment = hotDeployment;
         this.resourceManager = resourceManager;
         this.templateProviders = templateProviders;
+        this.executionContextPoolSize = 1;
+        this.executionContextLeaseTimeout = DEFAULT_EXECUTION_CONTEXT_LEASE_TIMEOUT;
+        this.codeCacheDirectory = null;
+        this.scriptEngineProvider = null;
+        this.warmupIterations = 0;
+        this.warmupScripts = Collections.emptyList();
+        this.maxEntitySize = -1;
+        this.defaultExecutor = null;
+        this.executors = Collections.emptyMap();
+    }
+
+    UndertowJS(Builder builder) {
+        this.classLoader = builder.classLoader;
+        this.injectionProviders = builder.injectionProviders;
+        this.handlerWrappers = builder.handlerWrappers;
+        this.resources = new ArrayList<>(builder.resources);
+        this.hotDeployment = builder.hotDeployment;
+        this.resourceManager = builder.resourceManager;
+        this.templateProviders = builder.templateProviders;
+        this.executionContextPoolSize = builder.executionContextPoolSize;
+        this.executionContextLeaseTimeout = builder.executionContextLeaseTimeout;
+        this.codeCacheDirectory = builder.codeCacheDirectory;
+        this.scriptEngineProvider = builder.scriptEngineProvider;
+        this.warmupIterations = builder.warmupIterations;
+        this.warmupScripts = new ArrayList<>(builder.warmupScripts);
+        this.maxEntitySize = builder.maxEntitySize;
+        this.defaultExecutor = builder.defaultExecutor;
+        this.executors = new HashMap<>(builder.executors);
     }
 
     public UndertowJS start() throws ScriptException, IOException {
         buildEngine();
+        if (hotDeployment) {
+            startHotDeployment();
+        }
         return this;
     }
 
+    /**
+     * Evaluates the given code against the first execution context in the pool.
+     */
     public Object evaluate(String code) throws ScriptException {
-        return engine.eval(code);
+        return engine.eval(code, deployment.pool.getContexts().get(0).getGlobal());
     }
 
-    private synchronized void buildEngine() throws ScriptException, IOException {
-        ScriptEngineManager factory = new ScriptEngineManager();
-        ScriptEngine engine = factory.getEngineByName("JavaScript");
+    /**
+     *
+     * @return the pool of execution contexts that requests are currently served from
+     */
+    public ExecutionContextPool getExecutionContextPool() {
+        return deployment.pool;
+    }
 
-        RoutingHandler routingHandler = new RoutingHandler(true);
-        routingHandler.setFallbackHandler(new HttpHandler() {
-            @Override
-            public void handleRequest(HttpServerExchange exchange) throws Exception {
-                exchange.getAttachment(NEXT).handleRequest(exchange);
-            }
-        });
-        RoutingHandler wsRoutingHandler = new RoutingHandler(false);
-        wsRoutingHandler.setFallbackHandler(routingHandler);
+    /**
+     *
+     * @return the cache of compiled scripts
+     */
+    public ScriptCache getScriptCache() {
+        return scriptCache;
+    }
 
-        for (TemplateProvider templateProvider : templateProviders.values()) {
-            // TODO properties should be configurable
-            templateProvider.init(Collections.emptyMap(), resourceManager);
+    /**
+     *
+     * @return the response caches of the routes that use the cache option, keyed by method and path
+     */
+    public Map<String, ResponseCache> getResponseCaches() {
+        return Collections.<String, ResponseCache>unmodifiableMap(responseCaches);
+    }
+
+    /**
+     *
+     * @return the request coalescers of the routes that use the coalesce option, keyed by method and path
+     */
+    public Map<String, RequestCoalescer> getRequestCoalescers() {
+        return Collections.<String, RequestCoalescer>unmodifiableMap(requestCoalescers);
+    }
+
+    /**
+     *
+     * @return the concurrency limits of the routes that use the concurrency option, keyed by method and path
+     */
+    public Map<String, ConcurrencyLimit> getConcurrencyLimits() {
+        return Collections.<String, ConcurrencyLimit>unmodifiableMap(concurrencyLimits);
+    }
+
+    /**
+     *
+     * @return the average latency in nanoseconds that each warmed up route reached at the end of its warm-up
+     */
+    public Map<String, Long> getWarmupLatencies() {
+        return warmupLatencies;
+    }
+
+    /**
+     *
+     * @return the duration in milliseconds of the most recent warm-up, or -1 if no warm-up has taken place
+     */
+    public long getLastWarmupTime() {
+        return lastWarmupTime;
+    }
+
+    private ScriptEngine createEngine() throws ScriptException {
+        ScriptEngineProvider provider = scriptEngineProvider == null ? DEFAULT_SCRIPT_ENGINE_PROVIDER : scriptEngineProvider;
+        ScriptEngine engine = provider.createEngine(classLoader, codeCacheDirectory);
+        if (engine == null && scriptEngineProvider == null) {
+            //fall back to whatever javascript engine is registered with the JDK
+            engine = new ScriptEngineManager(classLoader).getEngineByName("JavaScript");
+        }
+        if (engine == null) {
+            throw UndertowScriptLogger.ROOT_LOGGER.scriptEngineNotAvailable(provider.getName());
+        }
+        return engine;
+    }
+
+    private void buildEngine() throws ScriptException, IOException {
+        deploy(null);
+    }
+
+    /**
+     * Builds a new generation of execution contexts from the current scripts, and swaps it in once every context has
+     * been built and warmed up. If anything fails the current generation keeps serving requests.
+     * <p>
+     * Every context evaluates all the scripts into a fresh global, so the handler chains are always the same as those
+     * of a full deployment. Scripts that have not changed are taken from the script cache rather than compiled again,
+     * but they are still evaluated again: the routes of a script depend on the wrappers and globals of the scripts
+     * before it, and the current global cannot be changed while it is serving requests.
+     *
+     * @param changed the paths of the scripts that have changed, or null for a full deployment. Template providers
+     * are only re-initialised by a full deployment, and otherwise only the routes of the changed scripts are warmed up.
+     */
+    private synchronized void deploy(Set<String> changed) throws ScriptException, IOException {
+        long start = System.currentTimeMillis();
+        long cacheHits = scriptCache.getHits();
+        if (engine == null) {
+            engine = createEngine();
         }
-        UndertowSupport support = new UndertowSupport(routingHandler, classLoader, injectionProviders, javabeanIntrospector, handlerWrappers, resourceManager, wsRoutingHandler, templateProviders);
-        engine.put("$undertow_support", support);
-        engine.put(ScriptEngine.FILENAME, "undertow-core-scripts.js");
-        engine.eval(FileUtils.readFile(UndertowJS.class, "undertow-core-scripts.js"));
+
+        if (changed == null) {
+            for (TemplateProvider templateProvider : templateProviders.values()) {
+                // TODO properties should be configurable
+                templateProvider.init(Collections.emptyMap(), resourceManager);
+            }
+        }
+
+        //the scripts are compiled once, and then evaluated against every global in the pool
+        Map<String, CompiledScript> scripts = new LinkedHashMap<>();
+        scripts.put(CORE_SCRIPTS, scriptCache.compile(engine, CORE_SCRIPTS, FileUtils.readFile(UndertowJS.class, CORE_SCRIPTS)));
         Map<Resource, Date> lm = new HashMap<>();
         final Set<String> rejectPaths = new HashSet<>();
+        Set<String> changedScripts = changed == null ? null : new HashSet<String>();
         for (ResourceSet set : resources) {
 
             for (String resource : set.getResources()) {
@@ -147,20 +312,279 @@ public class UndertowJS {
                 if (res == null) {
                     UndertowScriptLogger.ROOT_LOGGER.couldNotReadResource(resource);
                 } else {
-                    try (InputStream stream = res.getUrl().openStream()) {
-                        engine.put(ScriptEngine.FILENAME, res.getUrl().toString());
-                        engine.eval(new InputStreamReader(new BufferedInputStream(stream)));
-                    }
+                    String name = res.getUrl().toString();
+                    scripts.put(name, compile(res));
                     if (hotDeployment) {
                         lm.put(res, res.getLastModified());
                     }
+                    if (changed != null && changed.contains(resource.startsWith("/") ? resource.substring(1) : resource)) {
+                        UndertowScriptLogger.ROOT_LOGGER.rebuildingDueToFileChange(resource);
+                        changedScripts.add(name);
+                    }
                 }
             }
         }
-        this.engine = engine;
-        this.routingHandler = wsRoutingHandler;
+
+        List<ExecutionContext> contexts = new ArrayList<>();
+        for (int i = 0; i < executionContextPoolSize; ++i) {
+            contexts.add(createExecutionContext(engine, scripts));
+        }
+        warmup(contexts, changedScripts);
+        //the new generation is swapped in atomically, requests never see a partially built one
+        //the old generation is released once all requests that are still using it have completed
+        Deployment old = this.deployment;
+        activeGenerations.incrementAndGet();
+        this.deployment = new Deployment(generations.incrementAndGet(), new ExecutionContextPool(contexts, executionContextLeaseTimeout), Collections.unmodifiableSet(rejectPaths));
+        if (old != null) {
+            old.retire();
+        }
+        clearResponseCaches();
         this.lastModified = lm;
-        this.rejectPaths = Collections.unmodifiableSet(rejectPaths);
+        if (changed == null) {
+            UndertowScriptLogger.ROOT_LOGGER.builtJavascriptDeployment(System.currentTimeMillis() - start, scriptCache.getHits() - cacheHits, scripts.size());
+        } else {
+            UndertowScriptLogger.ROOT_LOGGER.redeployedScripts(changedScripts.size(), System.currentTimeMillis() - start);
+        }
+        UndertowScriptLogger.ROOT_LOGGER.builtExecutionContexts(contexts.size(), System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Warms up a new generation before it is published. The warm-up iterations are shared between the contexts, as
+     * they all run the same compiled code.
+     *
+     * @param owners the scripts whose routes are warmed up, or null to warm up all routes and run the warm-up scripts
+     */
+    private void warmup(List<ExecutionContext> contexts, Set<String> owners) throws ScriptException, IOException {
+        if (warmupIterations <= 0 && (owners != null || warmupScripts.isEmpty())) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        List<CompiledScript> scripts = new ArrayList<>();
+        if (owners == null) {
+            for (ResourceSet set : warmupScripts) {
+                for (String resource : set.getResources()) {
+                    Resource res = set.getResourceManager().getResource(resource);
+                    if (res == null) {
+                        UndertowScriptLogger.ROOT_LOGGER.couldNotReadResource(resource);
+                    } else {
+                        scripts.add(compile(res));
+                    }
+                }
+            }
+        }
+        Map<String, Long> latencies = new LinkedHashMap<>();
+        for (ExecutionContext context : contexts) {
+            latencies.putAll(RouteWarmup.run(context, owners, warmupIterationsPerContext(contexts.size())));
+            for (CompiledScript script : scripts) {
+                script.eval(context.getGlobal());
+            }
+        }
+        warmedUp(latencies, owners != null, System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Discards the cached responses once new versions of the scripts are serving requests
+     */
+    private void clearResponseCaches() {
+        for (ResponseCache cache : responseCaches.values()) {
+            cache.clear();
+        }
+    }
+
+    private int warmupIterationsPerContext(int contexts) {
+        return (warmupIterations + contexts - 1) / contexts;
+    }
+
+    private void warmedUp(Map<String, Long> latencies, boolean merge, long time) {
+        Map<String, Long> all = new LinkedHashMap<>();
+        if (merge) {
+            all.putAll(warmupLatencies);
+        }
+        all.putAll(latencies);
+        warmupLatencies = Collections.unmodifiableMap(all);
+        lastWarmupTime = time;
+        UndertowScriptLogger.ROOT_LOGGER.warmedUpRoutes(latencies.size(), time);
+    }
+
+    private CompiledScript compile(Resource res) throws IOException, ScriptException {
+        try (InputStream stream = res.getUrl().openStream()) {
+            return scriptCache.compile(engine, res.getUrl().toString(), FileUtils.readFile(new BufferedInputStream(stream)));
+        }
+    }
+
+    private ExecutionContext createExecutionContext(ScriptEngine engine, Map<String, CompiledScript> scripts) throws ScriptException {
+        HttpHandler fallbackHandler = new HttpHandler() {
+            @Override
+            public void handleRequest(HttpServerExchange exchange) throws Exception {
+                exchange.getAttachment(NEXT).handleRequest(exchange);
+            }
+        };
+        UndertowSupport support = new UndertowSupport(fallbackHandler, classLoader, injectionProviders, javabeanIntrospector, javaConverter, handlerWrappers, resourceManager, templateProviders, defaultExecutor, executors, maxEntitySize, responseCaches, requestCoalescers, concurrencyLimits);
+        Bindings global = engine.createBindings();
+        global.put("$undertow_support", support);
+        for (Map.Entry<String, CompiledScript> script : scripts.entrySet()) {
+            support.getRegistrations().begin(script.getKey());
+            script.getValue().eval(global);
+        }
+        //a websocket connection outlives the upgrade request that leased the context, so its callbacks would run
+        //on a global that other requests may be using at the same time
+        List<String> websockets = support.getRegistrations().getWebsocketPaths();
+        if (executionContextPoolSize > 1 && !websockets.isEmpty()) {
+            throw UndertowScriptLogger.ROOT_LOGGER.websocketsNotSupportedWithPooledContexts(websockets, executionContextPoolSize);
+        }
+        return new ExecutionContext(global, support.getRegistrations().buildHandler(), support);
+    }
+
+    /**
+     * Redeploys after the given scripts have changed. If the new version cannot be deployed the failure is logged and
+     * the current generation keeps serving requests. The failed version is not retried until the scripts change again.
+     */
+    private synchronized void redeploy(Set<String> changed) {
+        try {
+            deploy(changed);
+        } catch (Exception e) {
+            UndertowScriptLogger.ROOT_LOGGER.failedToRebuildScriptEngine(e);
+            Map<Resource, Date> lm = new HashMap<>(lastModified);
+            for (Map.Entry<Resource, Date> entry : lm.entrySet()) {
+                String path = entry.getKey().getPath();
+                if (changed.contains(path.startsWith("/") ? path.substring(1) : path)) {
+                    entry.setValue(entry.getKey().getLastModified());
+                }
+            }
+            this.lastModified = lm;
+        }
+    }
+
+    /**
+     * Hot deployment is driven by resource change events where the resource manager supports them, otherwise
+     * a background thread polls the scripts for changes. Either way the engine is rebuilt on the background thread,
+     * and the request path never performs any checks.
+     */
+    private void startHotDeployment() {
+        hotDeploymentExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "undertow-js-hot-deployment");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        boolean poll = false;
+        for (final ResourceSet set : resources) {
+            ResourceManager manager = set.getResourceManager();
+            if (manager.isResourceChangeListenerSupported()) {
+                ResourceChangeListener listener = new ResourceChangeListener() {
+                    @Override
+                    public void handleChanges(Collection<ResourceChangeEvent> changes) {
+                        for (ResourceChangeEvent change : changes) {
+                            if (set.contains(change.getResource())) {
+                                scheduleRebuild(change.getResource());
+                            }
+                        }
+                    }
+                };
+                manager.registerResourceChangeListener(listener);
+                listeners.put(set, listener);
+            } else {
+                poll = true;
+            }
+        }
+        if (poll) {
+            hotDeploymentExecutor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    for (Map.Entry<Resource, Date> entry : lastModified.entrySet()) {
+                        if (!entry.getValue().equals(entry.getKey().getLastModified())) {
+                            scheduleRebuild(entry.getKey().getPath());
+                        }
+                    }
+                }
+            }, HOT_DEPLOYMENT_INTERVAL, HOT_DEPLOYMENT_INTERVAL, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void scheduleRebuild(final String changed) {
+        pendingChanges.add(changed.startsWith("/") ? changed.substring(1) : changed);
+        if (!rebuildScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            hotDeploymentExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    rebuildScheduled.set(false);
+                    Set<String> changed = new HashSet<>();
+                    Iterator<String> it = pendingChanges.iterator();
+                    while (it.hasNext()) {
+                        changed.add(it.next());
+                        it.remove();
+                    }
+                    if (changed.isEmpty()) {
+                        return;
+                    }
+                    redeploy(changed);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            //we have been stopped
+            rebuildScheduled.set(false);
+        }
+    }
+
+    private void drained(Deployment deployment) {
+        activeGenerations.decrementAndGet();
+        long drainTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - deployment.retiredAt);
+        lastGenerationDrainTime = drainTime;
+        UndertowScriptLogger.ROOT_LOGGER.generationDrained(deployment.generation, drainTime);
+        synchronized (drainedGenerations) {
+            expungeDrainedGenerations();
+            drainedGenerations.add(new WeakReference<Object>(deployment));
+        }
+    }
+
+    private void expungeDrainedGenerations() {
+        Iterator<WeakReference<Object>> it = drainedGenerations.iterator();
+        while (it.hasNext()) {
+            if (it.next().get() == null) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     *
+     * @return the number of the generation that new requests are served by, this is incremented every time the engine is rebuilt
+     */
+    public long getGeneration() {
+        return generations.get();
+    }
+
+    /**
+     *
+     * @return the number of generations that are still in use, including the current one
+     */
+    public int getActiveGenerations() {
+        return activeGenerations.get();
+    }
+
+    /**
+     *
+     * @return the number of drained generations that have not been garbage collected yet. If this keeps growing
+     * then something is holding on to the old script globals.
+     */
+    public int getRetainedGenerations() {
+        synchronized (drainedGenerations) {
+            expungeDrainedGenerations();
+            return drainedGenerations.size();
+        }
+    }
+
+    /**
+     *
+     * @return the time in milliseconds it took the last retired generation to drain its in-flight requests
+     */
+    public long getLastGenerationDrainTime() {
+        return lastGenerationDrainTime;
     }
 
     public UndertowJS stop() {
@@ -168,9 +592,14 @@ public class UndertowJS {
             entry.getKey().getResourceManager().removeResourceChangeListener(entry.getValue());
         }
         listeners.clear();
+        if (hotDeploymentExecutor != null) {
+            hotDeploymentExecutor.shutdownNow();
+            hotDeploymentExecutor = null;
+        }
         for (TemplateProvider templateProvider : templateProviders.values()) {
             templateProvider.cleanup();
         }
+        scriptCache.clear();
         engine = null;
         return this;
     }
@@ -179,30 +608,26 @@ public class UndertowJS {
         return new HttpHandler() {
             @Override
             public void handleRequest(HttpServerExchange exchange) throws Exception {
-                if (hotDeployment) {
-                    long lastHotDeploymentCheck = UndertowJS.this.lastHotDeploymentCheck;
-                    if (System.currentTimeMillis() > lastHotDeploymentCheck + HOT_DEPLOYMENT_INTERVAL) {
-                        synchronized (UndertowJS.this) {
-                            if (UndertowJS.this.lastHotDeploymentCheck == lastHotDeploymentCheck) {
-                                for (Map.Entry<Resource, Date> entry : lastModified.entrySet()) {
-                                    if (!entry.getValue().equals(entry.getKey().getLastModified())) {
-                                        UndertowScriptLogger.ROOT_LOGGER.rebuildingDueToFileChange(entry.getKey().getPath());
-                                        buildEngine();
-                                        break;
-                                    }
-                                }
-                                UndertowJS.this.lastHotDeploymentCheck = System.currentTimeMillis();
-                            }
-                        }
+                Deployment deployment;
+                do {
+                    //if we lose a race with a redeploy we just retry against the new generation
+                    deployment = UndertowJS.this.deployment;
+                } while (!deployment.acquire());
+                final Deployment acquired = deployment;
+                exchange.addExchangeCompleteListener(new ExchangeCompletionListener() {
+                    @Override
+                    public void exchangeEvent(HttpServerExchange exchange, NextListener nextListener) {
+                        acquired.release();
+                        nextListener.proceed();
                     }
-                }
-                if(rejectPaths.contains(exchange.getRelativePath())) {
+                });
+                if(deployment.rejectPaths.contains(exchange.getRelativePath())) {
                     exchange.setResponseCode(StatusCodes.NOT_FOUND);
                     exchange.endExchange();
                     return;
                 }
                 exchange.putAttachment(NEXT, next);
-                routingHandler.handleRequest(exchange);
+                deployment.pool.handleRequest(exchange);
             }
         };
     }
@@ -231,6 +656,15 @@ public class UndertowJS {
         private final List<HandlerWrapper> handlerWrappers = new ArrayList<>();
         private ResourceManager resourceManager;
         private final Map<String, TemplateProvider> templateProviders = new HashMap<>();
+        private int executionContextPoolSize = 1;
+        private long executionContextLeaseTimeout = DEFAULT_EXECUTION_CONTEXT_LEASE_TIMEOUT;
+        private File codeCacheDirectory;
+        private ScriptEngineProvider scriptEngineProvider;
+        private int warmupIterations;
+        private final List<ResourceSet> warmupScripts = new ArrayList<>();
+        private long maxEntitySize = -1;
+        private Executor defaultExecutor;
+        private final Map<String, Executor> executors = new HashMap<>();
 
         public ResourceSet addResourceSet(ResourceManager manager) {
             ResourceSet resourceSet = new ResourceSet(manager);
@@ -290,8 +724,146 @@ public class UndertowJS {
             return this;
         }
 
+        public int getExecutionContextPoolSize() {
+            return executionContextPoolSize;
+        }
+
+        /**
+         * Sets the number of isolated execution contexts that requests are served from. Every context has its own
+         * script global, so module level state is never shared between concurrent requests.
+         *
+         * <p>
+         * Websockets are not supported if the pool contains more than one context, as a connection outlives the
+         * upgrade request that leased its context. Deployments that register websockets fail to start.
+         *
+         * @param executionContextPoolSize the pool size, the default of 1 shares a single global between all requests
+         */
+        public Builder setExecutionContextPoolSize(int executionContextPoolSize) {
+            if (executionContextPoolSize < 1) {
+                throw new IllegalArgumentException("executionContextPoolSize");
+            }
+            this.executionContextPoolSize = executionContextPoolSize;
+            return this;
+        }
+
+        public long getExecutionContextLeaseTimeout() {
+            return executionContextLeaseTimeout;
+        }
+
+        /**
+         *
+         * @param executionContextLeaseTimeout the time in milliseconds a request will wait for a free execution context before it is rejected
+         */
+        public Builder setExecutionContextLeaseTimeout(long executionContextLeaseTimeout) {
+            this.executionContextLeaseTimeout = executionContextLeaseTimeout;
+            return this;
+        }
+
+        public File getCodeCacheDirectory() {
+            return codeCacheDirectory;
+        }
+
+        /**
+         * Sets a directory that the script engine uses to persist compiled code between restarts. Note that
+         * Nashorn only allows this location to be set globally, through the <code>nashorn.persistent.code.cache</code>
+         * system property.
+         *
+         * @param codeCacheDirectory the code cache directory, or null to disable the on-disk cache
+         */
+        public Builder setCodeCacheDirectory(File codeCacheDirectory) {
+            this.codeCacheDirectory = codeCacheDirectory;
+            return this;
+        }
+
+        public ScriptEngineProvider getScriptEngineProvider() {
+            return scriptEngineProvider;
+        }
+
+        /**
+         * Sets the provider that creates the script engine. If none is set Nashorn is used with its default options,
+         * falling back to the javascript engine registered with the JDK.
+         *
+         * @param scriptEngineProvider the provider
+         */
+        public Builder setScriptEngineProvider(ScriptEngineProvider scriptEngineProvider) {
+            this.scriptEngineProvider = scriptEngineProvider;
+            return this;
+        }
+
+        public int getWarmupIterations() {
+            return warmupIterations;
+        }
+
+        /**
+         * Sets the number of synthetic requests that are sent through each route that has the <code>warmup</code>
+         * option before a new deployment, or a redeployed script, starts serving requests.
+         * <p>
+         * Warm-up requests do not go through the network, wrappers or security checks. The handler function is invoked with
+         * an exchange that discards the response, and the injected parameters are taken from the route's
+         * <code>warmup</code> option. Handlers with side effects should not be warmed up.
+         *
+         * @param warmupIterations the number of warm-up requests per route, 0 disables route warm-up
+         */
+        public Builder setWarmupIterations(int warmupIterations) {
+            this.warmupIterations = warmupIterations;
+            return this;
+        }
+
+        /**
+         * Adds scripts that are evaluated against every execution context of a new deployment before it is published.
+         * They can exercise application code that route warm-up does not reach.
+         */
+        public Builder addWarmupScripts(ResourceManager manager, String... scripts) {
+            ResourceSet resourceSet = new ResourceSet(manager);
+            resourceSet.addResources(scripts);
+            this.warmupScripts.add(resourceSet);
+            return this;
+        }
+
+        public long getMaxEntitySize() {
+            return maxEntitySize;
+        }
+
+        /**
+         * Sets the maximum size of request entities that are injected into handlers. Larger entities are rejected with
+         * a 413 while they are being read. Individual routes can override this with the <code>max_entity_size</code> option.
+         *
+         * @param maxEntitySize the maximum entity size in bytes, or -1 for no limit
+         */
+        public Builder setMaxEntitySize(long maxEntitySize) {
+            this.maxEntitySize = maxEntitySize;
+            return this;
+        }
+
+        public Executor getDefaultExecutor() {
+            return defaultExecutor;
+        }
+
+        /**
+         * Sets the executor that handlers are dispatched to when they need to leave the IO thread. Handlers that perform
+         * a lot of blocking work can be moved off the XNIO worker pool, for example onto virtual threads
+         * (see {@link ScriptExecutors}). The executor is not shut down when the deployment is stopped.
+         *
+         * @param defaultExecutor the executor, or null to use the XNIO worker pool
+         */
+        public Builder setDefaultExecutor(Executor defaultExecutor) {
+            this.defaultExecutor = defaultExecutor;
+            return this;
+        }
+
+        /**
+         * Adds a named executor, that individual routes can select with the <code>executor</code> option.
+         *
+         * @param name the name that routes refer to the executor by
+         * @param executor the executor
+         */
+        public Builder addExecutor(String name, Executor executor) {
+            this.executors.put(name, executor);
+            return this;
+        }
+
         public UndertowJS build() {
-            return new UndertowJS(resources, hotDeployment, classLoader, injectionProviders, handlerWrappers, resourceManager, templateProviders);
+            return new UndertowJS(this);
         }
     }
 
@@ -326,6 +898,60 @@ public class UndertowJS {
         public List<String> getResources() {
             return Collections.unmodifiableList(resources);
         }
+
+        boolean contains(String resource) {
+            String path = resource.startsWith("/") ? resource.substring(1) : resource;
+            for (String r : resources) {
+                if (path.equals(r.startsWith("/") ? r.substring(1) : r)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * A generation of the deployment. Every request holds a reference to the generation it started on, and a
+     * generation is only released once it has been retired and all of its in-flight requests have completed.
+     */
+    private final class Deployment {
+
+        final long generation;
+        final ExecutionContextPool pool;
+        final Set<String> rejectPaths;
+        /**
+         * The number of in-flight requests, plus one while this is the published generation
+         */
+        private final AtomicInteger references = new AtomicInteger(1);
+        private volatile long retiredAt;
+
+        Deployment(long generation, ExecutionContextPool pool, Set<String> rejectPaths) {
+            this.generation = generation;
+            this.pool = pool;
+            this.rejectPaths = rejectPaths;
+        }
+
+        boolean acquire() {
+            int current;
+            do {
+                current = references.get();
+                if (current == 0) {
+                    return false;
+                }
+            } while (!references.compareAndSet(current, current + 1));
+            return true;
+        }
+
+        void release() {
+            if (references.decrementAndGet() == 0) {
+                drained(this);
+            }
+        }
+
+        void retire() {
+            retiredAt = System.nanoTime();
+            release();
+        }
     }
 
     /**
@@ -333,18 +959,78 @@ public class UndertowJS {
      */
     public static final class JavabeanIntrospector {
 
+        private static final MethodHandle IS_RECORD;
+        private static final MethodHandle GET_RECORD_COMPONENTS;
+        private static final MethodHandle GET_COMPONENT_NAME;
+        private static final MethodHandle GET_COMPONENT_ACCESSOR;
+
+        static {
+            MethodHandle isRecord = null;
+            MethodHandle getRecordComponents = null;
+            MethodHandle getName = null;
+            MethodHandle getAccessor = null;
+            try {
+                //looked up reflectively, so we can still run on JVMs without records
+                MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+                Class<?> component = Class.forName("java.lang.reflect.RecordComponent");
+                isRecord = lookup.findVirtual(Class.class, "isRecord", MethodType.methodType(boolean.class));
+                getRecordComponents = lookup.findVirtual(Class.class, "getRecordComponents", MethodType.methodType(Array.newInstance(component, 0).getClass()))
+                        .asType(MethodType.methodType(Object[].class, Class.class));
+                getName = lookup.findVirtual(component, "getName", MethodType.methodType(String.class))
+                        .asType(MethodType.methodType(String.class, Object.class));
+                getAccessor = lookup.findVirtual(component, "getAccessor", MethodType.methodType(Method.class))
+                        .asType(MethodType.methodType(Method.class, Object.class));
+            } catch (ReflectiveOperationException e) {
+                isRecord = null;
+            }
+            IS_RECORD = isRecord;
+            GET_RECORD_COMPONENTS = getRecordComponents;
+            GET_COMPONENT_NAME = getName;
+            GET_COMPONENT_ACCESSOR = getAccessor;
+        }
+
         private JavabeanIntrospector() {
 
         }
 
-        private Map<Class<?>, Map<String, Method>> cache = new ConcurrentHashMap<>();
+        private final ConcurrentMap<Class<?>, Map<String, Method>> cache = new ConcurrentHashMap<>();
+        private final ConcurrentMap<Class<?>, BeanProperty[]> properties = new ConcurrentHashMap<>();
 
         public Map<String, Method> inspect(Class<?> clazz) {
             Map<String, Method> existing = cache.get(clazz);
             if (existing != null) {
                 return existing;
             }
-            existing = new HashMap<>();
+            return cache.computeIfAbsent(clazz, new Function<Class<?>, Map<String, Method>>() {
+                @Override
+                public Map<String, Method> apply(Class<?> clazz) {
+                    return Collections.unmodifiableMap(getters(clazz));
+                }
+            });
+        }
+
+        /**
+         * Returns the readable properties of a class, in a stable order. These are the record components of a
+         * record, otherwise the getters sorted by name followed by any public fields that do not have a getter.
+         * <p>
+         * The accessors are resolved once per class, so serializers and template adapters can read every property
+         * without any further lookups.
+         */
+        public BeanProperty[] properties(Class<?> clazz) {
+            BeanProperty[] existing = properties.get(clazz);
+            if (existing != null) {
+                return existing;
+            }
+            return properties.computeIfAbsent(clazz, new Function<Class<?>, BeanProperty[]>() {
+                @Override
+                public BeanProperty[] apply(Class<?> clazz) {
+                    return resolveProperties(clazz);
+                }
+            });
+        }
+
+        private static Map<String, Method> getters(Class<?> clazz) {
+            Map<String, Method> getters = new HashMap<>();
             for (Method method : clazz.getMethods()) {
                 if (method.isBridge() || Modifier.isStatic(method.getModifiers())) {
                     continue;
@@ -356,11 +1042,78 @@ public class UndertowJS {
                         method.getName().startsWith("get") &&
                         method.getName().length() > 3 &&
                         method.getReturnType() != void.class) {
-                    existing.put(Character.toLowerCase(method.getName().charAt(3)) + method.getName().substring(4), method);
+                    getters.put(Character.toLowerCase(method.getName().charAt(3)) + method.getName().substring(4), method);
+                }
+            }
+            return getters;
+        }
+
+        private static BeanProperty[] resolveProperties(Class<?> clazz) {
+            Map<String, BeanProperty> result = new LinkedHashMap<>();
+            try {
+                if (IS_RECORD != null && (boolean) IS_RECORD.invokeExact(clazz)) {
+                    for (Object component : (Object[]) GET_RECORD_COMPONENTS.invokeExact(clazz)) {
+                        addProperty(result, (String) GET_COMPONENT_NAME.invokeExact(component), (Method) GET_COMPONENT_ACCESSOR.invokeExact(component));
+                    }
+                } else {
+                    Map<String, Method> getters = new TreeMap<>(getters(clazz));
+                    for (Map.Entry<String, Method> getter : getters.entrySet()) {
+                        addProperty(result, getter.getKey(), getter.getValue());
+                    }
+                }
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new IllegalStateException(t);
+            }
+            if (Modifier.isPublic(clazz.getModifiers())) {
+                for (Field field : clazz.getFields()) {
+                    if (!Modifier.isStatic(field.getModifiers()) && !result.containsKey(field.getName())) {
+                        try {
+                            result.put(field.getName(), new BeanProperty(field.getName(), MethodHandles.publicLookup().unreflectGetter(field)));
+                        } catch (IllegalAccessException e) {
+                            //not accessible, so not a property
+                        }
+                    }
+                }
+            }
+            return result.values().toArray(new BeanProperty[result.size()]);
+        }
+
+        private static void addProperty(Map<String, BeanProperty> result, String name, Method method) {
+            Method accessible = accessibleMethod(method.getDeclaringClass(), method);
+            if (accessible == null) {
+                return;
+            }
+            try {
+                result.put(name, new BeanProperty(name, MethodHandles.publicLookup().unreflect(accessible)));
+            } catch (IllegalAccessException e) {
+                //not accessible, so not a property
+            }
+        }
+
+        /**
+         * Getters are often declared by a non public implementation class, in which case they can only be invoked
+         * through a public class or interface that declares them.
+         */
+        private static Method accessibleMethod(Class<?> clazz, Method method) {
+            if (clazz == null) {
+                return null;
+            }
+            if (Modifier.isPublic(clazz.getModifiers())) {
+                try {
+                    return clazz.getMethod(method.getName(), method.getParameterTypes());
+                } catch (NoSuchMethodException e) {
+                    return null;
                 }
             }
-            cache.put(clazz, existing);
-            return existing;
+            for (Class<?> type : clazz.getInterfaces()) {
+                Method result = accessibleMethod(type, method);
+                if (result != null) {
+                    return result;
+                }
+            }
+            return accessibleMethod(clazz.getSuperclass(), method);
         }
 
     }
@@ -370,24 +1123,36 @@ public class UndertowJS {
      */
     public static class UndertowSupport {
 
-        private final RoutingHandler routingHandler;
+        private final ScriptRegistrations registrations;
         private final ClassLoader classLoader;
         private final Map<String, InjectionProvider> injectionProviders;
         private final JavabeanIntrospector javabeanIntrospector;
+        private final JavaConverter javaConverter;
         private final List<HandlerWrapper> handlerWrappers;
         private final ResourceManager resourceManager;
-        private final RoutingHandler wsRoutingHandler;
         private final Map<String, TemplateProvider> templateProviders;
-
-        public UndertowSupport(RoutingHandler routingHandler, ClassLoader classLoader, Map<String, InjectionProvider> injectionProviders, JavabeanIntrospector javabeanIntrospector, List<HandlerWrapper> handlerWrappers, ResourceManager resourceManager, RoutingHandler wsRoutingHandler, Map<String, TemplateProvider> templateProviders) {
-            this.routingHandler = routingHandler;
+        private final Executor defaultExecutor;
+        private final Map<String, Executor> executors;
+        private final long maxEntitySize;
+        private final ConcurrentMap<String, ResponseCache> responseCaches;
+        private final ConcurrentMap<String, RequestCoalescer> requestCoalescers;
+        private final ConcurrentMap<String, ConcurrencyLimit> concurrencyLimits;
+
+        UndertowSupport(HttpHandler fallbackHandler, ClassLoader classLoader, Map<String, InjectionProvider> injectionProviders, JavabeanIntrospector javabeanIntrospector, JavaConverter javaConverter, List<HandlerWrapper> handlerWrappers, ResourceManager resourceManager, Map<String, TemplateProvider> templateProviders, Executor defaultExecutor, Map<String, Executor> executors, long maxEntitySize, ConcurrentMap<String, ResponseCache> responseCaches, ConcurrentMap<String, RequestCoalescer> requestCoalescers, ConcurrentMap<String, ConcurrencyLimit> concurrencyLimits) {
+            this.registrations = new ScriptRegistrations(fallbackHandler);
             this.classLoader = classLoader;
             this.injectionProviders = injectionProviders;
             this.javabeanIntrospector = javabeanIntrospector;
+            this.javaConverter = javaConverter;
             this.handlerWrappers = handlerWrappers;
             this.resourceManager = resourceManager;
-            this.wsRoutingHandler = wsRoutingHandler;
             this.templateProviders = templateProviders;
+            this.defaultExecutor = defaultExecutor;
+            this.executors = executors;
+            this.maxEntitySize = maxEntitySize;
+            this.responseCaches = responseCaches;
+            this.requestCoalescers = requestCoalescers;
+            this.concurrencyLimits = concurrencyLimits;
         }
 
         public ClassLoader getClassLoader() {
@@ -402,12 +1167,20 @@ public class UndertowJS {
             return javabeanIntrospector;
         }
 
+        public JavaConverter getJavaConverter() {
+            return javaConverter;
+        }
+
         public List<HandlerWrapper> getHandlerWrappers() {
             return handlerWrappers;
         }
 
+        /**
+         *
+         * @return the routing handler built from the current registrations. Routes should be registered through {@link #addRoute(String, String, Predicate, HttpHandler)}, anything added directly will be lost on redeploy
+         */
         public RoutingHandler getRoutingHandler() {
-            return routingHandler;
+            return registrations.getRoutingHandler();
         }
 
         public ResourceManager getResourceManager() {
@@ -418,14 +1191,109 @@ public class UndertowJS {
             return templateProviders;
         }
 
+        /**
+         *
+         * @return the executor that blocking handlers are dispatched to, or null to use the XNIO worker
+         */
+        public Executor getDefaultExecutor() {
+            return defaultExecutor;
+        }
+
+        public Executor getExecutor(String name) {
+            Executor executor = executors.get(name);
+            if (executor == null) {
+                throw UndertowScriptLogger.ROOT_LOGGER.unknownExecutor(name);
+            }
+            return executor;
+        }
+
+        /**
+         *
+         * @return the default maximum size of request entities that routes read, or -1 if there is no limit
+         */
+        public long getMaxEntitySize() {
+            return maxEntitySize;
+        }
+
+        /**
+         * Returns the response cache of a route. The cache is shared by all execution contexts, and is reused when the
+         * route is registered again on redeploy.
+         *
+         * @param maxSize the maximum total size in bytes of the cached responses
+         */
+        public ResponseCache getResponseCache(String method, String path, long maxSize) {
+            String route = method + " " + path;
+            ResponseCache cache = responseCaches.get(route);
+            if (cache == null) {
+                ResponseCache existing = responseCaches.putIfAbsent(route, cache = new ResponseCache(route, maxSize));
+                if (existing != null) {
+                    cache = existing;
+                }
+            }
+            cache.setMaxSize(maxSize);
+            return cache;
+        }
+
+        /**
+         * Returns the request coalescer of a route, which is shared by all execution contexts and is kept when the
+         * route is registered again on redeploy.
+         *
+         * @param maxSize the maximum size in bytes of a response that can be shared
+         */
+        public RequestCoalescer getRequestCoalescer(String method, String path, long maxSize) {
+            String route = method + " " + path;
+            RequestCoalescer coalescer = requestCoalescers.get(route);
+            if (coalescer == null) {
+                RequestCoalescer existing = requestCoalescers.putIfAbsent(route, coalescer = new RequestCoalescer(route, maxSize));
+                if (existing != null) {
+                    coalescer = existing;
+                }
+            }
+            coalescer.setMaxSize(maxSize);
+            return coalescer;
+        }
+
+        /**
+         * Returns the concurrency limit of a route, which is shared by all execution contexts and is kept when the
+         * route is registered again on redeploy.
+         *
+         * @param maxConcurrent the maximum number of requests that are handled at the same time
+         * @param maxQueued the maximum number of requests that wait for a slot, zero to reject them straight away
+         * @param retryAfter the number of seconds that rejected clients are asked to wait before retrying
+         */
+        public ConcurrencyLimit getConcurrencyLimit(String method, String path, int maxConcurrent, int maxQueued, int retryAfter) {
+            String route = method + " " + path;
+            ConcurrencyLimit limit = concurrencyLimits.get(route);
+            if (limit == null) {
+                ConcurrencyLimit existing = concurrencyLimits.putIfAbsent(route, limit = new ConcurrencyLimit(route, maxConcurrent, maxQueued, retryAfter));
+                if (existing != null) {
+                    limit = existing;
+                }
+            }
+            limit.setLimits(maxConcurrent, maxQueued, retryAfter);
+            return limit;
+        }
+
+        public void addRoute(String method, String path, Predicate predicate, HttpHandler handler) {
+            registrations.addRoute(new HttpString(method), path, predicate, handler);
+        }
+
         public void addWebsocket(String path, WebSocketConnectionCallback callback) {
-            wsRoutingHandler.add(Methods.GET, path, new WebSocketProtocolHandshakeHandler(callback, routingHandler));
+            registrations.addWebsocket(path, callback);
+        }
+
+        public void addWarmup(String method, String path, Runnable task) {
+            registrations.addWarmup(method + " " + path, task);
         }
 
         public InjectionContext getInjectionContext(String name) {
             return new DefaultInjectionContext(name);
         }
 
+        ScriptRegistrations getRegistrations() {
+            return registrations;
+        }
+
     }
 
     private static final class DefaultInjectionContext implements InjectionContext {
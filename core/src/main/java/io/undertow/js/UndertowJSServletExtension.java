@@ -92,6 +92,10 @@ public class UndertowJSServletExtension implements ServletExtension {
                 for(InjectionProvider provider : loader) {
                     builder.addInjectionProvider(provider);
                 }
+                Iterator<ScriptEngineProvider> engineProviders = ServiceLoader.load(ScriptEngineProvider.class, classLoader).iterator();
+                if (engineProviders.hasNext()) {
+                    builder.setScriptEngineProvider(engineProviders.next());
+                }
                 Iterator<TemplateProvider> iterator = ServiceLoader.load(TemplateProvider.class, classLoader).iterator();
                 while (iterator.hasNext()) {
                     try {
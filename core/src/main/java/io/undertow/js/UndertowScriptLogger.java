@@ -18,6 +18,9 @@
 
 package io.undertow.js;
 
+import java.lang.reflect.Type;
+import java.util.List;
+
 import org.jboss.logging.BasicLogger;
 import org.jboss.logging.Logger;
 import org.jboss.logging.annotations.Cause;
@@ -58,4 +61,79 @@ public interface UndertowScriptLogger extends BasicLogger {
 
     @Message(id = 7, value = "Unable to lookup BeanManager")
     RuntimeException unableToLookupBeanManager();
+
+    @LogMessage(level = Logger.Level.WARN)
+    @Message(id = 8, value = "Timed out after %s ms waiting for a script execution context")
+    void timedOutWaitingForExecutionContext(long timeout);
+
+    @LogMessage(level = Logger.Level.DEBUG)
+    @Message(id = 9, value = "Built %s script execution context(s) in %s ms")
+    void builtExecutionContexts(int count, long time);
+
+    @LogMessage(level = Logger.Level.INFO)
+    @Message(id = 10, value = "Javascript deployment built in %s ms, %s of %s scripts were loaded from the compiled script cache")
+    void builtJavascriptDeployment(long time, long cached, int total);
+
+    @LogMessage(level = Logger.Level.INFO)
+    @Message(id = 11, value = "Redeployed %s changed script(s) in %s ms")
+    void redeployedScripts(int count, long time);
+
+    @LogMessage(level = Logger.Level.DEBUG)
+    @Message(id = 12, value = "Javascript deployment generation %s drained %s ms after it was retired")
+    void generationDrained(long generation, long time);
+
+    @Message(id = 13, value = "%s is a blocking operation and cannot be performed by the non blocking handler for %s")
+    IllegalStateException blockingOperationInNonBlockingHandler(String operation, String route);
+
+    @Message(id = 14, value = "No executor named %s has been registered")
+    IllegalArgumentException unknownExecutor(String name);
+
+    @Message(id = 15, value = "Virtual threads are not supported by this JVM")
+    IllegalStateException virtualThreadsNotSupported(@Cause Throwable cause);
+
+    @Message(id = 16, value = "Script engine %s is not available")
+    IllegalStateException scriptEngineNotAvailable(String provider);
+
+    @LogMessage(level = Logger.Level.INFO)
+    @Message(id = 17, value = "Warmed up %s route(s) in %s ms")
+    void warmedUpRoutes(int count, long time);
+
+    @LogMessage(level = Logger.Level.DEBUG)
+    @Message(id = 18, value = "Route %s took %s us per request at the end of warm-up")
+    void routeWarmedUp(String route, long latency);
+
+    @LogMessage(level = Logger.Level.WARN)
+    @Message(id = 19, value = "Warm-up of route %s failed")
+    void warmupFailed(String route, @Cause Throwable cause);
+
+    @Message(id = 20, value = "Invalid JSON: unexpected character '%s' at offset %s")
+    IllegalArgumentException unexpectedJsonCharacter(char c, long offset);
+
+    @Message(id = 21, value = "Invalid JSON: unexpected end of input")
+    IllegalArgumentException unexpectedEndOfJson();
+
+    @Message(id = 22, value = "Invalid JSON: malformed UTF-8 at offset %s")
+    IllegalArgumentException malformedJsonEncoding(long offset);
+
+    @Message(id = 23, value = "The response channel has already been obtained, so the response cannot be streamed")
+    IllegalStateException responseChannelAlreadyInUse();
+
+    @Message(id = 24, value = "The response writer has already been ended")
+    IllegalStateException responseWriterEnded();
+
+    @Message(id = 25, value = "Cannot convert a value of type %s to %s")
+    IllegalArgumentException cannotConvert(String valueType, Type target);
+
+    @Message(id = 26, value = "Cannot create instances of %s, it needs a public no-arg constructor")
+    IllegalArgumentException cannotInstantiate(Class<?> type);
+
+    @Message(id = 27, value = "Converting circular structure to JSON")
+    IllegalArgumentException circularJson();
+
+    @Message(id = 28, value = "Websockets %s cannot be used with an execution context pool of size %s, websockets require a single shared execution context")
+    IllegalStateException websocketsNotSupportedWithPooledContexts(List<String> paths, int poolSize);
+
+    @LogMessage(level = Logger.Level.ERROR)
+    @Message(id = 29, value = "Failed to send JSON response")
+    void failedToSendJson(@Cause Throwable cause);
 }
@@ -20,6 +20,7 @@ package io.undertow.js.providers.jndi;
 import javax.naming.InitialContext;
 import javax.naming.NamingException;
 
+import io.undertow.js.BlockingGuard;
 import io.undertow.js.InjectionContext;
 import io.undertow.js.InjectionProvider;
 
@@ -32,6 +33,7 @@ public class JNDIInjectionProvider implements InjectionProvider {
 
     @Override
     public Object getObject(InjectionContext injectionContext) {
+        BlockingGuard.check("JNDI lookup of " + injectionContext.getName());
         try {
             return new InitialContext().lookup(injectionContext.getName());
         } catch (NamingException e) {
@@ -0,0 +1,105 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.js.providers.nashorn;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
+
+import io.undertow.js.ScriptEngineProvider;
+
+/**
+ * Script engine provider for Nashorn, either the version bundled with the JDK or the standalone version.
+ * <p>
+ * Nashorn is accessed reflectively, as it is not available on all JVMs.
+ */
+public class NashornScriptEngineProvider implements ScriptEngineProvider {
+
+    /**
+     * Options tuned for throughput. Optimistic types allow hot code to be compiled with primitive types, and are
+     * deoptimised if the assumption turns out to be wrong. This makes startup slower, but deployments are only
+     * compiled once and the compiled code is shared between all execution contexts.
+     */
+    public static final String[] THROUGHPUT_OPTIONS = {"--optimistic-types=true"};
+
+    private static final String[] FACTORY_CLASSES = {"jdk.nashorn.api.scripting.NashornScriptEngineFactory", "org.openjdk.nashorn.api.scripting.NashornScriptEngineFactory"};
+    private static final String CODE_CACHE_PROPERTY = "nashorn.persistent.code.cache";
+
+    private final String[] options;
+
+    /**
+     * Creates a provider that uses the default Nashorn options
+     */
+    public NashornScriptEngineProvider() {
+        this(new String[0]);
+    }
+
+    public NashornScriptEngineProvider(String... options) {
+        this.options = options.clone();
+    }
+
+    /**
+     *
+     * @return a provider that uses {@link #THROUGHPUT_OPTIONS}
+     */
+    public static NashornScriptEngineProvider throughput() {
+        return new NashornScriptEngineProvider(THROUGHPUT_OPTIONS);
+    }
+
+    @Override
+    public String getName() {
+        return "Nashorn " + Arrays.toString(options);
+    }
+
+    @Override
+    public ScriptEngine createEngine(ClassLoader classLoader, File codeCacheDirectory) throws ScriptException {
+        ScriptEngineFactory factory = findFactory(classLoader);
+        if (factory == null) {
+            return null;
+        }
+        List<String> args = new ArrayList<>(Arrays.asList(options));
+        if (codeCacheDirectory != null) {
+            //nashorn only allows the code cache location to be set through a system property
+            System.setProperty(CODE_CACHE_PROPERTY, codeCacheDirectory.getAbsolutePath());
+            args.add("--persistent-code-cache");
+        }
+        try {
+            Method getScriptEngine = factory.getClass().getMethod("getScriptEngine", String[].class, ClassLoader.class);
+            return (ScriptEngine) getScriptEngine.invoke(factory, args.toArray(new String[args.size()]), classLoader);
+        } catch (ReflectiveOperationException e) {
+            throw new ScriptException(e);
+        }
+    }
+
+    private static ScriptEngineFactory findFactory(ClassLoader classLoader) {
+        for (ScriptEngineFactory factory : new ScriptEngineManager(classLoader).getEngineFactories()) {
+            if (Arrays.asList(FACTORY_CLASSES).contains(factory.getClass().getName())) {
+                return factory;
+            }
+        }
+        return null;
+    }
+}
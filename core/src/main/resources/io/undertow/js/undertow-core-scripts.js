@@ -27,6 +27,10 @@ var $undertow = {
         PredicateParser: Java.type("io.undertow.predicate.PredicateParser"),
         PredicateHandler: Java.type("io.undertow.server.handlers.PredicateHandler"),
         StringReadHandler: Java.type("io.undertow.js.StringReadHandler"),
+        JsonReadHandler: Java.type("io.undertow.js.JsonReadHandler"),
+        IncrementalJsonParser: Java.type("io.undertow.js.IncrementalJsonParser"),
+        BytesReadHandler: Java.type("io.undertow.js.BytesReadHandler"),
+        EntitySizeLimitHandler: Java.type("io.undertow.js.EntitySizeLimitHandler"),
         DataSource: Java.type("javax.sql.DataSource"),
         HandlerWrapper: Java.type("io.undertow.server.HandlerWrapper"),
         EagerFormParsingHandler: Java.type("io.undertow.server.handlers.form.EagerFormParsingHandler"),
@@ -37,12 +41,67 @@ var $undertow = {
         WebSockets: Java.type("io.undertow.websockets.core.WebSockets"),
         WebSocketConnectionCallback: Java.type("io.undertow.websockets.WebSocketConnectionCallback"),
         AbstractReceiveListener: Java.type("io.undertow.websockets.core.AbstractReceiveListener"),
-        ByteBuffer: Java.type("java.nio.ByteBuffer")
+        ByteBuffer: Java.type("java.nio.ByteBuffer"),
+        StandardCharsets: Java.type("java.nio.charset.StandardCharsets"),
+        BlockingGuard: Java.type("io.undertow.js.BlockingGuard"),
+        CompletableFuture: Java.type("java.util.concurrent.CompletableFuture"),
+        CompletionStage: Java.type("java.util.concurrent.CompletionStage"),
+        CompletionException: Java.type("java.util.concurrent.CompletionException"),
+        Connectors: Java.type("io.undertow.server.Connectors"),
+        SameThreadExecutor: Java.type("io.undertow.util.SameThreadExecutor"),
+        Runnable: Java.type("java.lang.Runnable"),
+        RuntimeException: Java.type("java.lang.RuntimeException"),
+        Throwable: Java.type("java.lang.Throwable"),
+        AttachmentKey: Java.type("io.undertow.util.AttachmentKey"),
+        Executor: Java.type("java.util.concurrent.Executor"),
+        HttpServerExchange: Java.type("io.undertow.server.HttpServerExchange"),
+        ExchangeCompletionListener: Java.type("io.undertow.server.ExchangeCompletionListener"),
+        ScriptResponses: Java.type("io.undertow.js.ScriptResponses"),
+        ScriptExecutors: Java.type("io.undertow.js.ScriptExecutors"),
+        ResponseWriter: Java.type("io.undertow.js.ResponseWriter"),
+        StaticHeaders: Java.type("io.undertow.js.StaticHeaders"),
+        ResponseCacheHandler: Java.type("io.undertow.js.ResponseCacheHandler"),
+        CoalescingHandler: Java.type("io.undertow.js.CoalescingHandler"),
+        ConcurrencyLimitHandler: Java.type("io.undertow.js.ConcurrencyLimitHandler"),
+        JsonWriter: Java.type("io.undertow.js.JsonWriter"),
+        Resource: Java.type("io.undertow.server.handlers.resource.Resource"),
+        Path: Java.type("java.nio.file.Path"),
+        File: Java.type("java.io.File"),
+        ByteArray: Java.type("byte[]")
     },
 
-    _allowed_arguments: {'template': true, 'template_type': true, 'headers': true, 'predicate': true, 'roles_allowed': true, 'transactional' : true},
+    _executor_key: Java.type("io.undertow.util.AttachmentKey").create(Java.type("java.util.concurrent.Executor").class),
+    /**
+     * The executor of the route an exchange is routed to, so its blocking wrappers run on that executor as well
+     */
+    _route_executor_key: Java.type("io.undertow.util.AttachmentKey").create(Java.type("java.util.concurrent.Executor").class),
+    _exchange_key: Java.type("io.undertow.util.AttachmentKey").create(Java.type("java.lang.Object").class),
+    /**
+     * Completes once the asynchronous result of the handler has been sent, see _complete_async
+     */
+    _async_key: Java.type("io.undertow.util.AttachmentKey").create(Java.type("java.util.concurrent.CompletableFuture").class),
+
+    _allowed_arguments: {'template': true, 'template_type': true, 'headers': true, 'predicate': true, 'roles_allowed': true, 'transactional' : true, 'non_blocking': true, 'executor': true, 'warmup': true, 'max_entity_size': true, 'cache': true, 'coalesce': true, 'concurrency': true},
 
     _injection_aliases: {},
+
+    /**
+     * The entity an alias needs read before the handler runs, see _entity_type
+     */
+    _injection_alias_entities: {},
+
+    /**
+     * The entities that the wrappers registered so far inject, as objects with the 'predicate' of the wrapper and the
+     * 'entities' it injects. Wrappers are applied to the routes registered after them, which read the entity for the
+     * wrappers that apply to a request, see _entity_read_handler
+     */
+    _wrapper_entities: [],
+
+    /**
+     * The entities that are read up front, ranked by how much of the request they keep. An entity that has been read
+     * can also be injected as any entity with a lower rank.
+     */
+    _entity_ranks: {json: 1, string: 2, bytes: 3},
     _entity_parsers: {
         string: function (data) {
             return data;
@@ -51,12 +110,39 @@ var $undertow = {
         json: function (data) {
             return JSON.parse(data);
         },
+
+        /**
+         * The entity as java.util.Map and java.util.List values, see IncrementalJsonParser
+         */
+        json_java: function (data) {
+            if (data == null) {
+                return null;
+            }
+            var parser = new $undertow._java.IncrementalJsonParser();
+            parser.parse($undertow._java.StandardCharsets.UTF_8.encode(data));
+            return parser.finish();
+        },
         form: function(data) {
 
         }
 
     },
 
+    /**
+     * The default maximum total size in bytes of the cached responses of a route
+     */
+    default_cache_size: 10 * 1024 * 1024,
+
+    /**
+     * The default maximum size in bytes of a response that coalesced requests can share
+     */
+    default_coalesce_size: 1024 * 1024,
+
+    /**
+     * The default number of seconds that clients rejected by a concurrency limit are asked to wait before retrying
+     */
+    default_retry_after: 1,
+
     default_params: {
         template_type: "mustache",
         headers: {'Content-Type': "text/html; charset=UTF-8"}
@@ -89,162 +175,47 @@ var $undertow = {
      */
     _wrappers: [],
 
+    /**
+     * The javascript view of an exchange. All methods live on the prototype, so creating an instance is cheap. A single
+     * instance is shared by all wrappers and the final handler of a request, see {@link $undertow._exchange}.
+     *
+     * @param underlyingExchange The HttpServerExchange
+     * @constructor
+     */
     Exchange: function (underlyingExchange) {
-
         this.$underlying = underlyingExchange;
+    },
 
-        /**
-         * Sets or gets a request header
-         *
-         *
-         * @param name The header name
-         * @param value The header value to set. If this is null the current request header is returned
-         * @returns {*} The specified request header
-         */
-        this.requestHeaders = function (name, value) {
-            if (arguments.length >= 2) {
-                underlyingExchange.requestHeaders.put(new $undertow._java.HttpString(name), value);
-            } else if (arguments.length == 1) {
-                return underlyingExchange.requestHeaders.getFirst(name);
-            } else {
-                return underlyingExchange.requestHeaders;
-            }
-        };
-
-        /**
-         * Sets or gets a response header
-         *
-         *
-         * @param name The header name
-         * @param value The header value to set. If this is null the current request header is returned
-         * @returns {*} The specified request header
-         */
-        this.responseHeaders = function (name, value) {
-            if (arguments.length >= 2) {
-                underlyingExchange.responseHeaders.put(new $undertow._java.HttpString(name), value);
-            } else if (arguments.length == 1) {
-                return underlyingExchange.responseHeaders.getFirst(name);
-            } else {
-                return underlyingExchange.responseHeaders;
-            }
-        };
-
-        /**
-         * Sends a response. If a number is given as the first parameter this is used as the response code.
-         *
-         * If the given response is a string it will be sent directly, otherwise it will be converted into JSON.
-         */
-        this.send = function () {
-            var toSend = "";
-            if(arguments.length == 1) {
-                toSend = arguments[0];
-            } else {
-                toSend = arguments[1];
-                this.status(arguments[0]);
-            }
-            if(typeof toSend == 'string') {
-                underlyingExchange.responseSender.send(toSend);
-            } else {
-                underlyingExchange.responseSender.send(JSON.stringify(result));
-            }
-        };
-
-        /**
-         * Redirects to a specific location
-         *
-         * @param location The location to redirect to
-         */
-        this.sendRedirect = function (location) {
-            this.responseHeaders("Location", location);
-            this.status(302);
-            this.endExchange();
-        };
-
-        /**
-         * Sets of gets the current response code
-         *
-         * @returns {*} The current response code
-         */
-        this.status = function () {
-            if (arguments.length > 0) {
-                underlyingExchange.setResponseCode(arguments[0]);
-            } else {
-                return underlyingExchange.responseCode;
-            }
-        };
-
-        this.endExchange = function () {
-            underlyingExchange.endExchange();
-        };
-
-        /**
-         * Gets a query parameter
-         *
-         * @param name The query parameter name
-         * @returns {*} the query parameter
-         */
-        this.param = function (name) {
-            var paramList = underlyingExchange.queryParameters.get(name);
-            if (paramList == null) {
-                return null;
-            }
-            return paramList.getFirst();
-        };
-
-        /**
-         * Gets a list of query parameters
-         *
-         * @param name The parameter name
-         * @returns {*} A list of query parameters
-         */
-        this.params = function (name) {
-            var params = underlyingExchange.queryParameters.get(name);
-            if (params == null) {
-                return null;
-            }
-            var it = params.iterator();
-            var ret = [];
-            while (it.hasNext()) {
-                ret.push(it.next());
-            }
-            return ret;
-        };
-
-        /**
-         * Returns the underlying session object.
-         *
-         * @param create If the session should be created if it does not exist. Defaults to true
-         * @returns {*} The session object
-         */
-        this.session = function (create) {
-            create = create == null ? true : create;
-            var src = this.$underlying.getAttachment($undertow._java.ServletRequestContext.ATTACHMENT_KEY);
-            return src.getOriginalRequest().getSession(create);
-        }
-
-        /**
-         *
-         * @returns {*} the servlet request
-         */
-        this.request = function() {
-            var src = this.$underlying.getAttachment($undertow._java.ServletRequestContext.ATTACHMENT_KEY);
-            return src.getOriginalRequest();
-        }
+    /**
+     * Streams a response, see io.undertow.js.ResponseWriter for the details of backpressure.
+     *
+     * @param underlying The io.undertow.js.ResponseWriter
+     * @constructor
+     */
+    ResponseWriter: function (underlying) {
+        this.$underlying = underlying;
+    },
 
-        /**
-         *
-         * @returns {*} the servlet response
-         */
-        this.response = function() {
-            var src = this.$underlying.getAttachment($undertow._java.ServletRequestContext.ATTACHMENT_KEY);
-            return src.getOriginalResponse();
+    /**
+     *
+     * @param underlyingExchange The HttpServerExchange
+     * @returns {*} the Exchange wrapper for the exchange, which is created on first use
+     * @private
+     */
+    _exchange: function (underlyingExchange) {
+        var $exchange = underlyingExchange.getAttachment($undertow._exchange_key);
+        if ($exchange == null) {
+            $exchange = new $undertow.Exchange(underlyingExchange);
+            underlyingExchange.putAttachment($undertow._exchange_key, $exchange);
         }
+        return $exchange;
     },
 
     JDBCWrapper: function ($underlying) {
         this.$underlying = $underlying;
 
         this.query = function () {
+            $undertow._java.BlockingGuard.check("JDBC query");
             var conn = null;
             var statement = null;
             conn = $underlying.getConnection();
@@ -259,6 +230,7 @@ var $undertow = {
         }
 
         this._select = function (args) {
+            $undertow._java.BlockingGuard.check("JDBC select");
             var conn = null;
             var statement = null;
             var rs = null;
@@ -354,14 +326,9 @@ var $undertow = {
             if(message == null) {
                 throw "Message was null";
             } else if(message.constructor == ArrayBuffer) {
-                var view = new Uint8Array(message);
-                var buf = $undertow._java.ByteBuffer.allocate(view.length);
-                for(var i = 0; i < view.length; ++i) {
-                    buf.put(view[i]);
-                }
-                buf.flip();
-                $undertow._java.WebSockets.sendBinary(buf, this.$underlying, null);
-
+                $undertow._java.WebSockets.sendBinary($undertow._to_byte_buffer(new Int8Array(message)), this.$underlying, null);
+            } else if(message instanceof $undertow._java.ByteBuffer) {
+                $undertow._java.WebSockets.sendBinary(message.duplicate(), this.$underlying, null);
             } else if(typeof  message == 'string') {
                 $undertow._java.WebSockets.sendText(message, this.$underlying, null);
             } else {
@@ -502,9 +469,36 @@ var $undertow = {
                         }
                         return ret;
                     }
+                } else if (suffix == 'bytes') {
+                    return function (exchange) {
+                        return exchange.$underlying.getAttachment($undertow._java.BytesReadHandler.DATA);
+                    }
+                } else if (suffix == 'stream') {
+                    return function (exchange) {
+                        $undertow._java.BlockingGuard.check("Reading the request entity as a stream");
+                        var underlyingExchange = exchange.$underlying;
+                        if (!underlyingExchange.blocking) {
+                            underlyingExchange.startBlocking();
+                        }
+                        return underlyingExchange.inputStream;
+                    }
                 } else {
                     return function (exchange) {
+                        if (suffix == 'json_java') {
+                            //parsed while it was read, unless the route also needs the raw entity
+                            var json = exchange.$underlying.getAttachment($undertow._java.JsonReadHandler.DATA);
+                            if (json != null) {
+                                return json;
+                            }
+                        }
                         var data = exchange.$underlying.getAttachment($undertow._java.StringReadHandler.DATA);
+                        if (data == null) {
+                            //the route also injects the entity as bytes, which is read instead
+                            var bytes = exchange.$underlying.getAttachment($undertow._java.BytesReadHandler.DATA);
+                            if (bytes != null) {
+                                data = $undertow._java.StandardCharsets.UTF_8.decode(bytes.duplicate()).toString();
+                            }
+                        }
                         if (suffix == null) {
                             return data;
                         } else {
@@ -538,6 +532,70 @@ var $undertow = {
         }
     },
 
+    /**
+     * Copies a typed array view into a ByteBuffer. Script array buffers cannot be wrapped, so this single copy
+     * is the cheapest way to get their contents to the connection.
+     *
+     * @param view An Int8Array view of the data
+     * @private
+     */
+    _to_byte_buffer: function (view) {
+        var bytes = new $undertow._java.ByteArray(view.length);
+        for (var i = 0; i < bytes.length; ++i) {
+            bytes[i] = view[i];
+        }
+        return $undertow._java.ByteBuffer.wrap(bytes);
+    },
+
+    /**
+     * Converts binary data into a ByteBuffer, without copying it if possible
+     *
+     * @param data The data
+     * @returns {*} a ByteBuffer, or null if the data is not a ByteBuffer, byte array, ArrayBuffer or typed array
+     * @private
+     */
+    _binary_data: function (data) {
+        if (data instanceof $undertow._java.ByteBuffer) {
+            //the buffer may be sent again, so its position is left alone
+            return data.duplicate();
+        } else if (data instanceof $undertow._java.ByteArray) {
+            return $undertow._java.ByteBuffer.wrap(data);
+        } else if (data instanceof ArrayBuffer) {
+            return $undertow._to_byte_buffer(new Int8Array(data));
+        } else if (data != null && data.buffer instanceof ArrayBuffer && typeof data.byteOffset == 'number') {
+            return $undertow._to_byte_buffer(new Int8Array(data.buffer, data.byteOffset, data.byteLength));
+        }
+        return null;
+    },
+
+    /**
+     * Works out which entity an injection needs to be read before the handler is invoked
+     *
+     * @param p The injection
+     * @returns {*} 'form', 'bytes', 'stream', 'json' for the entity parsed while it is read, or 'string' for the buffered
+     *          string, or null if the entity is not injected
+     * @private
+     */
+    _entity_type: function (p) {
+        var index = p.indexOf(":");
+        if (index < 0) {
+            var entity = $undertow._injection_alias_entities[p];
+            return entity == null ? null : entity;
+        }
+        if (p.substr(0, index) != '$entity') {
+            return null;
+        }
+        var suffix = p.substr(index + 1);
+        if (suffix == 'form' || suffix == 'bytes' || suffix == 'stream') {
+            return suffix;
+        }
+        if (suffix == 'json_java') {
+            //only the Java view can be built while the entity is read, $entity:json is a native value built by JSON.parse
+            return 'json';
+        }
+        return 'string';
+    },
+
     /**
      * Manually resolves an injection
      *
@@ -556,10 +614,13 @@ var $undertow = {
      * Creates a handler function for a terminal handler
      *
      * @param  userHandler The handler function/array
+     * @param  userArgs The route options
+     * @param  method The HTTP method of the route, used for warm-up
+     * @param  route The path of the route, used for warm-up
      * @returns {*} a HttpHandler implementation that can be registered with Undertow
      * @private
      */
-    _create_handler_function: function (userHandler, userArgs) {
+    _create_handler_function: function (userHandler, userArgs, method, route) {
         if (userHandler == null) {
             throw "handler function cannot be null";
         }
@@ -580,10 +641,15 @@ var $undertow = {
             }
         }
 
+        var entities = {};
         if (userHandler.constructor === Array) {
             handler = userHandler[userHandler.length - 1];
             for (var i = 0; i < userHandler.length - 1; ++i) {
                 params.push($undertow._create_injection_function(userHandler[i]));
+                var entity = $undertow._entity_type(userHandler[i]);
+                if (entity != null) {
+                    entities[entity] = true;
+                }
             }
         }
         var template = args["template"];
@@ -600,99 +666,295 @@ var $undertow = {
                 headers['Content-Type'] = $undertow.templateContentType;
             }
         }
+        //resolved once, so applying them does not allocate per request
+        var staticHeaders = new $undertow._java.StaticHeaders(headers);
         var roles = args['roles_allowed'];
         if(roles != null && !(roles.constructor === Array)) {
             roles = [roles];
         }
         var transactional = args['transactional'];
-
-        var httpHandler = new $undertow._java.HttpHandler({
-            handleRequest: function (underlyingExchange) {
-                if (underlyingExchange.inIoThread) {
-                    underlyingExchange.dispatch(httpHandler);
-                    return;
+        var nonBlocking = args['non_blocking'] == true;
+        if(nonBlocking && transactional) {
+            throw "A transactional handler cannot be non blocking";
+        }
+        var cache = args['cache'];
+        if(cache != null && roles != null) {
+            throw "A handler with roles_allowed cannot be cached";
+        }
+        var coalesce = args['coalesce'];
+        if(coalesce != null && coalesce !== false && roles != null) {
+            throw "A handler with roles_allowed cannot coalesce requests";
+        }
+        var routeExecutor = args['executor'];
+        if(typeof routeExecutor == 'string') {
+            routeExecutor = $undertow_support.getExecutor(routeExecutor);
+        }
+        var executor = routeExecutor == null ? $undertow_support.defaultExecutor : routeExecutor;
+
+        var sendResult = function ($exchange, result) {
+            var writer = $exchange.$underlying.getAttachment($undertow._java.ResponseWriter.ATTACHMENT_KEY);
+            if(writer != null) {
+                //the handler has streamed the response itself
+                writer.end();
+                return;
+            }
+            if(result != null) {
+                if (template != null) {
+                    $exchange.send(templateInstance.apply($undertow.toTemplateData(result)));
+                } else {
+                    $exchange.send(result);
                 }
-                var $exchange = new $undertow.Exchange(underlyingExchange);
+            }
+        };
 
-                if(roles != null && roles.length > 0) {
-                    var sc = underlyingExchange.getSecurityContext();
-                    sc.setAuthenticationRequired();
-                    if(!sc.authenticated) {
-                        if(!sc.authenticate()) {
-                            underlyingExchange.endExchange();
-                            return;
-                        }
-                    }
-                    var account = sc.authenticatedAccount;
-                    if(account == null) {
+        var handle = function (underlyingExchange) {
+            var $exchange = $undertow._exchange(underlyingExchange);
+
+            if(roles != null && roles.length > 0) {
+                var sc = underlyingExchange.getSecurityContext();
+                sc.setAuthenticationRequired();
+                if(!sc.authenticated) {
+                    if(!sc.authenticate()) {
                         underlyingExchange.endExchange();
                         return;
                     }
-                    var ok = false;
-                    for(var i in roles) {
-                        var role = roles[i];
-                        if(role == '**') {
-                            ok = true;
-                            break;
-                        } else if(account.roles.contains(role)) {
-                            ok = true;
-                            break;
-                        }
+                }
+                var account = sc.authenticatedAccount;
+                if(account == null) {
+                    underlyingExchange.endExchange();
+                    return;
+                }
+                var ok = false;
+                for(var i in roles) {
+                    var role = roles[i];
+                    if(role == '**') {
+                        ok = true;
+                        break;
+                    } else if(account.roles.contains(role)) {
+                        ok = true;
+                        break;
                     }
-                    if(!ok) {
-                        var src = underlyingExchange.getAttachment($undertow._java.ServletRequestContext.ATTACHMENT_KEY);
-                        src.originalResponse.sendError(403);
+                }
+                if(!ok) {
+                    var src = underlyingExchange.getAttachment($undertow._java.ServletRequestContext.ATTACHMENT_KEY);
+                    src.originalResponse.sendError(403);
+                    return;
+                }
+
+            }
+
+            staticHeaders.apply(underlyingExchange);
+            var ut = null;
+            try {
+                var requestHandledCallbacks = new Array();
+                if(transactional) {
+                    ut = $undertow.resolve('jndi:java:comp/UserTransaction', requestHandledCallbacks);
+                    ut.begin();
+                }
+                var paramList = [];
+                paramList.push($exchange);
+                Array.prototype.push.apply(requestHandledCallbacks, $undertow._create_injected_parameter_list(params, paramList, $exchange));
+                var result = handler.apply(null, paramList);
+                if ($undertow._is_async(result)) {
+                    var future = $undertow._to_future(result);
+                    if (ut == null) {
+                        //the exchange stays open until the result is available, and the worker thread is released
+                        $undertow._complete_async(underlyingExchange, future, nonBlocking, executor, function (value, error) {
+                            $undertow._run_callbacks(requestHandledCallbacks);
+                            if (error != null) {
+                                throw error;
+                            }
+                            sendResult($exchange, value);
+                        });
                         return;
                     }
-
+                    //the transaction is associated with this thread, so we have to wait for the result here, which
+                    //blocks the thread until the result is available
+                    result = $undertow._await(future);
+                }
+                $undertow._run_callbacks(requestHandledCallbacks);
+                sendResult($exchange, result);
+                if(ut != null) {
+                    ut.commit();
                 }
+            } catch(e) {
+                if(ut != null) {
+                    ut.rollback();
+                }
+                throw e;
+            }
+        };
 
-                for(var k in headers) {
-                    $exchange.responseHeaders(k, headers[k]);
+        if(args['warmup'] && method != null) {
+            $undertow._add_warmup(method, route, args['warmup'], params.length, function ($exchange, paramList) {
+                staticHeaders.apply($exchange.$underlying);
+                var result = handler.apply(null, paramList);
+                if ($undertow._is_async(result)) {
+                    result = $undertow._await($undertow._to_future(result));
                 }
-                var ut = null;
-                try {
-                    var requestHandledCallbacks = new Array();
-                    if(transactional) {
-                        ut = $undertow.resolve('jndi:java:comp/UserTransaction', requestHandledCallbacks);
-                        ut.begin();
-                    }
-                    var paramList = [];
-                    paramList.push($exchange);
-                    Array.prototype.push.apply(requestHandledCallbacks, $undertow._create_injected_parameter_list(params, paramList, $exchange));
-                    var result = handler.apply(null, paramList);
-                    if (requestHandledCallbacks.length > 0) {
-                        for (var i = 0; i < requestHandledCallbacks.length; ++i) {
-                            requestHandledCallbacks[i].run();
-                        }
-                    }
-                    if(result != null) {
-                        if (template != null) {
-                            $exchange.send(templateInstance.apply($undertow.toTemplateData(result)));
-                        } else if(typeof result == 'string') {
-                            $exchange.send(result);
-                        } else {
-                            $exchange.send(JSON.stringify(result));
-                        }
-                    }
-                    if(ut != null) {
-                        ut.commit();
+                sendResult($exchange, result);
+            });
+        }
+
+        var httpHandler = new $undertow._java.HttpHandler({
+            handleRequest: function (underlyingExchange) {
+                if (!nonBlocking) {
+                    if ($undertow._needs_dispatch(underlyingExchange, executor)) {
+                        $undertow._dispatch(underlyingExchange, executor, httpHandler);
+                    } else {
+                        handle(underlyingExchange);
                     }
-                } catch(e) {
-                    if(ut != null) {
-                        ut.rollback();
+                } else if (!underlyingExchange.inIoThread) {
+                    handle(underlyingExchange);
+                } else {
+                    //non blocking handlers run directly on the IO thread, any attempt to block is an error
+                    var previous = $undertow._java.BlockingGuard.enter(underlyingExchange.requestMethod + " " + underlyingExchange.relativePath);
+                    try {
+                        handle(underlyingExchange);
+                    } finally {
+                        $undertow._java.BlockingGuard.exit(previous);
                     }
-                    throw e;
                 }
             }
         });
+        var concurrency = args['concurrency'];
+        if(concurrency != null && method != null) {
+            //innermost, so responses served from the cache or shared by coalesced requests never take a slot
+            httpHandler = $undertow._concurrency_limit_handler(httpHandler, concurrency, method, route);
+        }
+        if(coalesce != null && coalesce !== false && method != null) {
+            //inside the cache, so only cache misses are coalesced
+            httpHandler = $undertow._coalescing_handler(httpHandler, coalesce, method, route);
+        }
+        if(cache != null && method != null) {
+            //inside the wrappers, so they still run for responses served from the cache
+            httpHandler = $undertow._cache_handler(httpHandler, cache, method, route);
+        }
         for(var i in $undertow._wrappers) {
             httpHandler = $undertow._wrappers[i].wrap(httpHandler);
         }
         for (var i in $undertow_support.handlerWrappers) {
             httpHandler = $undertow_support.handlerWrappers[i].wrap(httpHandler);
         }
-        return new $undertow._java.EagerFormParsingHandler().setNext(new $undertow._java.StringReadHandler(httpHandler));
+        if (routeExecutor != null) {
+            httpHandler = $undertow._route_executor_handler(httpHandler, routeExecutor);
+        }
+        var maxEntitySize = args['max_entity_size'] == null ? $undertow_support.maxEntitySize : args['max_entity_size'];
+        return $undertow._entity_read_handler(httpHandler, entities, $undertow._wrapper_entities, maxEntitySize);
+    },
+
+    /**
+     * Wraps a route handler with the handlers that read the entities that it and its wrappers inject before it is
+     * invoked. The entities of a wrapper are only read for the requests that its predicate matches, and the entity is
+     * only read once, in a form that can be injected into all of them.
+     *
+     * @param next The handler
+     * @param entities The entities the route injects, see _entity_type
+     * @param wrappers The entities of the wrappers of the route, see _wrapper_entities
+     * @param maxEntitySize The maximum entity size
+     * @returns {*} the handler that reads the entity
+     * @private
+     */
+    _entity_read_handler: function (next, entities, wrappers, maxEntitySize) {
+        var routeKey = $undertow._entity_key(entities);
+        var conditional = [];
+        for (var i = 0; i < wrappers.length; ++i) {
+            var merged = $undertow._merge_entities(entities, wrappers[i].entities);
+            if ($undertow._entity_key(merged) != routeKey) {
+                conditional.push(wrappers[i]);
+            }
+        }
+        var routeReader = $undertow._entity_readers(next, entities, maxEntitySize);
+        if (conditional.length == 0) {
+            return routeReader;
+        }
+        //every combination of entities that the matching wrappers can add, so nothing is created per request
+        var readers = {};
+        readers[routeKey] = routeReader;
+        var reads = [null, 'json', 'string', 'bytes'];
+        for (var r = 0; r < reads.length; ++r) {
+            var read = reads[r];
+            for (var form = 0; form < 2; ++form) {
+                for (var stream = 0; stream < 2; ++stream) {
+                    var combination = {form: form == 1 || entities['form'], stream: stream == 1 || entities['stream']};
+                    if (read != null) {
+                        combination[read] = true;
+                    }
+                    combination = $undertow._merge_entities(entities, combination);
+                    var key = $undertow._entity_key(combination);
+                    if (readers[key] == null) {
+                        readers[key] = $undertow._entity_readers(next, combination, maxEntitySize);
+                    }
+                }
+            }
+        }
+        return new $undertow._java.HttpHandler({
+            handleRequest: function (underlyingExchange) {
+                var needed = entities;
+                for (var i = 0; i < conditional.length; ++i) {
+                    var wrapper = conditional[i];
+                    if (wrapper.predicate == null || wrapper.predicate.resolve(underlyingExchange)) {
+                        needed = $undertow._merge_entities(needed, wrapper.entities);
+                    }
+                }
+                readers[$undertow._entity_key(needed)].handleRequest(underlyingExchange);
+            }
+        });
+    },
+
+    /**
+     *
+     * @returns {*} the entities that have to be read for both sets of entities, with at most one of 'json', 'string'
+     *          and 'bytes', which is the one that can be injected as all the others
+     * @private
+     */
+    _merge_entities: function (first, second) {
+        var ranks = $undertow._entity_ranks;
+        var merged = {form: first['form'] || second['form'], stream: first['stream'] || second['stream']};
+        var read = null;
+        for (var i in ranks) {
+            if ((first[i] || second[i]) && (read == null || ranks[i] > ranks[read])) {
+                read = i;
+            }
+        }
+        if (read != null) {
+            merged[read] = true;
+        }
+        return merged;
+    },
+
+    /**
+     *
+     * @returns {*} a key that is the same for all sets of entities that are read the same way
+     * @private
+     */
+    _entity_key: function (entities) {
+        var key = entities['bytes'] ? 'bytes' : entities['string'] ? 'string' : entities['json'] ? 'json' : '';
+        return key + (entities['form'] ? '+form' : '') + (entities['stream'] ? '+stream' : '');
+    },
+
+    /**
+     * Creates the handlers that read the given entities, and then invoke the next handler
+     *
+     * @private
+     */
+    _entity_readers: function (next, entities, maxEntitySize) {
+        var httpHandler = next;
+        if (entities['bytes']) {
+            httpHandler = new $undertow._java.BytesReadHandler(httpHandler, maxEntitySize);
+        } else if (entities['string']) {
+            httpHandler = new $undertow._java.StringReadHandler(httpHandler, maxEntitySize);
+        } else if (entities['json']) {
+            httpHandler = new $undertow._java.JsonReadHandler(httpHandler, maxEntitySize);
+        }
+        if (entities['form']) {
+            httpHandler = new $undertow._java.EagerFormParsingHandler().setNext(httpHandler);
+        }
+        if (maxEntitySize > 0 && (entities['form'] || entities['stream'])) {
+            //these are read by Undertow or by the handler itself, so the limit is enforced by the exchange
+            httpHandler = new $undertow._java.EntitySizeLimitHandler(httpHandler, maxEntitySize);
+        }
+        return httpHandler;
     },
 
     /**
@@ -719,6 +981,274 @@ var $undertow = {
         return requestHandledCallbacks;
     },
 
+    /**
+     *
+     * @returns {boolean} true if a blocking handler has to be dispatched before it can run
+     * @private
+     */
+    _needs_dispatch: function (underlyingExchange, executor) {
+        if (underlyingExchange.inIoThread) {
+            return true;
+        }
+        return executor != null && underlyingExchange.getAttachment($undertow._executor_key) !== executor;
+    },
+
+    /**
+     * Wraps a route handler with a response cache
+     *
+     * @param handler The route handler
+     * @param cache The cache option of the route, either the time to live in seconds or an object with 'ttl',
+     * 'vary_headers', 'vary_params' and 'max_size' (the maximum total size in bytes of the cached responses) properties
+     * @param method The HTTP method
+     * @param route The route path
+     * @private
+     */
+    _cache_handler: function (handler, cache, method, route) {
+        if (typeof cache == 'number') {
+            cache = {ttl: cache};
+        }
+        if (typeof cache['ttl'] != 'number' || !(cache['ttl'] > 0)) {
+            throw "The cache option of " + method + " " + route + " needs a positive ttl in seconds";
+        }
+        var maxSize = cache['max_size'] == null ? $undertow.default_cache_size : cache['max_size'];
+        var varyHeaders = cache['vary_headers'] == null ? null : Java.to(cache['vary_headers'], "java.lang.String[]");
+        var varyParams = cache['vary_params'] == null ? null : Java.to(cache['vary_params'], "java.lang.String[]");
+        var responseCache = $undertow_support.getResponseCache(method, route, maxSize);
+        return new $undertow._java.ResponseCacheHandler(handler, responseCache, cache['ttl'] * 1000, varyHeaders, varyParams);
+    },
+
+    /**
+     * Wraps a route handler so that identical concurrent GET requests share a single execution
+     *
+     * @param handler The route handler
+     * @param coalesce The coalesce option of the route, either true or an object with 'vary_headers', 'vary_params'
+     * and 'max_size' (the maximum size in bytes of a response that can be shared) properties
+     * @param method The HTTP method
+     * @param route The route path
+     * @private
+     */
+    _coalescing_handler: function (handler, coalesce, method, route) {
+        if (coalesce === true) {
+            coalesce = {};
+        }
+        var maxSize = coalesce['max_size'] == null ? $undertow.default_coalesce_size : coalesce['max_size'];
+        var varyHeaders = coalesce['vary_headers'] == null ? null : Java.to(coalesce['vary_headers'], "java.lang.String[]");
+        var varyParams = coalesce['vary_params'] == null ? null : Java.to(coalesce['vary_params'], "java.lang.String[]");
+        var coalescer = $undertow_support.getRequestCoalescer(method, route, maxSize);
+        return new $undertow._java.CoalescingHandler(handler, coalescer, varyHeaders, varyParams);
+    },
+
+    /**
+     * Wraps a route handler with a concurrency limit
+     *
+     * @param handler The route handler
+     * @param concurrency The concurrency option of the route, either the maximum number of concurrent requests or an
+     * object with 'max', 'queue' (the maximum number of requests that wait for a slot, 0 by default) and
+     * 'retry_after' (in seconds) properties
+     * @param method The HTTP method
+     * @param route The route path
+     * @private
+     */
+    _concurrency_limit_handler: function (handler, concurrency, method, route) {
+        if (typeof concurrency == 'number') {
+            concurrency = {max: concurrency};
+        }
+        var queue = concurrency['queue'] == null ? 0 : concurrency['queue'];
+        var retryAfter = concurrency['retry_after'] == null ? $undertow.default_retry_after : concurrency['retry_after'];
+        var limit = $undertow_support.getConcurrencyLimit(method, route, concurrency['max'], queue, retryAfter);
+        return new $undertow._java.ConcurrencyLimitHandler(handler, limit);
+    },
+
+    /**
+     * Records the executor of a route before its wrappers run, see _route_executor_key
+     *
+     * @private
+     */
+    _route_executor_handler: function (next, routeExecutor) {
+        return new $undertow._java.HttpHandler({
+            handleRequest: function (underlyingExchange) {
+                underlyingExchange.putAttachment($undertow._route_executor_key, routeExecutor);
+                next.handleRequest(underlyingExchange);
+            }
+        });
+    },
+
+    /**
+     * Dispatches the handler to the given executor, or to the XNIO worker if the executor is null. Requests that the
+     * executor rejects are answered with a 503.
+     *
+     * @private
+     */
+    _dispatch: function (underlyingExchange, executor, handler) {
+        if (executor == null) {
+            underlyingExchange.dispatch(handler);
+        } else {
+            underlyingExchange.putAttachment($undertow._executor_key, executor);
+            $undertow._java.ScriptExecutors.dispatch(underlyingExchange, executor, handler);
+        }
+    },
+
+    /**
+     * Registers a warm-up task for a route. The task runs the handler against a detached exchange that has no
+     * connection, and that discards anything that is sent.
+     *
+     * @param method The HTTP method
+     * @param route The route path
+     * @param warmup The warmup option of the route, either true or an object with 'path', 'params', 'headers' and 'injected' properties
+     * @param injectionCount The number of injected parameters the handler expects
+     * @param invoke A function that invokes the handler with the exchange wrapper and parameter list
+     * @private
+     */
+    _add_warmup: function (method, route, warmup, injectionCount, invoke) {
+        if (warmup === true) {
+            warmup = {};
+        }
+        var injected = warmup['injected'] == null ? [] : warmup['injected'];
+        $undertow_support.addWarmup(method, route, new $undertow._java.Runnable({
+            run: function () {
+                var underlyingExchange = new $undertow._java.HttpServerExchange(null);
+                underlyingExchange.setRequestMethod(new $undertow._java.HttpString(method));
+                underlyingExchange.setRelativePath(warmup['path'] == null ? route : warmup['path']);
+                for (var name in warmup['params']) {
+                    underlyingExchange.addQueryParam(name, warmup['params'][name]);
+                }
+                for (var name in warmup['headers']) {
+                    underlyingExchange.requestHeaders.put(new $undertow._java.HttpString(name), warmup['headers'][name]);
+                }
+                var $exchange = new $undertow._WarmupExchange(underlyingExchange);
+                var paramList = [$exchange];
+                for (var i = 0; i < injectionCount; ++i) {
+                    paramList.push(injected[i]);
+                }
+                invoke($exchange, paramList);
+            }
+        }));
+    },
+
+    _run_callbacks: function (requestHandledCallbacks) {
+        for (var i = 0; i < requestHandledCallbacks.length; ++i) {
+            requestHandledCallbacks[i].run();
+        }
+    },
+
+    /**
+     *
+     * @param result The value returned by a handler
+     * @returns {boolean} true if the result is a CompletionStage or a javascript thenable
+     * @private
+     */
+    _is_async: function (result) {
+        if (result == null || typeof result == 'string') {
+            return false;
+        }
+        if (result instanceof $undertow._java.CompletionStage) {
+            return true;
+        }
+        return typeof result == 'object' && typeof result.then == 'function';
+    },
+
+    /**
+     * Adapts a CompletionStage or thenable to a CompletableFuture
+     *
+     * @private
+     */
+    _to_future: function (result) {
+        var future = new $undertow._java.CompletableFuture();
+        if (result instanceof $undertow._java.CompletionStage) {
+            result.whenComplete(function (value, error) {
+                if (error != null) {
+                    future.completeExceptionally(error);
+                } else {
+                    future.complete(value);
+                }
+            });
+        } else {
+            result.then(function (value) {
+                future.complete(value);
+            }, function (error) {
+                future.completeExceptionally(error instanceof $undertow._java.Throwable ? error : new $undertow._java.RuntimeException(String(error)));
+            });
+        }
+        return future;
+    },
+
+    _await: function (future) {
+        try {
+            return future.join();
+        } catch (e) {
+            if (e instanceof $undertow._java.CompletionException && e.cause != null) {
+                throw e.cause;
+            }
+            throw e;
+        }
+    },
+
+    /**
+     * Keeps the exchange open until the future completes, and then invokes the completion function as the root handler
+     * of the exchange. Non blocking handlers are completed on the IO thread, all others on the executor of the handler.
+     *
+     * @param underlyingExchange The exchange
+     * @param future The CompletableFuture that provides the result
+     * @param nonBlocking If the handler is non blocking
+     * @param executor The executor of the handler, or null to use the XNIO worker
+     * @param completion A function that is passed the result value and error
+     * @private
+     */
+    _complete_async: function (underlyingExchange, future, nonBlocking, executor, completion) {
+        var handled = new $undertow._java.CompletableFuture();
+        underlyingExchange.putAttachment($undertow._async_key, handled);
+        //in case the exchange ends before the result is available
+        underlyingExchange.addExchangeCompleteListener(new $undertow._java.ExchangeCompletionListener({
+            exchangeEvent: function (exchange, nextListener) {
+                try {
+                    handled.complete(null);
+                } finally {
+                    nextListener.proceed();
+                }
+            }
+        }));
+        var completionHandler = new $undertow._java.HttpHandler({
+            handleRequest: function (exchange) {
+                var value = null;
+                var error = null;
+                try {
+                    value = $undertow._await(future);
+                } catch (e) {
+                    error = e;
+                }
+                try {
+                    if (!nonBlocking) {
+                        completion(value, error);
+                        return;
+                    }
+                    var previous = $undertow._java.BlockingGuard.enter(exchange.requestMethod + " " + exchange.relativePath);
+                    try {
+                        completion(value, error);
+                    } finally {
+                        $undertow._java.BlockingGuard.exit(previous);
+                    }
+                } finally {
+                    handled.complete(null);
+                }
+            }
+        });
+        //the callback is only registered once the current call stack has returned, so the exchange cannot be
+        //completed by another thread while this handler is still running
+        underlyingExchange.dispatch($undertow._java.SameThreadExecutor.INSTANCE, new $undertow._java.Runnable({
+            run: function () {
+                future.whenComplete(function () {
+                    var completionExecutor = nonBlocking ? underlyingExchange.ioThread : executor;
+                    if (completionExecutor == null) {
+                        completionExecutor = underlyingExchange.connection.worker;
+                    }
+                    completionExecutor.execute(function () {
+                        $undertow._java.Connectors.executeRootHandler(completionHandler, underlyingExchange);
+                    });
+                });
+            }
+        }));
+    },
+
     onGet: function () {
         var args = ["GET"];
         for (var i = 0; i < arguments.length; ++i) {
@@ -789,39 +1319,65 @@ var $undertow = {
                 predicate = arguments[2]["predicate"];
             }
             if(predicate != null) {
-                $undertow_support.routingHandler.add(method, route, $undertow._java.PredicateParser.parse(predicate, $undertow_support.classLoader), $undertow._create_handler_function(arguments[3], args));
+                $undertow_support.addRoute(method, route, $undertow._java.PredicateParser.parse(predicate, $undertow_support.classLoader), $undertow._create_handler_function(arguments[3], args, method, route));
             } else {
-                $undertow_support.routingHandler.add(method, route, $undertow._create_handler_function(arguments[3], args));
+                $undertow_support.addRoute(method, route, null, $undertow._create_handler_function(arguments[3], args, method, route));
             }
         } else {
-            $undertow_support.routingHandler.add(method, route, $undertow._create_handler_function(arguments[2], {}));
+            $undertow_support.addRoute(method, route, null, $undertow._create_handler_function(arguments[2], {}, method, route));
         }
 
         return $undertow;
     },
 
-
+    /**
+     * Registers a wrapper that runs before the routes registered after it. The wrapper is passed the exchange, a $next
+     * function that invokes the rest of the chain, and its injections.
+     * <p>
+     * If the handler returns a promise or CompletionStage $next() returns before its result is available, so code after
+     * $next() runs before the result is sent. The request handled callbacks of the wrapper's injections are run once it
+     * has been sent.
+     *
+     * @param predicate An optional predicate that selects the requests that the wrapper applies to
+     * @param handler The wrapper function, or an array of injections followed by the function
+     * @param options An optional object, 'non_blocking' runs the wrapper on the IO thread
+     */
     wrapper: function () {
         var predicate = null;
         var userHandler = null;
-        if (arguments.length == 1) {
+        var options = {};
+        var length = arguments.length;
+        var last = arguments[length - 1];
+        if (length > 1 && typeof last == 'object' && !(last.constructor === Array)) {
+            options = last;
+            length--;
+        }
+        if (length == 1) {
             userHandler = arguments[0];
         } else {
             predicate = arguments[0];
             userHandler = arguments[1];
         }
+        var nonBlocking = options['non_blocking'] == true;
+        var executor = $undertow_support.defaultExecutor;
         if (predicate != null) {
             predicate = $undertow._java.PredicateParser.parse(predicate, $undertow_support.classLoader);
         }
 
         var handler = userHandler;
         var params = [];
+        var entities = {};
         if (userHandler.constructor === Array) {
             handler = userHandler[userHandler.length - 1];
             for (var i = 0; i < userHandler.length - 1; ++i) {
                 params.push($undertow._create_injection_function(userHandler[i]));
+                var entity = $undertow._entity_type(userHandler[i]);
+                if (entity != null) {
+                    entities[entity] = true;
+                }
             }
         }
+        $undertow._wrapper_entities.push({predicate: predicate, entities: entities});
         $undertow._wrappers.push(new $undertow._java.HandlerWrapper({
 
             wrap: function (next) {
@@ -829,23 +1385,44 @@ var $undertow = {
                 var filterHttpHandler = new $undertow._java.HttpHandler({
                     handleRequest: function (underlyingExchange) {
 
-                        if (underlyingExchange.inIoThread) {
-                            underlyingExchange.dispatch(filterHttpHandler);
-                            return;
+                        var guarded = false;
+                        var previous = null;
+                        if (!nonBlocking) {
+                            //the whole chain runs on the route's executor, so the route is never dispatched again
+                            //while the wrapper is still running the code after $next()
+                            var routeExecutor = underlyingExchange.getAttachment($undertow._route_executor_key);
+                            if ($undertow._needs_dispatch(underlyingExchange, routeExecutor)) {
+                                $undertow._dispatch(underlyingExchange, routeExecutor == null ? executor : routeExecutor, filterHttpHandler);
+                                return;
+                            }
+                        } else if (underlyingExchange.inIoThread) {
+                            previous = $undertow._java.BlockingGuard.enter("wrapper " + underlyingExchange.relativePath);
+                            guarded = true;
                         }
-                        //TODO: re-use this between filters and handlers
-                        var $exchange = new $undertow.Exchange(underlyingExchange);
-
-                        var paramList = [];
-                        paramList.push($exchange);
-                        paramList.push(function () {
-                            next.handleRequest(underlyingExchange);
-                        });
-                        var requestHandledCallbacks = $undertow._create_injected_parameter_list(params, paramList, $exchange);
-                        handler.apply(null, paramList);
-                        if (requestHandledCallbacks != null && requestHandledCallbacks.constructor === Array) {
-                            for (var i = 0; i < requestHandledCallbacks.length; ++i) {
-                                requestHandledCallbacks[i].run();
+                        try {
+                            var $exchange = $undertow._exchange(underlyingExchange);
+
+                            var paramList = [];
+                            paramList.push($exchange);
+                            paramList.push(function () {
+                                next.handleRequest(underlyingExchange);
+                            });
+                            var requestHandledCallbacks = $undertow._create_injected_parameter_list(params, paramList, $exchange);
+                            handler.apply(null, paramList);
+                            if (requestHandledCallbacks != null && requestHandledCallbacks.constructor === Array && requestHandledCallbacks.length > 0) {
+                                var handled = underlyingExchange.getAttachment($undertow._async_key);
+                                if (handled == null) {
+                                    $undertow._run_callbacks(requestHandledCallbacks);
+                                } else {
+                                    //the handler completes asynchronously, so the request has not been handled yet
+                                    handled.whenComplete(function () {
+                                        $undertow._run_callbacks(requestHandledCallbacks);
+                                    });
+                                }
+                            }
+                        } finally {
+                            if (guarded) {
+                                $undertow._java.BlockingGuard.exit(previous);
                             }
                         }
                     }
@@ -864,16 +1441,18 @@ var $undertow = {
 
     alias: function (alias, injection) {
         $undertow._injection_aliases[alias] = $undertow._create_injection_function(injection);
+        $undertow._injection_alias_entities[alias] = $undertow._entity_type(injection);
         return $undertow;
     },
 
+    /**
+     * Converts a value into an instance of a Java type, including any nested objects, arrays and collections
+     *
+     * @param type The Java type, either from Java.type() or a java.lang.Class
+     * @param val The value to convert
+     */
     toJava: function (type, val) {
-        var m = new type();
-        for (var n in val) {
-            //todo: complex graphs
-            m[n] = val[n];
-        }
-        return m;
+        return $undertow_support.javaConverter.convert(type instanceof java.lang.Class ? type : type.class, val);
     },
 
     toTemplateData: function (val) {
@@ -898,6 +1477,284 @@ var $undertow = {
 };
 
 
+$undertow.Exchange.prototype = {
+    /**
+     * Sets or gets a request header
+     *
+     *
+     * @param name The header name
+     * @param value The header value to set. If this is null the current request header is returned
+     * @returns {*} The specified request header
+     */
+    requestHeaders: function (name, value) {
+        if (arguments.length >= 2) {
+            this.$underlying.requestHeaders.put(new $undertow._java.HttpString(name), value);
+        } else if (arguments.length == 1) {
+            return this.$underlying.requestHeaders.getFirst(name);
+        } else {
+            return this.$underlying.requestHeaders;
+        }
+    },
+
+    /**
+     * Sets or gets a response header
+     *
+     *
+     * @param name The header name
+     * @param value The header value to set. If this is null the current request header is returned
+     * @returns {*} The specified request header
+     */
+    responseHeaders: function (name, value) {
+        if (arguments.length >= 2) {
+            this.$underlying.responseHeaders.put(new $undertow._java.HttpString(name), value);
+        } else if (arguments.length == 1) {
+            return this.$underlying.responseHeaders.getFirst(name);
+        } else {
+            return this.$underlying.responseHeaders;
+        }
+    },
+
+    /**
+     * Sends a response. If a number is given as the first parameter this is used as the response code.
+     *
+     * Strings are sent directly, and ByteBuffers and byte arrays are sent without being copied. ArrayBuffers and
+     * typed arrays are copied once into a byte array. Files, paths and resources are transferred from the file
+     * system by the connection. Anything else will be converted into JSON, see {@link #sendJson}.
+     */
+    send: function () {
+        var toSend = "";
+        if(arguments.length == 1) {
+            toSend = arguments[0];
+        } else {
+            toSend = arguments[1];
+            this.status(arguments[0]);
+        }
+        var types = $undertow._java;
+        var binary;
+        if(typeof toSend == 'string') {
+            this.$underlying.responseSender.send(toSend);
+        } else if((binary = $undertow._binary_data(toSend)) != null) {
+            this.$underlying.responseSender.send(binary);
+        } else if(toSend instanceof types.Path) {
+            types.ScriptResponses.transferFile(this.$underlying, toSend);
+        } else if(toSend instanceof types.File) {
+            types.ScriptResponses.transferFile(this.$underlying, toSend.toPath());
+        } else if(toSend instanceof types.Resource) {
+            types.ScriptResponses.serveResource(this.$underlying, toSend);
+        } else if(toSend !== undefined && typeof toSend != 'function') {
+            types.ScriptResponses.sendJson(this.$underlying, toSend, $undertow_support.javabeanIntrospector);
+        }
+    },
+
+    /**
+     * Sends a value as JSON, including strings. If a number is given as the first parameter this is used as the
+     * response code.
+     *
+     * The JSON is written straight into the response as it is encoded, so large values are never held in memory
+     * as a single string.
+     */
+    sendJson: function () {
+        var toSend = arguments[0];
+        if(arguments.length >= 2) {
+            toSend = arguments[1];
+            this.status(arguments[0]);
+        }
+        $undertow._java.ScriptResponses.sendJson(this.$underlying, toSend, $undertow_support.javabeanIntrospector);
+    },
+
+    /**
+     * Returns a writer that streams the response as it is produced, see {@link $undertow.ResponseWriter}. Once a
+     * handler has obtained the writer its result is not sent, and the response ends when the handler completes.
+     *
+     * @returns {*} the response writer, which is created on first use
+     */
+    writer: function () {
+        if (this.$writer == null) {
+            this.$writer = new $undertow.ResponseWriter($undertow._java.ResponseWriter.get(this.$underlying));
+        }
+        return this.$writer;
+    },
+
+    /**
+     * Redirects to a specific location
+     *
+     * @param location The location to redirect to
+     */
+    sendRedirect: function (location) {
+        this.responseHeaders("Location", location);
+        this.status(302);
+        this.endExchange();
+    },
+
+    /**
+     * Sets of gets the current response code
+     *
+     * @returns {*} The current response code
+     */
+    status: function () {
+        if (arguments.length > 0) {
+            this.$underlying.setResponseCode(arguments[0]);
+        } else {
+            return this.$underlying.responseCode;
+        }
+    },
+
+    endExchange: function () {
+        this.$underlying.endExchange();
+    },
+
+    /**
+     * Gets a query parameter
+     *
+     * @param name The query parameter name
+     * @returns {*} the query parameter
+     */
+    param: function (name) {
+        var paramList = this.$underlying.queryParameters.get(name);
+        if (paramList == null) {
+            return null;
+        }
+        return paramList.getFirst();
+    },
+
+    /**
+     * Gets a list of query parameters
+     *
+     * @param name The parameter name
+     * @returns {*} A list of query parameters
+     */
+    params: function (name) {
+        var params = this.$underlying.queryParameters.get(name);
+        if (params == null) {
+            return null;
+        }
+        var it = params.iterator();
+        var ret = [];
+        while (it.hasNext()) {
+            ret.push(it.next());
+        }
+        return ret;
+    },
+
+    /**
+     * Returns the underlying session object.
+     *
+     * @param create If the session should be created if it does not exist. Defaults to true
+     * @returns {*} The session object
+     */
+    session: function (create) {
+        create = create == null ? true : create;
+        var src = this.$underlying.getAttachment($undertow._java.ServletRequestContext.ATTACHMENT_KEY);
+        return src.getOriginalRequest().getSession(create);
+    },
+
+    /**
+     *
+     * @returns {*} the servlet request
+     */
+    request: function() {
+        var src = this.$underlying.getAttachment($undertow._java.ServletRequestContext.ATTACHMENT_KEY);
+        return src.getOriginalRequest();
+    },
+
+    /**
+     *
+     * @returns {*} the servlet response
+     */
+    response: function() {
+        var src = this.$underlying.getAttachment($undertow._java.ServletRequestContext.ATTACHMENT_KEY);
+        return src.getOriginalResponse();
+    }
+};
+
+/**
+ * The exchange that warm-up requests are sent through. Its HttpServerExchange is not attached to a connection, so every
+ * method that writes the response is replaced here. Values are still encoded, so the encoders are warmed up as well.
+ *
+ * @param underlyingExchange The detached HttpServerExchange
+ * @constructor
+ * @private
+ */
+$undertow._WarmupExchange = function (underlyingExchange) {
+    $undertow.Exchange.call(this, underlyingExchange);
+};
+$undertow._WarmupExchange.prototype = Object.create($undertow.Exchange.prototype);
+
+$undertow._WarmupExchange.prototype.send = function () {
+    var toSend = arguments[0];
+    if (arguments.length >= 2) {
+        toSend = arguments[1];
+        this.status(arguments[0]);
+    }
+    var types = $undertow._java;
+    if (typeof toSend == 'string' || toSend === undefined || typeof toSend == 'function'
+        || toSend instanceof types.Path || toSend instanceof types.File || toSend instanceof types.Resource) {
+        return;
+    }
+    if ($undertow._binary_data(toSend) == null) {
+        types.JsonWriter.stringify(toSend, $undertow_support.javabeanIntrospector);
+    }
+};
+
+$undertow._WarmupExchange.prototype.sendJson = function () {
+    $undertow._java.JsonWriter.stringify(arguments.length >= 2 ? arguments[1] : arguments[0], $undertow_support.javabeanIntrospector);
+    if (arguments.length >= 2) {
+        this.status(arguments[0]);
+    }
+};
+
+$undertow._WarmupExchange.prototype.writer = function () {
+    if (this.$writer == null) {
+        this.$writer = new $undertow.ResponseWriter({
+            write: function (data) {
+                return true;
+            },
+            flush: function () {
+            },
+            end: function () {
+            },
+            onDrain: function (callback) {
+                callback();
+            }
+        });
+    }
+    return this.$writer;
+};
+
+$undertow._WarmupExchange.prototype.endExchange = function () {
+};
+
+$undertow.ResponseWriter.prototype = {
+    /**
+     * Writes part of the response. Strings and binary data are written as they are, anything else is converted
+     * into JSON.
+     *
+     * @returns {boolean} false if the handler is non blocking and should wait for onDrain before writing more
+     */
+    write: function (data) {
+        if (typeof data == 'string') {
+            return this.$underlying.write(data);
+        }
+        var binary = $undertow._binary_data(data);
+        return this.$underlying.write(binary == null ? $undertow._java.JsonWriter.stringify(data, $undertow_support.javabeanIntrospector) : binary);
+    },
+
+    flush: function () {
+        this.$underlying.flush();
+    },
+
+    end: function () {
+        this.$underlying.end();
+    },
+
+    /**
+     * @param callback Invoked once the data that has been written so far has drained
+     */
+    onDrain: function (callback) {
+        this.$underlying.onDrain(callback);
+    }
+};
+
 //setup the JSON stringifyer to handle java object
 $undertow._oldStringify = JSON.stringify;
 JSON.stringify = function (value, replacer, space) {
@@ -915,9 +1772,9 @@ JSON.stringify = function (value, replacer, space) {
             return replacer == null ? Java.from(value) : replacer(name, Java.from(value));
         }
         var ret = {};
-        var methodMap = $undertow_support.javabeanIntrospector.inspect(value.class);
-        for (name in methodMap) {
-            ret[name] = methodMap[name].invoke(value, []);
+        var properties = $undertow_support.javabeanIntrospector.properties(value.class);
+        for (var i = 0; i < properties.length; ++i) {
+            ret[properties[i].name] = properties[i].get(value);
         }
         return replacer == null ? ret : replacer(name, ret);
     }
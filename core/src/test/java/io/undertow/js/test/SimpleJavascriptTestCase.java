@@ -18,8 +18,22 @@
 
 package io.undertow.js.test;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import javax.script.ScriptException;
 
@@ -27,6 +41,7 @@ import org.apache.http.HttpResponse;
 import org.apache.http.client.entity.UrlEncodedFormEntity;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.InputStreamEntity;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.message.BasicNameValuePair;
 import org.junit.Assert;
@@ -34,8 +49,12 @@ import org.junit.BeforeClass;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import io.undertow.js.ConcurrencyLimit;
 import io.undertow.js.InjectionContext;
 import io.undertow.js.InjectionProvider;
+import io.undertow.js.RequestCoalescer;
+import io.undertow.js.ResponseCache;
+import io.undertow.js.ScriptExecutors;
 import io.undertow.js.UndertowJS;
 import io.undertow.server.HandlerWrapper;
 import io.undertow.server.HttpHandler;
@@ -45,6 +64,7 @@ import io.undertow.server.handlers.resource.ResourceHandler;
 import io.undertow.testutils.DefaultServer;
 import io.undertow.testutils.HttpClientUtils;
 import io.undertow.testutils.TestHttpClient;
+import io.undertow.util.Headers;
 import io.undertow.util.HttpString;
 import io.undertow.util.StatusCodes;
 
@@ -54,11 +74,22 @@ import io.undertow.util.StatusCodes;
 @RunWith(DefaultServer.class)
 public class SimpleJavascriptTestCase {
 
+    private static UndertowJS js;
+    private static final ExecutorService singleExecutor = ScriptExecutors.bounded("single-executor", 1, 0);
+    /**
+     * Set by /testAsyncWrapperCallback just before its result is available
+     */
+    public static volatile boolean asyncResultReady;
+    /**
+     * Completed by the request handled callback of the test:callback injection, with the value of asyncResultReady
+     */
+    private static final CompletableFuture<Boolean> requestHandledCallback = new CompletableFuture<>();
+
     @BeforeClass
     public static void setup() throws ScriptException, IOException {
 
         final ClassPathResourceManager res = new ClassPathResourceManager(SimpleJavascriptTestCase.class.getClassLoader(), SimpleJavascriptTestCase.class.getPackage());
-        UndertowJS js = UndertowJS.builder()
+        js = UndertowJS.builder()
                 .addHandlerWrapper(new HandlerWrapper() {
                     @Override
                     public HttpHandler wrap(final HttpHandler handler) {
@@ -72,6 +103,8 @@ public class SimpleJavascriptTestCase {
                     }
                 })
                 .addInjectionProvider(new TestInjectionProvider())
+                .addExecutor("test-executor", ScriptExecutors.bounded("test-executor", 2))
+                .addExecutor("single-executor", singleExecutor)
                 .addResources(res, "test.js")
                 .setResourceManager(res).build();
         js.start();
@@ -274,10 +307,634 @@ public class SimpleJavascriptTestCase {
         }
     }
 
+    @Test
+    public void testWrapperEntityInjection() throws IOException {
+        final TestHttpClient client = new TestHttpClient();
+        try {
+            HttpPost post = new HttpPost(DefaultServer.getDefaultServerURL() + "/testWrapperEntity");
+            post.setEntity(new StringEntity("{\"value\":\"json\"}"));
+            HttpResponse result = client.execute(post);
+            Assert.assertEquals(StatusCodes.OK, result.getStatusLine().getStatusCode());
+            Assert.assertEquals("{\"value\":\"json\"}", result.getFirstHeader("Wrapper-Entity").getValue());
+            Assert.assertEquals("json", HttpClientUtils.readResponse(result));
+
+            post = new HttpPost(DefaultServer.getDefaultServerURL() + "/testWrapperEntityExcluded");
+            post.setEntity(new StringEntity("streamed"));
+            result = client.execute(post);
+            Assert.assertEquals(StatusCodes.OK, result.getStatusLine().getStatusCode());
+            Assert.assertNull(result.getFirstHeader("Wrapper-Entity"));
+            Assert.assertEquals("streamed", HttpClientUtils.readResponse(result));
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testNonBlockingHandler() throws IOException {
+        final TestHttpClient client = new TestHttpClient();
+        try {
+            HttpGet get = new HttpGet(DefaultServer.getDefaultServerURL() + "/testNonBlocking");
+            HttpResponse result = client.execute(get);
+            Assert.assertEquals(StatusCodes.OK, result.getStatusLine().getStatusCode());
+            Assert.assertEquals("io thread:true", HttpClientUtils.readResponse(result));
+            Assert.assertEquals("true", result.getFirstHeader("Wrapper-Io-Thread").getValue());
+
+            get = new HttpGet(DefaultServer.getDefaultServerURL() + "/testResponseSender");
+            result = client.execute(get);
+            Assert.assertEquals(StatusCodes.OK, result.getStatusLine().getStatusCode());
+            HttpClientUtils.readResponse(result);
+
+            get = new HttpGet(DefaultServer.getDefaultServerURL() + "/testNonBlockingGuard");
+            result = client.execute(get);
+            Assert.assertEquals(StatusCodes.INTERNAL_SERVER_ERROR, result.getStatusLine().getStatusCode());
+            HttpClientUtils.readResponse(result);
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testExchangeSharedWithWrappers() throws IOException {
+        final TestHttpClient client = new TestHttpClient();
+        try {
+            HttpGet get = new HttpGet(DefaultServer.getDefaultServerURL() + "/testSharedExchange");
+            HttpResponse result = client.execute(get);
+            Assert.assertEquals(StatusCodes.OK, result.getStatusLine().getStatusCode());
+            Assert.assertEquals("{\"fromWrapper\":\"shared\"}", HttpClientUtils.readResponse(result));
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testEntityNotReadUnlessInjected() throws IOException {
+        final TestHttpClient client = new TestHttpClient();
+        try {
+            HttpPost post = new HttpPost(DefaultServer.getDefaultServerURL() + "/testRawEntity");
+            post.setEntity(new StringEntity("raw entity"));
+            HttpResponse result = client.execute(post);
+            Assert.assertEquals(StatusCodes.OK, result.getStatusLine().getStatusCode());
+            Assert.assertEquals("request complete:false", HttpClientUtils.readResponse(result));
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testBytesAndStreamEntityInjection() throws IOException {
+        final TestHttpClient client = new TestHttpClient();
+        try {
+            HttpPost post = new HttpPost(DefaultServer.getDefaultServerURL() + "/testBytesEntity");
+            post.setEntity(new StringEntity("some bytes"));
+            HttpResponse result = client.execute(post);
+            Assert.assertEquals(StatusCodes.OK, result.getStatusLine().getStatusCode());
+            Assert.assertEquals("bytes:10", HttpClientUtils.readResponse(result));
+
+            post = new HttpPost(DefaultServer.getDefaultServerURL() + "/testStreamEntity");
+            post.setEntity(new StringEntity("streamed"));
+            result = client.execute(post);
+            Assert.assertEquals(StatusCodes.OK, result.getStatusLine().getStatusCode());
+            Assert.assertEquals("stream:streamed", HttpClientUtils.readResponse(result));
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testMaxEntitySize() throws IOException {
+        TestHttpClient client = new TestHttpClient();
+        try {
+            HttpPost post = new HttpPost(DefaultServer.getDefaultServerURL() + "/testMaxEntitySize");
+            post.setEntity(new StringEntity("small"));
+            HttpResponse result = client.execute(post);
+            Assert.assertEquals(StatusCodes.OK, result.getStatusLine().getStatusCode());
+            Assert.assertEquals("bytes:5", HttpClientUtils.readResponse(result));
+
+            post = new HttpPost(DefaultServer.getDefaultServerURL() + "/testMaxEntitySize");
+            post.setEntity(new StringEntity("this entity is too large"));
+            result = client.execute(post);
+            Assert.assertEquals(StatusCodes.REQUEST_ENTITY_TOO_LARGE, result.getStatusLine().getStatusCode());
+            HttpClientUtils.readResponse(result);
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+        client = new TestHttpClient();
+        try {
+            //no content length, so the limit is enforced while reading
+            HttpPost post = new HttpPost(DefaultServer.getDefaultServerURL() + "/testMaxEntitySize");
+            post.setEntity(new InputStreamEntity(new ByteArrayInputStream("this entity is too large".getBytes(StandardCharsets.UTF_8)), -1));
+            HttpResponse result = client.execute(post);
+            Assert.assertEquals(StatusCodes.REQUEST_ENTITY_TOO_LARGE, result.getStatusLine().getStatusCode());
+            HttpClientUtils.readResponse(result);
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testNestedJsonEntity() throws IOException {
+        final String json = "{\"name\":\"J\u00f8rgen \\u2603\",\"values\":[1,-2.5,1e3,true,null],\"nested\":{\"empty\":[]}}";
+        TestHttpClient client = new TestHttpClient();
+        try {
+            //no content length, so the entity is parsed as the chunks arrive
+            HttpPost post = new HttpPost(DefaultServer.getDefaultServerURL() + "/testNestedJson");
+            post.setEntity(new InputStreamEntity(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), -1));
+            HttpResponse result = client.execute(post);
+            Assert.assertEquals(StatusCodes.OK, result.getStatusLine().getStatusCode());
+            Assert.assertEquals("{\"name\":\"J\u00f8rgen \u2603\",\"values\":[1,-2.5,1000,true,null],\"nested\":{\"empty\":[]}}", HttpClientUtils.readResponse(result));
+
+            post = new HttpPost(DefaultServer.getDefaultServerURL() + "/testNestedJson");
+            post.setEntity(new StringEntity("{\"name\": tru}"));
+            result = client.execute(post);
+            Assert.assertEquals(StatusCodes.BAD_REQUEST, result.getStatusLine().getStatusCode());
+            HttpClientUtils.readResponse(result);
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testBinaryAndFileResponses() throws IOException {
+        final TestHttpClient client = new TestHttpClient();
+        try {
+            HttpGet get = new HttpGet(DefaultServer.getDefaultServerURL() + "/testSendBuffer");
+            HttpResponse result = client.execute(get);
+            Assert.assertEquals(StatusCodes.OK, result.getStatusLine().getStatusCode());
+            Assert.assertEquals("buffer", HttpClientUtils.readResponse(result));
+
+            get = new HttpGet(DefaultServer.getDefaultServerURL() + "/testSendTypedArray");
+            result = client.execute(get);
+            Assert.assertEquals(StatusCodes.OK, result.getStatusLine().getStatusCode());
+            Assert.assertEquals("cde", HttpClientUtils.readResponse(result));
+
+            get = new HttpGet(DefaultServer.getDefaultServerURL() + "/testSendFile");
+            result = client.execute(get);
+            Assert.assertEquals(StatusCodes.OK, result.getStatusLine().getStatusCode());
+            Assert.assertEquals("100000", result.getFirstHeader(Headers.CONTENT_LENGTH_STRING).getValue());
+            Assert.assertEquals("text/plain", result.getFirstHeader(Headers.CONTENT_TYPE_STRING).getValue());
+            String response = HttpClientUtils.readResponse(result);
+            Assert.assertEquals(100000, response.length());
+            Assert.assertTrue(response.startsWith("01234567890123"));
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testStreamingResponse() throws IOException {
+        final TestHttpClient client = new TestHttpClient();
+        try {
+            HttpGet get = new HttpGet(DefaultServer.getDefaultServerURL() + "/testStreaming");
+            HttpResponse result = client.execute(get);
+            Assert.assertEquals(StatusCodes.OK, result.getStatusLine().getStatusCode());
+            Assert.assertNull(result.getFirstHeader(Headers.CONTENT_LENGTH_STRING));
+            String[] rows = HttpClientUtils.readResponse(result).split("\n");
+            Assert.assertEquals(20000, rows.length);
+            Assert.assertEquals("row 0", rows[0]);
+            Assert.assertEquals("row 19999", rows[19999]);
+
+            get = new HttpGet(DefaultServer.getDefaultServerURL() + "/testStreamingNonBlocking");
+            result = client.execute(get);
+            Assert.assertEquals(StatusCodes.OK, result.getStatusLine().getStatusCode());
+            String response = HttpClientUtils.readResponse(result);
+            Assert.assertTrue(response.startsWith("{\"row\":0}{\"row\":1}"));
+            Assert.assertTrue(response.endsWith("{\"row\":19999}"));
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testRouteHeaders() throws IOException {
+        final TestHttpClient client = new TestHttpClient();
+        try {
+            HttpGet get = new HttpGet(DefaultServer.getDefaultServerURL() + "/testRouteHeaders");
+            HttpResponse result = client.execute(get);
+            Assert.assertEquals(StatusCodes.OK, result.getStatusLine().getStatusCode());
+            Assert.assertEquals("text/plain", result.getFirstHeader(Headers.CONTENT_TYPE_STRING).getValue());
+            Assert.assertEquals("route", result.getFirstHeader("X-Route").getValue());
+            Assert.assertEquals("headers", HttpClientUtils.readResponse(result));
+
+            get = new HttpGet(DefaultServer.getDefaultServerURL() + "/testNonBlocking");
+            result = client.execute(get);
+            Assert.assertEquals(StatusCodes.OK, result.getStatusLine().getStatusCode());
+            Assert.assertEquals("text/html; charset=UTF-8", result.getFirstHeader(Headers.CONTENT_TYPE_STRING).getValue());
+            HttpClientUtils.readResponse(result);
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testResponseCache() throws Exception {
+        final TestHttpClient client = new TestHttpClient();
+        try {
+            HttpGet get = new HttpGet(DefaultServer.getDefaultServerURL() + "/testCache?v=1");
+            HttpResponse result = client.execute(get);
+            Assert.assertEquals(StatusCodes.OK, result.getStatusLine().getStatusCode());
+            String fillingEtag = result.getFirstHeader(Headers.ETAG_STRING).getValue();
+            String first = HttpClientUtils.readResponse(result);
+
+            get = new HttpGet(DefaultServer.getDefaultServerURL() + "/testCache?v=1&ignored=true");
+            result = client.execute(get);
+            Assert.assertEquals(StatusCodes.OK, result.getStatusLine().getStatusCode());
+            Assert.assertEquals("true", result.getFirstHeader("wrapped-header").getValue());
+            String etag = result.getFirstHeader(Headers.ETAG_STRING).getValue();
+            Assert.assertEquals(fillingEtag, etag);
+            Assert.assertEquals(first, HttpClientUtils.readResponse(result));
+
+            get = new HttpGet(DefaultServer.getDefaultServerURL() + "/testCache?v=1");
+            get.addHeader(Headers.IF_NONE_MATCH_STRING, etag);
+            result = client.execute(get);
+            Assert.assertEquals(StatusCodes.NOT_MODIFIED, result.getStatusLine().getStatusCode());
+            HttpClientUtils.readResponse(result);
+
+            get = new HttpGet(DefaultServer.getDefaultServerURL() + "/testCache?v=2");
+            result = client.execute(get);
+            Assert.assertEquals(StatusCodes.OK, result.getStatusLine().getStatusCode());
+            Assert.assertNotEquals(first, HttpClientUtils.readResponse(result));
+
+            ResponseCache cache = js.getResponseCaches().get("GET /testCache");
+            //responses are cached once the exchange completes, which can be just after the client has read them
+            for (int i = 0; i < 100 && cache.getEntryCount() < 2; ++i) {
+                Thread.sleep(10);
+            }
+            Assert.assertEquals(2, cache.getHits());
+            Assert.assertEquals(2, cache.getMisses());
+            Assert.assertEquals(1, cache.getNotModified());
+            Assert.assertEquals(2, cache.getEntryCount());
+
+            //requests with credentials are never answered from the cache
+            get = new HttpGet(DefaultServer.getDefaultServerURL() + "/testCache?v=1");
+            get.addHeader(Headers.AUTHORIZATION_STRING, "Basic dXNlcjpwYXNzd29yZA==");
+            result = client.execute(get);
+            Assert.assertEquals(StatusCodes.OK, result.getStatusLine().getStatusCode());
+            Assert.assertNotEquals(first, HttpClientUtils.readResponse(result));
+            get = new HttpGet(DefaultServer.getDefaultServerURL() + "/testCache?v=1");
+            get.addHeader(Headers.COOKIE_STRING, "session=1");
+            result = client.execute(get);
+            Assert.assertEquals(StatusCodes.OK, result.getStatusLine().getStatusCode());
+            Assert.assertNotEquals(first, HttpClientUtils.readResponse(result));
+            Assert.assertEquals(2, cache.getHits());
+
+            //requests for another host are cached separately
+            get = new HttpGet(DefaultServer.getDefaultServerURL() + "/testCache?v=1");
+            get.addHeader(Headers.HOST_STRING, "other.example.com");
+            result = client.execute(get);
+            Assert.assertEquals(StatusCodes.OK, result.getStatusLine().getStatusCode());
+            Assert.assertNotEquals(first, HttpClientUtils.readResponse(result));
+            Assert.assertEquals(2, cache.getHits());
+            Assert.assertEquals(3, cache.getMisses());
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testRequestCoalescing() throws Exception {
+        final int requests = 4;
+        ExecutorService executor = Executors.newFixedThreadPool(requests);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < requests; ++i) {
+                results.add(executor.submit(new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        final TestHttpClient client = new TestHttpClient();
+                        try {
+                            HttpGet get = new HttpGet(DefaultServer.getDefaultServerURL() + "/testCoalesce");
+                            HttpResponse result = client.execute(get);
+                            Assert.assertEquals(StatusCodes.OK, result.getStatusLine().getStatusCode());
+                            return HttpClientUtils.readResponse(result);
+                        } finally {
+                            client.getConnectionManager().shutdown();
+                        }
+                    }
+                }));
+            }
+            for (Future<String> result : results) {
+                Assert.assertEquals("{\"count\":1}", result.get());
+            }
+            RequestCoalescer coalescer = js.getRequestCoalescers().get("GET /testCoalesce");
+            Assert.assertEquals(1, coalescer.getExecutions());
+            Assert.assertEquals(requests - 1, coalescer.getCoalesced());
+            Assert.assertEquals(0, coalescer.getInFlight());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testCredentialedRequestsAreNotCoalesced() throws Exception {
+        final int requests = 2;
+        ExecutorService executor = Executors.newFixedThreadPool(requests);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < requests; ++i) {
+                final String cookie = "session=" + i;
+                results.add(executor.submit(new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        final TestHttpClient client = new TestHttpClient();
+                        try {
+                            HttpGet get = new HttpGet(DefaultServer.getDefaultServerURL() + "/testCoalesceCredentials");
+                            get.addHeader(Headers.COOKIE_STRING, cookie);
+                            HttpResponse result = client.execute(get);
+                            Assert.assertEquals(StatusCodes.OK, result.getStatusLine().getStatusCode());
+                            return HttpClientUtils.readResponse(result);
+                        } finally {
+                            client.getConnectionManager().shutdown();
+                        }
+                    }
+                }));
+            }
+            Assert.assertNotEquals(results.get(0).get(), results.get(1).get());
+            RequestCoalescer coalescer = js.getRequestCoalescers().get("GET /testCoalesceCredentials");
+            Assert.assertEquals(0, coalescer.getExecutions());
+            Assert.assertEquals(0, coalescer.getCoalesced());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testConcurrencyLimit() throws Exception {
+        final int requests = 4;
+        ExecutorService executor = Executors.newFixedThreadPool(requests);
+        try {
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int i = 0; i < requests; ++i) {
+                results.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        final TestHttpClient client = new TestHttpClient();
+                        try {
+                            HttpGet get = new HttpGet(DefaultServer.getDefaultServerURL() + "/testConcurrency");
+                            HttpResponse result = client.execute(get);
+                            if (result.getStatusLine().getStatusCode() == StatusCodes.SERVICE_UNAVAILABLE) {
+                                Assert.assertEquals("5", result.getFirstHeader(Headers.RETRY_AFTER_STRING).getValue());
+                            } else {
+                                Assert.assertEquals("done", HttpClientUtils.readResponse(result));
+                            }
+                            return result.getStatusLine().getStatusCode();
+                        } finally {
+                            client.getConnectionManager().shutdown();
+                        }
+                    }
+                }));
+            }
+            int ok = 0;
+            int rejected = 0;
+            for (Future<Integer> result : results) {
+                if (result.get() == StatusCodes.OK) {
+                    ++ok;
+                } else {
+                    Assert.assertEquals(StatusCodes.SERVICE_UNAVAILABLE, (int) result.get());
+                    ++rejected;
+                }
+            }
+            Assert.assertEquals(2, ok);
+            Assert.assertEquals(2, rejected);
+            ConcurrencyLimit limit = js.getConcurrencyLimits().get("GET /testConcurrency");
+            Assert.assertEquals(2, limit.getAccepted());
+            Assert.assertEquals(1, limit.getQueued());
+            Assert.assertEquals(2, limit.getRejected());
+            Assert.assertEquals(1, limit.getPeakQueueDepth());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testJsonResponse() throws IOException {
+        final TestHttpClient client = new TestHttpClient();
+        try {
+            String expected = "{\"str\":\"a\\\"b\\n\u20ac\ud83d\ude00\",\"num\":1.5,\"int\":3,\"arr\":[1,\"x\",null,true,null]," +
+                    "\"list\":[1,2],\"map\":{\"k\":\"v\"},\"entry\":{\"key\":\"key\",\"value\":1},\"bean\":{\"name\":\"bean\",\"size\":2,\"count\":1}," +
+                    "\"date\":\"1970-01-01T00:00:00.000Z\",\"nested\":{\"a\":[{\"b\":1}]}}";
+            HttpGet get = new HttpGet(DefaultServer.getDefaultServerURL() + "/testJson");
+            HttpResponse result = client.execute(get);
+            Assert.assertEquals(StatusCodes.OK, result.getStatusLine().getStatusCode());
+            Assert.assertEquals(expected, HttpClientUtils.readResponse(result));
+
+            //JSON.stringify does not look into Java maps
+            get = new HttpGet(DefaultServer.getDefaultServerURL() + "/testJson?stringify=true");
+            result = client.execute(get);
+            Assert.assertEquals(StatusCodes.OK, result.getStatusLine().getStatusCode());
+            Assert.assertEquals(expected.replace("\"map\":{\"k\":\"v\"}", "\"map\":{}"), HttpClientUtils.readResponse(result));
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testJsonResponseFormatting() throws IOException, ScriptException {
+        final TestHttpClient client = new TestHttpClient();
+        try {
+            String expected = "{\"small\":0.0001,\"tiny\":1e-7,\"big\":1000000000000000,\"huge\":1e+21,\"fraction\":-0.0025," +
+                    "\"negativeZero\":0,\"arr\":[null,1,null],\"proto\":{\"own\":1}}";
+            HttpGet get = new HttpGet(DefaultServer.getDefaultServerURL() + "/testJsonFormatting");
+            HttpResponse result = client.execute(get);
+            Assert.assertEquals(StatusCodes.OK, result.getStatusLine().getStatusCode());
+            Assert.assertEquals(expected, HttpClientUtils.readResponse(result));
+
+            get = new HttpGet(DefaultServer.getDefaultServerURL() + "/testJsonCircular");
+            result = client.execute(get);
+            Assert.assertEquals(StatusCodes.INTERNAL_SERVER_ERROR, result.getStatusLine().getStatusCode());
+            HttpClientUtils.readResponse(result);
+
+            //the script JSON.stringify keeps its own behaviour, which writes undefined as null
+            Assert.assertEquals("{\"small\":0.0001,\"tiny\":1e-7,\"big\":1000000000000000,\"huge\":1e+21,\"fraction\":-0.0025," +
+                    "\"negativeZero\":0,\"missing\":null,\"arr\":[null,1,null],\"proto\":{\"own\":1}}", js.evaluate("JSON.stringify(jsonFormattingValue())"));
+            Assert.assertEquals("{\"a\":null,\"b\":0.0001,\"c\":[null]}", js.evaluate("JSON.stringify({a: undefined, b: 1e-4, c: [undefined]})"));
+            Assert.assertEquals("null", js.evaluate("JSON.stringify(undefined)"));
+            Assert.assertEquals(Boolean.TRUE, js.evaluate("var circular = {}; circular.self = circular; " +
+                    "(function () { try { JSON.stringify(circular); return false; } catch (e) { return e instanceof TypeError; } })()"));
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testStreamingJsonResponse() throws IOException, InterruptedException {
+        final TestHttpClient client = new TestHttpClient();
+        try {
+            StringBuilder expected = new StringBuilder("{\"items\":[");
+            for (int i = 0; i < 50000; ++i) {
+                expected.append(i == 0 ? "" : ",").append("\"item\"");
+            }
+            expected.append("]}");
+
+            HttpGet get = new HttpGet(DefaultServer.getDefaultServerURL() + "/testLargeJson");
+            HttpResponse result = client.execute(get);
+            Assert.assertEquals(StatusCodes.OK, result.getStatusLine().getStatusCode());
+            Assert.assertNull(result.getFirstHeader(Headers.CONTENT_LENGTH_STRING));
+            Assert.assertEquals(expected.toString(), HttpClientUtils.readResponse(result));
+
+            get = new HttpGet(DefaultServer.getDefaultServerURL() + "/testLargeJsonNonBlocking");
+            result = client.execute(get);
+            Assert.assertEquals(StatusCodes.CREATED, result.getStatusLine().getStatusCode());
+            Assert.assertEquals(expected.toString(), HttpClientUtils.readResponse(result));
+
+            StringBuilder page = new StringBuilder("{\"items\":[");
+            for (int i = 0; i < 25000; ++i) {
+                page.append(i == 0 ? "" : ",").append("\"item\"");
+            }
+            page.append("]}");
+            StringBuilder nested = new StringBuilder("{\"pages\":[");
+            for (int i = 0; i < 100; ++i) {
+                nested.append(i == 0 ? "" : ",").append(page);
+            }
+            nested.append("]}");
+
+            //the client does not read straight away, so the IO thread has to pause the encoding until it has drained
+            get = new HttpGet(DefaultServer.getDefaultServerURL() + "/testNestedLargeJsonNonBlocking");
+            result = client.execute(get);
+            Assert.assertEquals(StatusCodes.OK, result.getStatusLine().getStatusCode());
+            Thread.sleep(500);
+            Assert.assertEquals(nested.toString(), HttpClientUtils.readResponse(result));
+
+            get = new HttpGet(DefaultServer.getDefaultServerURL() + "/testJson");
+            result = client.execute(get);
+            Assert.assertNotNull(result.getFirstHeader(Headers.CONTENT_LENGTH_STRING));
+            HttpClientUtils.readResponse(result);
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testToJava() throws IOException {
+        final TestHttpClient client = new TestHttpClient();
+        try {
+            HttpGet get = new HttpGet(DefaultServer.getDefaultServerURL() + "/testToJava");
+            HttpResponse result = client.execute(get);
+            Assert.assertEquals(StatusCodes.OK, result.getStatusLine().getStatusCode());
+            Assert.assertEquals("a-set,OPEN,1000,Item,2,Integer,2", HttpClientUtils.readResponse(result));
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testJsonEntityIsNative() throws IOException {
+        TestHttpClient client = new TestHttpClient();
+        try {
+            HttpPost post = new HttpPost(DefaultServer.getDefaultServerURL() + "/testNativeJson");
+            post.setEntity(new StringEntity("{\"name\":\"a\",\"values\":[1,-2,3]}"));
+            HttpResponse result = client.execute(post);
+            Assert.assertEquals(StatusCodes.OK, result.getStatusLine().getStatusCode());
+            Assert.assertEquals("name,values:true:2,6", HttpClientUtils.readResponse(result));
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testRejectedByRouteExecutor() throws Exception {
+        final TestHttpClient client = new TestHttpClient();
+        final CountDownLatch latch = new CountDownLatch(1);
+        try {
+            //occupy the only thread, the executor has no queue
+            singleExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        latch.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+            HttpGet get = new HttpGet(DefaultServer.getDefaultServerURL() + "/testSingleExecutor");
+            HttpResponse result = client.execute(get);
+            Assert.assertEquals(StatusCodes.SERVICE_UNAVAILABLE, result.getStatusLine().getStatusCode());
+            HttpClientUtils.readResponse(result);
+
+            latch.countDown();
+            for (int i = 0; i < 100 && ((ThreadPoolExecutor) singleExecutor).getActiveCount() > 0; ++i) {
+                Thread.sleep(10);
+            }
+            result = client.execute(get);
+            Assert.assertEquals(StatusCodes.OK, result.getStatusLine().getStatusCode());
+            Assert.assertTrue(HttpClientUtils.readResponse(result).startsWith("single-executor-"));
+        } finally {
+            latch.countDown();
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testRouteExecutor() throws IOException {
+        final TestHttpClient client = new TestHttpClient();
+        try {
+            HttpGet get = new HttpGet(DefaultServer.getDefaultServerURL() + "/testExecutor");
+            HttpResponse result = client.execute(get);
+            Assert.assertEquals(StatusCodes.OK, result.getStatusLine().getStatusCode());
+            Assert.assertTrue(HttpClientUtils.readResponse(result).startsWith("test-executor-"));
+
+            //the wrapper runs on the route executor too, and the handler runs inside its $next()
+            get = new HttpGet(DefaultServer.getDefaultServerURL() + "/testExecutorWrapper");
+            result = client.execute(get);
+            Assert.assertEquals(StatusCodes.OK, result.getStatusLine().getStatusCode());
+            String[] parts = HttpClientUtils.readResponse(result).split(",");
+            Assert.assertTrue(parts[0].startsWith("test-executor-"));
+            Assert.assertEquals("false", parts[1]);
+            Assert.assertEquals(parts[0], parts[2]);
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testWrapperCallbacksWaitForAsyncResult() throws Exception {
+        final TestHttpClient client = new TestHttpClient();
+        try {
+            HttpGet get = new HttpGet(DefaultServer.getDefaultServerURL() + "/testAsyncWrapperCallback");
+            HttpResponse result = client.execute(get);
+            Assert.assertEquals(StatusCodes.OK, result.getStatusLine().getStatusCode());
+            Assert.assertEquals("async result", HttpClientUtils.readResponse(result));
+            Assert.assertTrue(requestHandledCallback.get(10, TimeUnit.SECONDS));
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testAsyncHandlers() throws IOException {
+        final TestHttpClient client = new TestHttpClient();
+        try {
+            HttpGet get = new HttpGet(DefaultServer.getDefaultServerURL() + "/testAsyncFuture");
+            HttpResponse result = client.execute(get);
+            Assert.assertEquals(StatusCodes.OK, result.getStatusLine().getStatusCode());
+            Assert.assertEquals("async result", HttpClientUtils.readResponse(result));
+
+            get = new HttpGet(DefaultServer.getDefaultServerURL() + "/testAsyncThenable");
+            result = client.execute(get);
+            Assert.assertEquals(StatusCodes.OK, result.getStatusLine().getStatusCode());
+            Assert.assertEquals("{\"message\":\"thenable\"}", HttpClientUtils.readResponse(result));
+
+            get = new HttpGet(DefaultServer.getDefaultServerURL() + "/testAsyncRejected");
+            result = client.execute(get);
+            Assert.assertEquals(StatusCodes.INTERNAL_SERVER_ERROR, result.getStatusLine().getStatusCode());
+            HttpClientUtils.readResponse(result);
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
     private static final class TestInjectionProvider implements InjectionProvider {
 
         @Override
         public Object getObject(InjectionContext injectionContext) {
+            if (injectionContext.getName().equals("callback")) {
+                injectionContext.setRequestHandledCallback(new Runnable() {
+                    @Override
+                    public void run() {
+                        requestHandledCallback.complete(asyncResultReady);
+                    }
+                });
+            }
             return "INJECTED:" + injectionContext.getName();
         }
 
@@ -286,4 +943,53 @@ public class SimpleJavascriptTestCase {
             return "test";
         }
     }
+
+    public static class JsonBean {
+
+        public int count = 1;
+
+        public String name = "field";
+
+        public int getSize() {
+            return 2;
+        }
+
+        public String getName() {
+            return "bean";
+        }
+    }
+
+    public enum Status {
+        OPEN, CLOSED
+    }
+
+    public static class Item {
+
+        public String name;
+
+        public int quantity;
+    }
+
+    public static class Order {
+
+        public Status status;
+
+        public Date created;
+
+        public List<Item> items;
+
+        public Map<String, Integer> counts;
+
+        public long[] codes;
+
+        private String id;
+
+        public String getId() {
+            return id;
+        }
+
+        public void setId(String id) {
+            this.id = id + "-set";
+        }
+    }
 }
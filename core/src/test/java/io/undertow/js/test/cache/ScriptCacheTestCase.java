@@ -0,0 +1,83 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.js.test.cache;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import io.undertow.js.UndertowJS;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.resource.ClassPathResourceManager;
+import io.undertow.testutils.DefaultServer;
+import io.undertow.testutils.HttpClientUtils;
+import io.undertow.testutils.TestHttpClient;
+import io.undertow.util.StatusCodes;
+
+@RunWith(DefaultServer.class)
+public class ScriptCacheTestCase {
+
+    static UndertowJS js;
+    static File codeCache;
+
+    @BeforeClass
+    public static void setup() throws Exception {
+        codeCache = Files.createTempDirectory("undertow-js-code-cache").toFile();
+        js = UndertowJS.builder()
+                .setCodeCacheDirectory(codeCache)
+                .setExecutionContextPoolSize(2)
+                .addResources(new ClassPathResourceManager(ScriptCacheTestCase.class.getClassLoader(), ScriptCacheTestCase.class.getPackage()), "cache.js").build();
+        js.start();
+        DefaultServer.setRootHandler(js.getHandler(new HttpHandler() {
+            @Override
+            public void handleRequest(HttpServerExchange exchange) throws Exception {
+                exchange.getResponseSender().send("Default Response");
+            }
+        }));
+    }
+
+    @AfterClass
+    public static void after() {
+        js.stop();
+    }
+
+    @Test
+    public void testScriptsAreCompiledOnce() throws Exception {
+        final TestHttpClient client = new TestHttpClient();
+        try {
+            HttpGet get = new HttpGet(DefaultServer.getDefaultServerURL() + "/cached");
+            HttpResponse result = client.execute(get);
+            Assert.assertEquals(StatusCodes.OK, result.getStatusLine().getStatusCode());
+            Assert.assertEquals("compiled", HttpClientUtils.readResponse(result));
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+        //the core scripts and cache.js, compiled once and shared by both execution contexts
+        Assert.assertEquals(2, js.getScriptCache().getMisses());
+        Assert.assertTrue(codeCache.list().length > 0);
+    }
+}
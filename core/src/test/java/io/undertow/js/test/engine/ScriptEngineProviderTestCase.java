@@ -0,0 +1,78 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.js.test.engine;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import io.undertow.js.UndertowJS;
+import io.undertow.js.providers.nashorn.NashornScriptEngineProvider;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.resource.ClassPathResourceManager;
+import io.undertow.testutils.DefaultServer;
+import io.undertow.testutils.HttpClientUtils;
+import io.undertow.testutils.TestHttpClient;
+import io.undertow.util.StatusCodes;
+
+@RunWith(DefaultServer.class)
+public class ScriptEngineProviderTestCase {
+
+    static UndertowJS js;
+
+    @BeforeClass
+    public static void setup() throws Exception {
+        js = UndertowJS.builder()
+                .setScriptEngineProvider(NashornScriptEngineProvider.throughput())
+                .setExecutionContextPoolSize(2)
+                .addResources(new ClassPathResourceManager(ScriptEngineProviderTestCase.class.getClassLoader(), ScriptEngineProviderTestCase.class.getPackage()), "engine.js").build();
+        js.start();
+        DefaultServer.setRootHandler(js.getHandler(new HttpHandler() {
+            @Override
+            public void handleRequest(HttpServerExchange exchange) throws Exception {
+                exchange.getResponseSender().send("Default Response");
+            }
+        }));
+    }
+
+    @AfterClass
+    public static void after() {
+        js.stop();
+    }
+
+    @Test
+    public void testThroughputEngine() throws Exception {
+        final TestHttpClient client = new TestHttpClient();
+        try {
+            for (int i = 0; i < 5; ++i) {
+                HttpGet get = new HttpGet(DefaultServer.getDefaultServerURL() + "/engine");
+                HttpResponse result = client.execute(get);
+                Assert.assertEquals(StatusCodes.OK, result.getStatusLine().getStatusCode());
+                Assert.assertEquals("total:4950", HttpClientUtils.readResponse(result));
+            }
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.js.test.hotdeploy;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import io.undertow.js.UndertowJS;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.resource.PathResourceManager;
+import io.undertow.testutils.DefaultServer;
+import io.undertow.testutils.HttpClientUtils;
+import io.undertow.testutils.TestHttpClient;
+import io.undertow.util.StatusCodes;
+
+@RunWith(DefaultServer.class)
+public class HotDeploymentTestCase {
+
+    /**
+     * The number of times counter.js has been evaluated
+     */
+    public static final AtomicInteger EVALUATIONS = new AtomicInteger();
+
+    static UndertowJS js;
+    static Path dir;
+    static Path script;
+
+    @BeforeClass
+    public static void setup() throws Exception {
+        dir = Files.createTempDirectory("undertow-js-hot-deployment");
+        script = dir.resolve("hot.js");
+        writeScript("version1");
+        Files.write(dir.resolve("wrapper.js"), wrapperScript("version1").getBytes(StandardCharsets.UTF_8));
+        //registered after hot.js, so it never applies to the /hot route
+        Files.write(dir.resolve("late.js"), "$undertow.wrapper(function($exchange, $next) { $exchange.responseHeaders('late', 'true'); $next(); });".getBytes(StandardCharsets.UTF_8));
+        Files.write(dir.resolve("counter.js"), ("Java.type('" + HotDeploymentTestCase.class.getName() + "').EVALUATIONS.incrementAndGet();").getBytes(StandardCharsets.UTF_8));
+        js = UndertowJS.builder()
+                .setHotDeployment(true)
+                .addResources(new PathResourceManager(dir, 1024), "wrapper.js", "hot.js", "late.js", "counter.js").build();
+        js.start();
+        DefaultServer.setRootHandler(js.getHandler(new HttpHandler() {
+            @Override
+            public void handleRequest(HttpServerExchange exchange) throws Exception {
+                exchange.getResponseSender().send("Default Response");
+            }
+        }));
+    }
+
+    @AfterClass
+    public static void after() throws IOException {
+        try {
+            js.stop();
+        } finally {
+            Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    Files.delete(file);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path directory, IOException exc) throws IOException {
+                    Files.delete(directory);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+    }
+
+    private static String wrapperScript(String version) {
+        return "$undertow.wrapper(function($exchange, $next) { $exchange.responseHeaders('version', '" + version + "'); $next(); });";
+    }
+
+    private static void writeScript(String response) throws IOException {
+        write(script, "$undertow.onGet('/hot', function($exchange) { return '" + response + "'; });");
+    }
+
+    private static void write(Path file, String contents) throws IOException {
+        long lastModified = Files.exists(file) ? Files.getLastModifiedTime(file).toMillis() : 0;
+        //the new version is moved into place, so the watcher never sees a partially written script
+        Path temp = Files.createTempFile(file.getParent(), "hot", ".tmp");
+        Files.write(temp, contents.getBytes(StandardCharsets.UTF_8));
+        //make sure the change is visible even on file systems with a coarse timestamp resolution
+        Files.setLastModifiedTime(temp, FileTime.fromMillis(Math.max(System.currentTimeMillis(), lastModified + 2000)));
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String awaitResponse(String expected) throws Exception {
+        //the poller may pick up the change a little later, so wait for the new version
+        long end = System.currentTimeMillis() + 10000;
+        String response = request("/hot");
+        while (!response.equals(expected) && System.currentTimeMillis() < end) {
+            Thread.sleep(100);
+            response = request("/hot");
+        }
+        return response;
+    }
+
+    private static String request(String path) throws IOException {
+        final TestHttpClient client = new TestHttpClient();
+        try {
+            HttpGet get = new HttpGet(DefaultServer.getDefaultServerURL() + path);
+            HttpResponse result = client.execute(get);
+            Assert.assertEquals(StatusCodes.OK, result.getStatusLine().getStatusCode());
+            return HttpClientUtils.readResponse(result);
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testChangedScriptIsRedeployed() throws Exception {
+        long generation = js.getGeneration();
+        long hits = js.getScriptCache().getHits();
+        writeScript("changed");
+        Assert.assertEquals("changed", awaitResponse("changed"));
+        Assert.assertTrue(js.getGeneration() > generation);
+        //the unchanged scripts were not compiled again
+        Assert.assertTrue(js.getScriptCache().getHits() >= hits + 4);
+        //the wrappers are applied exactly as they are by a full deployment
+        HttpResponse result = execute("/hot");
+        Assert.assertNotNull(result.getFirstHeader("version"));
+        Assert.assertNull(result.getFirstHeader("late"));
+    }
+
+    @Test
+    public void testUnchangedScriptsAreEvaluatedAgain() throws Exception {
+        int evaluations = EVALUATIONS.get();
+        long hits = js.getScriptCache().getHits();
+        writeScript("evaluated");
+        Assert.assertEquals("evaluated", awaitResponse("evaluated"));
+        //every generation evaluates all the scripts into a fresh global, the unchanged ones come from the cache
+        Assert.assertTrue(EVALUATIONS.get() > evaluations);
+        Assert.assertTrue(js.getScriptCache().getHits() > hits);
+    }
+
+    @Test
+    public void testFailedRedeployKeepsServing() throws Exception {
+        writeScript("before-failure");
+        Assert.assertEquals("before-failure", awaitResponse("before-failure"));
+        long generation = js.getGeneration();
+        write(script, "$undertow.onGet('/hot', function($exchange) {");
+        //give the poller a few chances to pick up, and retry, the broken version
+        Thread.sleep(UndertowJS.HOT_DEPLOYMENT_INTERVAL * 4);
+        Assert.assertEquals("before-failure", request("/hot"));
+        Assert.assertEquals(generation, js.getGeneration());
+        writeScript("recovered");
+        Assert.assertEquals("recovered", awaitResponse("recovered"));
+    }
+
+    @Test
+    public void testWrapperChangeRebuildsGeneration() throws Exception {
+        long generation = js.getGeneration();
+        Path wrapper = script.resolveSibling("wrapper.js");
+        write(wrapper, wrapperScript("version2"));
+        long end = System.currentTimeMillis() + 10000;
+        String version = versionHeader();
+        while (!"version2".equals(version) && System.currentTimeMillis() < end) {
+            Thread.sleep(100);
+            version = versionHeader();
+        }
+        Assert.assertEquals("version2", version);
+        Assert.assertTrue(js.getGeneration() > generation);
+        //the old generation is released by the completion listener of its last request, which may still be running
+        end = System.currentTimeMillis() + 10000;
+        while (js.getActiveGenerations() != 1 && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(1, js.getActiveGenerations());
+        Assert.assertTrue(js.getLastGenerationDrainTime() >= 0);
+    }
+
+    private static String versionHeader() throws IOException {
+        Header header = execute("/hot").getFirstHeader("version");
+        return header == null ? null : header.getValue();
+    }
+
+    private static HttpResponse execute(String path) throws IOException {
+        final TestHttpClient client = new TestHttpClient();
+        try {
+            HttpResponse result = client.execute(new HttpGet(DefaultServer.getDefaultServerURL() + path));
+            Assert.assertEquals(StatusCodes.OK, result.getStatusLine().getStatusCode());
+            HttpClientUtils.readResponse(result);
+            return result;
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.undertow.js.test.json;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.undertow.js.IncrementalJsonParser;
+
+public class IncrementalJsonParserTestCase {
+
+    private static final String DOCUMENT = "{\"name\":\"J\u00f8rgen \u2603 \ud83d\ude00\",\"escaped\":\"\\u2603\\n\\\"\",\"values\":[12345,-2.5,1e3,true,false,null],\"nested\":{\"empty\":[]}}";
+
+    @Test
+    public void testSplitAtEveryByte() {
+        byte[] data = DOCUMENT.getBytes(StandardCharsets.UTF_8);
+        Object expected = expected();
+        //every split point, including the middle of multi byte characters, escapes, numbers and literals
+        for (int i = 0; i <= data.length; ++i) {
+            IncrementalJsonParser parser = new IncrementalJsonParser();
+            parser.parse(ByteBuffer.wrap(data, 0, i));
+            parser.parse(ByteBuffer.wrap(data, i, data.length - i));
+            Assert.assertEquals("split at " + i, expected, parser.finish());
+        }
+    }
+
+    @Test
+    public void testSingleBytes() {
+        byte[] data = DOCUMENT.getBytes(StandardCharsets.UTF_8);
+        IncrementalJsonParser parser = new IncrementalJsonParser();
+        for (byte b : data) {
+            parser.parse(ByteBuffer.wrap(new byte[]{b}));
+        }
+        Assert.assertEquals(expected(), parser.finish());
+    }
+
+    @Test
+    public void testNumberAtEndOfDocument() {
+        byte[] data = "1234".getBytes(StandardCharsets.UTF_8);
+        IncrementalJsonParser parser = new IncrementalJsonParser();
+        parser.parse(ByteBuffer.wrap(data, 0, 2));
+        parser.parse(ByteBuffer.wrap(data, 2, 2));
+        Assert.assertEquals(1234, parser.finish());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTruncatedMultiByteCharacter() {
+        byte[] data = "\"\u2603\"".getBytes(StandardCharsets.UTF_8);
+        IncrementalJsonParser parser = new IncrementalJsonParser();
+        parser.parse(ByteBuffer.wrap(data, 0, 3));
+        parser.finish();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMalformedUtf8() {
+        IncrementalJsonParser parser = new IncrementalJsonParser();
+        parser.parse(ByteBuffer.wrap(new byte[]{'"', (byte) 0xC3}));
+        parser.parse(ByteBuffer.wrap(new byte[]{'"'}));
+        parser.finish();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSplitInvalidLiteral() {
+        IncrementalJsonParser parser = new IncrementalJsonParser();
+        parser.parse(ByteBuffer.wrap("[tr".getBytes(StandardCharsets.UTF_8)));
+        parser.parse(ByteBuffer.wrap("ie]".getBytes(StandardCharsets.UTF_8)));
+        parser.finish();
+    }
+
+    private static Object expected() {
+        Map<String, Object> expected = new LinkedHashMap<>();
+        expected.put("name", "J\u00f8rgen \u2603 \ud83d\ude00");
+        expected.put("escaped", "\u2603\n\"");
+        expected.put("values", Arrays.asList(12345, -2.5, 1000.0, true, false, null));
+        expected.put("nested", Collections.singletonMap("empty", Collections.emptyList()));
+        return expected;
+    }
+}
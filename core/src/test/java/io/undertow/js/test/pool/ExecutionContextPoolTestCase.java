@@ -0,0 +1,120 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.js.test.pool;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import io.undertow.js.UndertowJS;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.resource.ClassPathResourceManager;
+import io.undertow.testutils.DefaultServer;
+import io.undertow.testutils.HttpClientUtils;
+import io.undertow.testutils.TestHttpClient;
+import io.undertow.util.StatusCodes;
+
+@RunWith(DefaultServer.class)
+public class ExecutionContextPoolTestCase {
+
+    private static final int POOL_SIZE = 4;
+
+    static UndertowJS js;
+
+    @BeforeClass
+    public static void setup() throws Exception {
+        js = UndertowJS.builder()
+                .setExecutionContextPoolSize(POOL_SIZE)
+                .addResources(new ClassPathResourceManager(ExecutionContextPoolTestCase.class.getClassLoader(), ExecutionContextPoolTestCase.class.getPackage()), "pool.js").build();
+        js.start();
+        DefaultServer.setRootHandler(js.getHandler(new HttpHandler() {
+            @Override
+            public void handleRequest(HttpServerExchange exchange) throws Exception {
+                exchange.getResponseSender().send("Default Response");
+            }
+        }));
+    }
+
+    @AfterClass
+    public static void after() {
+        js.stop();
+    }
+
+    @Test
+    public void testConcurrentRequestsUseIsolatedGlobals() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(POOL_SIZE * 2);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < POOL_SIZE * 2; ++i) {
+                results.add(executor.submit(new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        final TestHttpClient client = new TestHttpClient();
+                        try {
+                            HttpGet get = new HttpGet(DefaultServer.getDefaultServerURL() + "/isolated");
+                            HttpResponse result = client.execute(get);
+                            Assert.assertEquals(StatusCodes.OK, result.getStatusLine().getStatusCode());
+                            return HttpClientUtils.readResponse(result);
+                        } finally {
+                            client.getConnectionManager().shutdown();
+                        }
+                    }
+                }));
+            }
+            for (Future<String> result : results) {
+                Assert.assertEquals("isolated", result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        Assert.assertEquals(POOL_SIZE, js.getExecutionContextPool().getPoolSize());
+        Assert.assertEquals(POOL_SIZE * 2, js.getExecutionContextPool().getLeaseCount());
+        //contexts are returned by a completion listener, which may run after the client has read the response
+        long end = System.currentTimeMillis() + 5000;
+        while (js.getExecutionContextPool().getAvailable() != POOL_SIZE && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(POOL_SIZE, js.getExecutionContextPool().getAvailable());
+    }
+
+    @Test
+    public void testWebsocketsAreRejectedWithPooledContexts() throws Exception {
+        UndertowJS pooled = UndertowJS.builder()
+                .setExecutionContextPoolSize(POOL_SIZE)
+                .addResources(new ClassPathResourceManager(ExecutionContextPoolTestCase.class.getClassLoader(), ExecutionContextPoolTestCase.class.getPackage()), "pool-websocket.js").build();
+        try {
+            pooled.start();
+            Assert.fail("websockets cannot be used with pooled execution contexts");
+        } catch (IllegalStateException expected) {
+            Assert.assertTrue(expected.getMessage().contains("/pooled-websocket"));
+        }
+    }
+}
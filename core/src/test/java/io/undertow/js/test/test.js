@@ -16,12 +16,43 @@
  *  limitations under the License.
  */
 
+var cacheCount = 0;
+var coalesceCount = 0;
+var credentialsCount = 0;
+
 $undertow
     .alias("json", "$entity:json")
     .wrapper("path[/testWrapper]", ["test:my-wrapper",function($exchange, $next, value) {
         $exchange.responseHeaders("Wrapper", value);
         $next();
     }])
+    .wrapper("path[/testNonBlocking]", function($exchange, $next) {
+        $exchange.responseHeaders("Wrapper-Io-Thread", java.lang.Thread.currentThread() instanceof org.xnio.XnioIoThread);
+        $next();
+    }, {non_blocking: true})
+    .wrapper("path[/testExecutorWrapper]", function($exchange, $next) {
+        $exchange.wrapperThread = java.lang.Thread.currentThread().name;
+        $next();
+        $exchange.afterNext = true;
+    })
+    .wrapper("path[/testAsyncWrapperCallback]", ["test:callback", function($exchange, $next, value) {
+        $next();
+    }])
+    .wrapper("path[/testSharedExchange]", function($exchange, $next) {
+        $exchange.fromWrapper = "shared";
+        $next();
+    })
+    .wrapper("path[/testWrapperEntity]", ["$entity:string", function($exchange, $next, entity) {
+        $exchange.responseHeaders("Wrapper-Entity", entity);
+        $next();
+    }])
+    .onPost("/testWrapperEntity", ["$entity:json_java", function($exchange, json) {
+        return json.get("value");
+    }])
+    .onPost("/testWrapperEntityExcluded", ["$entity:stream", function($exchange, stream) {
+        //the wrapper does not apply, so the entity has not been read for it
+        return new java.util.Scanner(stream, "UTF-8").useDelimiter("\\A").next();
+    }])
     .onGet("/testResponseSender", function ($exchange) {
         $exchange.send("Response Sender");
     })
@@ -57,5 +88,197 @@ $undertow
     })
     .onPost("/testForm1", ['$entity:form', function($exchange, form) {
         return JSON.stringify(form);
-    }]);
+    }])
+    .onGet("/testNonBlocking", {non_blocking: true}, function($exchange) {
+        return "io thread:" + (java.lang.Thread.currentThread() instanceof org.xnio.XnioIoThread);
+    })
+    .onGet("/testNonBlockingGuard", {non_blocking: true}, function($exchange) {
+        return new $undertow.JDBCWrapper(null).select("select 1");
+    })
+    .onGet("/testSharedExchange", function($exchange) {
+        $exchange.send({fromWrapper: $exchange.fromWrapper});
+    })
+    .onPost("/testRawEntity", function($exchange) {
+        return "request complete:" + $exchange.$underlying.requestComplete;
+    })
+    .onPost("/testBytesEntity", ['$entity:bytes', function($exchange, entity) {
+        return "bytes:" + entity.remaining();
+    }])
+    .onPost("/testStreamEntity", ['$entity:stream', function($exchange, entity) {
+        return "stream:" + new java.io.BufferedReader(new java.io.InputStreamReader(entity, "UTF-8")).readLine();
+    }])
+    .onPost("/testMaxEntitySize", {max_entity_size: 10}, ['$entity:bytes', function($exchange, entity) {
+        return "bytes:" + entity.remaining();
+    }])
+    .onPost("/testNestedJson", ['$entity:json_java', function($exchange, entity) {
+        return entity;
+    }])
+    .onPost("/testNativeJson", ['$entity:json', function($exchange, entity) {
+        return Object.keys(entity).join(",") + ":" + Array.isArray(entity.values) + ":" + entity.values.filter(function(v) { return v > 0; }).map(function(v) { return v * 2; });
+    }])
+    .onGet("/testSendBuffer", function($exchange) {
+        return java.nio.ByteBuffer.wrap(new java.lang.String("buffer").getBytes("UTF-8"));
+    })
+    .onGet("/testSendTypedArray", function($exchange) {
+        var data = new Uint8Array(8);
+        for (var i = 0; i < data.length; ++i) {
+            data[i] = 97 + i;
+        }
+        return data.subarray(2, 5);
+    })
+    .onGet("/testSendFile", {headers: {}}, function($exchange) {
+        var file = java.nio.file.Files.createTempFile("undertow-js", ".txt");
+        file.toFile().deleteOnExit();
+        var content = new java.lang.StringBuilder();
+        for (var i = 0; i < 10000; ++i) {
+            content.append("0123456789");
+        }
+        java.nio.file.Files.write(file, content.toString().getBytes("UTF-8"));
+        return file;
+    })
+    .onGet("/testStreaming", function($exchange) {
+        var writer = $exchange.writer();
+        for (var i = 0; i < 20000; ++i) {
+            writer.write("row " + i + "\n");
+        }
+        return "ignored";
+    })
+    .onGet("/testStreamingNonBlocking", {non_blocking: true}, function($exchange) {
+        var writer = $exchange.writer();
+        var future = new java.util.concurrent.CompletableFuture();
+        var i = 0;
+        var next = function() {
+            while (i < 20000) {
+                if (!writer.write({row: i++})) {
+                    writer.onDrain(next);
+                    return;
+                }
+            }
+            future.complete(null);
+        };
+        next();
+        return future;
+    })
+    .onGet("/testRouteHeaders", {headers: {'Content-Type': "text/plain", 'X-Route': "route"}}, function($exchange) {
+        return "headers";
+    })
+    .onGet("/testCache", {cache: {ttl: 60, vary_params: ["v"]}}, function($exchange) {
+        return {count: ++cacheCount};
+    })
+    .onGet("/testCoalesce", {coalesce: true}, function($exchange) {
+        java.lang.Thread.sleep(1000);
+        return {count: ++coalesceCount};
+    })
+    .onGet("/testCoalesceCredentials", {coalesce: true}, function($exchange) {
+        java.lang.Thread.sleep(500);
+        return {count: ++credentialsCount};
+    })
+    .onGet("/testConcurrency", {concurrency: {max: 1, queue: 1, retry_after: 5}}, function($exchange) {
+        java.lang.Thread.sleep(500);
+        return "done";
+    })
+    .onGet("/testJson", {headers: {'Content-Type': "application/json; charset=UTF-8"}}, function($exchange) {
+        var result = {
+            str: "a\"b\n\u20ac\ud83d\ude00",
+            num: 1.5,
+            int: 3,
+            arr: [1, "x", null, true, function() {}],
+            list: java.util.Arrays.asList(1, 2),
+            map: java.util.Collections.singletonMap("k", "v"),
+            entry: new java.util.AbstractMap.SimpleEntry("key", 1),
+            bean: new (Java.type("io.undertow.js.test.SimpleJavascriptTestCase$JsonBean"))(),
+            date: new Date(0),
+            fn: function() {},
+            nested: {a: [{b: 1}]}
+        };
+        return $exchange.param("stringify") ? JSON.stringify(result) : result;
+    })
+    .onGet("/testJsonFormatting", function($exchange) {
+        return jsonFormattingValue();
+    })
+    .onGet("/testJsonCircular", function($exchange) {
+        var value = {child: {}};
+        value.child.parent = value;
+        return value;
+    })
+    .onGet("/testLargeJson", function($exchange) {
+        return {items: java.util.Collections.nCopies(50000, "item")};
+    })
+    .onGet("/testLargeJsonNonBlocking", {non_blocking: true}, function($exchange) {
+        $exchange.sendJson(201, {items: java.util.Collections.nCopies(50000, "item")});
+    })
+    .onGet("/testNestedLargeJsonNonBlocking", {non_blocking: true}, function($exchange) {
+        $exchange.sendJson({pages: java.util.Collections.nCopies(100, {items: java.util.Collections.nCopies(25000, "item")})});
+    })
+    .onGet("/testToJava", function($exchange) {
+        var order = $undertow.toJava(Java.type("io.undertow.js.test.SimpleJavascriptTestCase$Order"), {
+            id: "a",
+            status: "OPEN",
+            created: new Date(1000),
+            items: [{name: "x", quantity: 2}],
+            counts: {a: 1},
+            codes: [1, 2],
+            unknown: true,
+            fn: function() {}
+        });
+        return [order.id, order.status.name(), order.created.time, order.items.get(0).getClass().simpleName,
+            order.items.get(0).quantity, order.counts.get("a").getClass().simpleName, order.codes[1]].join(",");
+    })
+    .onGet("/testExecutor", {executor: "test-executor"}, function($exchange) {
+        return java.lang.Thread.currentThread().name;
+    })
+    .onGet("/testSingleExecutor", {executor: "single-executor"}, function($exchange) {
+        return java.lang.Thread.currentThread().name;
+    })
+    .onGet("/testExecutorWrapper", {executor: "test-executor"}, function($exchange) {
+        return [$exchange.wrapperThread, $exchange.afterNext == true, java.lang.Thread.currentThread().name].join(",");
+    })
+    .onGet("/testAsyncFuture", function($exchange) {
+        var future = new java.util.concurrent.CompletableFuture();
+        new java.lang.Thread(function() {
+            java.lang.Thread.sleep(100);
+            future.complete("async result");
+        }).start();
+        return future;
+    })
+    .onGet("/testAsyncWrapperCallback", function($exchange) {
+        var future = new java.util.concurrent.CompletableFuture();
+        new java.lang.Thread(function() {
+            java.lang.Thread.sleep(100);
+            Java.type("io.undertow.js.test.SimpleJavascriptTestCase").asyncResultReady = true;
+            future.complete("async result");
+        }).start();
+        return future;
+    })
+    .onGet("/testAsyncThenable", function($exchange) {
+        return {
+            then: function(resolve, reject) {
+                resolve({message: "thenable"});
+            }
+        };
+    })
+    .onGet("/testAsyncRejected", function($exchange) {
+        return {
+            then: function(resolve, reject) {
+                reject("failed");
+            }
+        };
+    });
 
+function jsonFormattingValue() {
+    var withPrototype = Object.create({inherited: true});
+    withPrototype.own = 1;
+    Object.defineProperty(withPrototype, "hidden", {value: 2, enumerable: false});
+    return {
+        small: 1e-4,
+        tiny: 1e-7,
+        big: 1e15,
+        huge: 1e21,
+        fraction: -2.5e-3,
+        negativeZero: -0,
+        missing: undefined,
+        fn: function() {},
+        arr: [undefined, 1, function() {}],
+        proto: withPrototype
+    };
+}
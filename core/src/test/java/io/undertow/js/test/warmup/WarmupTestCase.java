@@ -0,0 +1,97 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.js.test.warmup;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import io.undertow.js.UndertowJS;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.resource.ClassPathResourceManager;
+import io.undertow.testutils.DefaultServer;
+import io.undertow.testutils.HttpClientUtils;
+import io.undertow.testutils.TestHttpClient;
+import io.undertow.util.StatusCodes;
+
+@RunWith(DefaultServer.class)
+public class WarmupTestCase {
+
+    static UndertowJS js;
+
+    @BeforeClass
+    public static void setup() throws Exception {
+        ClassPathResourceManager resources = new ClassPathResourceManager(WarmupTestCase.class.getClassLoader(), WarmupTestCase.class.getPackage());
+        js = UndertowJS.builder()
+                .setWarmupIterations(50)
+                .addWarmupScripts(resources, "warmup-script.js")
+                .addResources(resources, "warmup.js").build();
+        js.start();
+        DefaultServer.setRootHandler(js.getHandler(new HttpHandler() {
+            @Override
+            public void handleRequest(HttpServerExchange exchange) throws Exception {
+                exchange.getResponseSender().send("Default Response");
+            }
+        }));
+    }
+
+    @AfterClass
+    public static void after() {
+        js.stop();
+    }
+
+    @Test
+    public void testRoutesAreWarmedUpBeforePublishing() throws Exception {
+        Assert.assertTrue(js.getWarmupLatencies().containsKey("GET /warm"));
+        Assert.assertFalse(js.getWarmupLatencies().containsKey("GET /cold"));
+        Assert.assertTrue(js.getLastWarmupTime() >= 0);
+        final TestHttpClient client = new TestHttpClient();
+        try {
+            HttpGet get = new HttpGet(DefaultServer.getDefaultServerURL() + "/warm");
+            HttpResponse result = client.execute(get);
+            Assert.assertEquals(StatusCodes.OK, result.getStatusLine().getStatusCode());
+            Assert.assertEquals("calls:50 script:true", HttpClientUtils.readResponse(result));
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testResponseMethodsDuringWarmup() throws Exception {
+        //routes whose warm-up fails are not recorded
+        Assert.assertTrue(js.getWarmupLatencies().containsKey("GET /warmJson"));
+        Assert.assertTrue(js.getWarmupLatencies().containsKey("GET /warmWriter"));
+        Assert.assertTrue(js.getWarmupLatencies().containsKey("GET /warmRedirect"));
+        final TestHttpClient client = new TestHttpClient();
+        try {
+            HttpGet get = new HttpGet(DefaultServer.getDefaultServerURL() + "/warmHeaders");
+            HttpResponse result = client.execute(get);
+            Assert.assertEquals(StatusCodes.OK, result.getStatusLine().getStatusCode());
+            //the route headers were applied to every warm-up request as well
+            Assert.assertEquals("static:51", HttpClientUtils.readResponse(result));
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+}
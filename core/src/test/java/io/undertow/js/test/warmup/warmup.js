@@ -0,0 +1,51 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+var warmupCalls = 0;
+var warmupScriptRan = false;
+var staticHeaderCalls = 0;
+
+$undertow
+    .onGet("/warm", {warmup: {params: {name: "warmup"}, injected: ["injected"]}}, ["$entity:string", function ($exchange, entity) {
+        if ($exchange.param("name") == "warmup" && entity == "injected") {
+            warmupCalls++;
+            return {name: "warmup"};
+        }
+        return "calls:" + warmupCalls + " script:" + warmupScriptRan;
+    }])
+    .onGet("/warmJson", {warmup: true}, function ($exchange) {
+        $exchange.sendJson({name: "json"});
+    })
+    .onGet("/warmWriter", {warmup: true}, function ($exchange) {
+        var writer = $exchange.writer();
+        writer.write({name: "writer"});
+        writer.flush();
+        writer.end();
+    })
+    .onGet("/warmRedirect", {warmup: true}, function ($exchange) {
+        $exchange.sendRedirect("/cold");
+    })
+    .onGet("/warmHeaders", {warmup: true, headers: {'X-Static': "static"}}, function ($exchange) {
+        if ($exchange.responseHeaders("X-Static") == "static") {
+            staticHeaderCalls++;
+        }
+        return "static:" + staticHeaderCalls;
+    })
+    .onGet("/cold", function ($exchange) {
+        return "cold";
+    });